@@ -0,0 +1,40 @@
+package com.lyle.common.benchmarks;
+
+import java.io.File;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 压测入口：按线程数逐个运行JMH，每个线程数的结果以JSON格式写到单独的文件，便于持续对比是否退化。<br>
+ * 用法：java -Dbenchmark.threads=1,4,16 -Dbenchmark.resultDir=target/jmh -jar target/benchmarks.jar [JMH参数]<br>
+ * JMH参数和org.openjdk.jmh.Main相同，例如只运行格式化的压测：java -jar target/benchmarks.jar SequenceFormatBenchmark；
+ * 段切换方式的对照(RefillBenchmark)需按1、8、64、512个线程运行，即-Dbenchmark.threads=1,8,64,512<br>
+ * 结果文件为resultDir/threads-N.json，其中SampleTime模式的结果包含p50、p90、p99等延迟分位数
+ */
+public class BenchmarkRunner {
+
+	/** 默认的线程数 */
+	private static final String DEFAULT_THREADS = "1,4,16";
+	/** 默认的结果目录 */
+	private static final String DEFAULT_RESULT_DIR = "target/jmh";
+
+	public static void main(String[] args) throws Exception {
+		Options commandLineOptions = new CommandLineOptions(args);
+		String[] threadCounts = System.getProperty("benchmark.threads", DEFAULT_THREADS).split(",");
+		File resultDir = new File(System.getProperty("benchmark.resultDir", DEFAULT_RESULT_DIR));
+		if (!resultDir.isDirectory() && !resultDir.mkdirs()) {
+			throw new IllegalStateException("ERROR ## can not create the result dir: " + resultDir);
+		}
+		for (String threadCount : threadCounts) {
+			int threads = Integer.parseInt(threadCount.trim());
+			File result = new File(resultDir, "threads-" + threads + ".json");
+			Options options = new OptionsBuilder().parent(commandLineOptions).threads(threads)
+					.resultFormat(ResultFormatType.JSON).result(result.getPath()).build();
+			new Runner(options).run();
+		}
+	}
+}
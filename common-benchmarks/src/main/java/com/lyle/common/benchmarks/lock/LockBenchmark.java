@@ -0,0 +1,133 @@
+package com.lyle.common.benchmarks.lock;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisClientConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import com.lyle.common.lang.lock.AbstractRedisLock;
+import com.lyle.common.lang.lock.FairRedisLock;
+import com.lyle.common.lang.lock.Lock;
+import com.lyle.common.lang.lock.RedisLock;
+
+import redis.clients.jedis.JedisPoolConfig;
+
+/**
+ * redis锁在竞争下的获取延迟分布：每次操作为获取锁、执行一小段临界区、释放锁，SampleTime模式的p99、p99.9和最大值即等待的尾延迟；
+ * 线程数由BenchmarkRunner逐个设置，所有线程竞争同一个key。<br>
+ * lockType取值：redis为RedisLock(短间隔重试)，redisNotify为开启唤醒通知的RedisLock，fair为FairRedisLock。<br>
+ * 需要一个可访问的redis，地址通过-Dbenchmark.redis.host和-Dbenchmark.redis.port指定，默认127.0.0.1:6379；
+ * 只运行锁的压测：java -Dbenchmark.threads=1,4,16 -jar target/benchmarks.jar LockBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LockBenchmark {
+
+	/** 锁的过期时间，远大于临界区的执行时间 */
+	private static final long EXPIRE_SECONDS = 30;
+
+	/** 连接池大小，阻塞等待唤醒的线程各占一个连接，需大于线程数 */
+	private static final int MAX_CONNECTIONS = 128;
+
+	@Param({ "redis", "redisNotify", "fair" })
+	public String lockType;
+
+	/** 临界区消耗的CPU，单位为Blackhole.consumeCPU的token */
+	@Param({ "1000" })
+	public long criticalTokens;
+
+	private JedisConnectionFactory connectionFactory;
+
+	private StringRedisTemplate redisTemplate;
+
+	private String key;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		String host = System.getProperty("benchmark.redis.host", "127.0.0.1");
+		int port = Integer.parseInt(System.getProperty("benchmark.redis.port", "6379"));
+		JedisPoolConfig poolConfig = new JedisPoolConfig();
+		poolConfig.setMaxTotal(MAX_CONNECTIONS);
+		poolConfig.setMaxIdle(MAX_CONNECTIONS);
+		JedisClientConfiguration clientConfiguration = JedisClientConfiguration.builder()
+				.readTimeout(Duration.ofSeconds(10)).usePooling().poolConfig(poolConfig).build();
+		connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration(host, port),
+				clientConfiguration);
+		connectionFactory.afterPropertiesSet();
+		redisTemplate = new StringRedisTemplate(connectionFactory);
+		redisTemplate.afterPropertiesSet();
+		key = "benchmark:lock:" + UUID.randomUUID();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		redisTemplate.delete(Arrays.asList(key, key + AbstractRedisLock.NOTIFY_SUFFIX,
+				key + FairRedisLock.QUEUE_SUFFIX, key + FairRedisLock.TIMEOUTS_SUFFIX));
+		connectionFactory.destroy();
+	}
+
+	/**
+	 * 按lockType创建锁，RedisLock的持有者按实例区分，每个线程使用自己的实例
+	 */
+	Lock createLock() {
+		if ("redis".equals(lockType)) {
+			return new RedisLock(redisTemplate, key, EXPIRE_SECONDS, TimeUnit.SECONDS);
+		}
+		if ("redisNotify".equals(lockType)) {
+			RedisLock redisLock = new RedisLock(redisTemplate, key, EXPIRE_SECONDS, TimeUnit.SECONDS);
+			redisLock.setNotifyEnabled(true);
+			return redisLock;
+		}
+		if ("fair".equals(lockType)) {
+			return new FairRedisLock(redisTemplate, key, EXPIRE_SECONDS, TimeUnit.SECONDS);
+		}
+		throw new IllegalArgumentException("unknown lockType: " + lockType);
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadLock {
+
+		private Lock lock;
+
+		@Setup(Level.Trial)
+		public void setUp(LockBenchmark benchmark) {
+			lock = benchmark.createLock();
+		}
+	}
+
+	@Benchmark
+	public boolean lockAndUnlock(ThreadLock threadLock) throws InterruptedException {
+		Lock lock = threadLock.lock;
+		boolean unlocked;
+		lock.lock();
+		try {
+			Blackhole.consumeCPU(criticalTokens);
+		} finally {
+			unlocked = lock.unlock();
+		}
+		return unlocked;
+	}
+}
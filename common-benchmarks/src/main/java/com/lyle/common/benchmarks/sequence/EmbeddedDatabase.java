@@ -0,0 +1,75 @@
+package com.lyle.common.benchmarks.sequence;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+/**
+ * 压测用的H2内存数据库，带连接池并建好sequence表；每个实例是一个独立的库，模拟一个分库
+ */
+public class EmbeddedDatabase {
+
+	/** 建表语句，和sequence默认的表结构一致 */
+	private static final String CREATE_TABLE_SQL = "create table sequence(name varchar(64) primary key, "
+			+ "value bigint not null, min_value bigint not null, max_value bigint not null, step int not null, "
+			+ "gmt_create timestamp, gmt_modified timestamp)";
+
+	/** 默认连接池大小，取值较小以体现借还连接的开销 */
+	private static final int DEFAULT_MAX_CONNECTIONS = 8;
+
+	/** 保证每次创建的库名不重复 */
+	private static final AtomicInteger DATABASE_NUMBER = new AtomicInteger(0);
+
+	private final JdbcConnectionPool pool;
+
+	public EmbeddedDatabase() throws SQLException {
+		this(DEFAULT_MAX_CONNECTIONS);
+	}
+
+	/**
+	 * @param maxConnections 连接池的最大连接数
+	 * @throws SQLException
+	 */
+	public EmbeddedDatabase(int maxConnections) throws SQLException {
+		String url = "jdbc:h2:mem:sequence" + DATABASE_NUMBER.incrementAndGet()
+				+ ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+		pool = JdbcConnectionPool.create(url, "sa", "");
+		pool.setMaxConnections(maxConnections);
+		execute(CREATE_TABLE_SQL);
+	}
+
+	public DataSource getDataSource() {
+		return pool;
+	}
+
+	/**
+	 * 关闭数据库并释放连接池
+	 */
+	public void shutdown() {
+		try {
+			execute("shutdown");
+		} catch (SQLException e) {
+			// 关闭时出错不影响压测结果
+		}
+		pool.dispose();
+	}
+
+	private void execute(String sql) throws SQLException {
+		Connection con = pool.getConnection();
+		try {
+			Statement stmt = con.createStatement();
+			try {
+				stmt.execute(sql);
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			con.close();
+		}
+	}
+}
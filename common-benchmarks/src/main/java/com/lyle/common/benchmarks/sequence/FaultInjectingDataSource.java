@@ -0,0 +1,122 @@
+package com.lyle.common.benchmarks.sequence;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * 在获取连接时注入故障的数据源，用于压测某个分库变慢或者不可用时sequence的表现
+ */
+public class FaultInjectingDataSource implements DataSource {
+
+	/**
+	 * 故障类型
+	 */
+	public enum Fault {
+		/** 正常 */
+		NONE,
+		/** 每次获取连接都延迟 */
+		SLOW,
+		/** 每次获取连接都失败 */
+		FAILING,
+		/** 按周期交替正常和失败 */
+		FLAPPING
+	}
+
+	private final DataSource target;
+	private final Fault fault;
+	/** SLOW时每次获取连接的延迟，单位毫秒 */
+	private final long delayMillis;
+	/** FLAPPING时正常和失败各自持续的时间，单位毫秒 */
+	private final long periodMillis;
+
+	/**
+	 * @param target       真正的数据源
+	 * @param fault        故障类型
+	 * @param delayMillis  SLOW时每次获取连接的延迟，单位毫秒
+	 * @param periodMillis FLAPPING时正常和失败各自持续的时间，单位毫秒
+	 */
+	public FaultInjectingDataSource(DataSource target, Fault fault, long delayMillis, long periodMillis) {
+		this.target = target;
+		this.fault = fault;
+		this.delayMillis = delayMillis;
+		this.periodMillis = periodMillis;
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		inject();
+		return target.getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		inject();
+		return target.getConnection(username, password);
+	}
+
+	private void inject() throws SQLException {
+		switch (fault) {
+		case SLOW:
+			try {
+				TimeUnit.MILLISECONDS.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("interrupted while injecting delay");
+			}
+			break;
+		case FAILING:
+			throw new SQLException("injected connection failure");
+		case FLAPPING:
+			if ((System.currentTimeMillis() / periodMillis) % 2 == 1) {
+				throw new SQLException("injected flapping connection failure");
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return target.getLogWriter();
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		target.setLogWriter(out);
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+		target.setLoginTimeout(seconds);
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return target.getLoginTimeout();
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		return target.getParentLogger();
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if (iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		return target.unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || target.isWrapperFor(iface);
+	}
+}
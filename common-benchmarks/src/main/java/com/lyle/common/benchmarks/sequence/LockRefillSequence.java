@@ -0,0 +1,87 @@
+package com.lyle.common.benchmarks.sequence;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.exception.SequenceException;
+import com.lyle.common.sequence.impl.DefaultSequenceDAO;
+
+/**
+ * 改为CAS切换段之前的取值实现，仅作为RefillBenchmark的对照：段用完时所有线程排队等同一把ReentrantLock，
+ * 持锁线程循环检查段是否用完再切换；计数器在段用完后仍然继续自增
+ */
+public class LockRefillSequence {
+
+	private final Lock lock = new ReentrantLock();
+
+	private final DefaultSequenceDAO sequenceDAO;
+	private final String sequenceName;
+	private final long minValue;
+	private final long maxValue;
+	private final int innerStep;
+
+	private volatile SequenceRange currentRange;
+
+	public LockRefillSequence(DefaultSequenceDAO sequenceDAO, String sequenceName, long minValue, long maxValue,
+			int innerStep) {
+		this.sequenceDAO = sequenceDAO;
+		this.sequenceName = sequenceName;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.innerStep = innerStep;
+	}
+
+	public long nextValue() throws SequenceException {
+		if (currentRange == null) {
+			lock.lock();
+			try {
+				if (currentRange == null) {
+					currentRange = sequenceDAO.nextRange(sequenceName, minValue, maxValue, innerStep);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		long value = getAndIncrement(currentRange);
+		if (value == -1) {
+			lock.lock();
+			try {
+				for (;;) {
+					if (currentRange.isOver()) {
+						currentRange = sequenceDAO.nextRange(sequenceName, minValue, maxValue, innerStep);
+					}
+
+					value = getAndIncrement(currentRange);
+					if (value == -1) {
+						continue;
+					}
+
+					break;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		if (value < 0) {
+			throw new SequenceException("Sequence value overflow, value = " + value);
+		}
+
+		return value;
+	}
+
+	/**
+	 * 原来的段取值：不检查段是否已经用完，每次都对计数器做一次原子加
+	 */
+	private static long getAndIncrement(SequenceRange range) {
+		long currentValue = range.getValue().getAndIncrement();
+		if (currentValue > range.getMax()) {
+			// 借用段自己的标记，使isOver()和原来的实现一致
+			range.getAndIncrement();
+			return -1;
+		}
+		return currentValue;
+	}
+}
@@ -0,0 +1,79 @@
+package com.lyle.common.benchmarks.sequence;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lyle.common.sequence.impl.DefaultSequence;
+import com.lyle.common.sequence.impl.DefaultSequenceDAO;
+import com.lyle.common.sequence.impl.SequenceDataSourceHolder;
+
+/**
+ * 段切换方式的对照：cas为当前DefaultSequence的CAS选出切换线程，lock为原来按ReentrantLock排队切换的实现({@link LockRefillSequence})，
+ * 两者使用同一个H2库和同一个DefaultSequenceDAO；内步长较小，使切换段足够频繁。<br>
+ * 按请求的线程数运行：java -Dbenchmark.threads=1,8,64,512 -jar target/benchmarks.jar RefillBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RefillBenchmark {
+
+	/** 段切换的实现 */
+	@Param({ "cas", "lock" })
+	public String refill;
+
+	/** 内步长 */
+	@Param({ "100", "1000" })
+	public int innerStep;
+
+	private EmbeddedDatabase database;
+
+	private DefaultSequence casSequence;
+
+	private LockRefillSequence lockSequence;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		database = new EmbeddedDatabase();
+		DefaultSequenceDAO sequenceDAO = new DefaultSequenceDAO();
+		sequenceDAO.setSequenceDataSourceHolder(new SequenceDataSourceHolder(database.getDataSource()));
+		sequenceDAO.init();
+		DefaultSequence sequence = new DefaultSequence(sequenceDAO, "refill", 0, Long.MAX_VALUE, innerStep);
+		sequence.init();
+		if ("cas".equals(refill)) {
+			casSequence = sequence;
+		} else if ("lock".equals(refill)) {
+			lockSequence = new LockRefillSequence(sequenceDAO, "refill", 0, Long.MAX_VALUE, innerStep);
+		} else {
+			throw new IllegalArgumentException("unknown refill: " + refill);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		database.shutdown();
+	}
+
+	@Benchmark
+	public long nextValue() {
+		if (lockSequence != null) {
+			return lockSequence.nextValue();
+		}
+		return casSequence.nextValue();
+	}
+}
@@ -0,0 +1,102 @@
+package com.lyle.common.benchmarks.sequence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lyle.common.sequence.Sequence;
+import com.lyle.common.sequence.impl.DefaultSequence;
+import com.lyle.common.sequence.impl.DefaultSequenceDAO;
+import com.lyle.common.sequence.impl.MultipleSequence;
+import com.lyle.common.sequence.impl.MultipleSequenceDAO;
+import com.lyle.common.sequence.impl.SequenceDataSourceHolder;
+
+/**
+ * sequence取值的吞吐量和延迟分位数，按内步长和分库个数组合；线程数由BenchmarkRunner逐个设置。<br>
+ * 分库个数为1时使用DefaultSequence，否则使用MultipleSequence，所有线程共用同一个sequence以体现竞争
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceBenchmark {
+
+	/** 内步长，决定多少次取值访问一次db */
+	@Param({ "100", "1000", "10000" })
+	public int innerStep;
+
+	/** 分库个数 */
+	@Param({ "1", "2", "4" })
+	public int shards;
+
+	private final List<EmbeddedDatabase> databases = new ArrayList<EmbeddedDatabase>();
+
+	private Sequence sequence;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		List<DataSource> dataSources = new ArrayList<DataSource>(shards);
+		for (int i = 0; i < shards; i++) {
+			EmbeddedDatabase database = new EmbeddedDatabase();
+			databases.add(database);
+			dataSources.add(database.getDataSource());
+		}
+		sequence = createSequence(dataSources, "bench", innerStep);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for (EmbeddedDatabase database : databases) {
+			database.shutdown();
+		}
+		databases.clear();
+	}
+
+	@Benchmark
+	public long nextValue() {
+		return sequence.nextValue();
+	}
+
+	@Benchmark
+	public long[] nextValues() {
+		return sequence.nextValues(16);
+	}
+
+	/**
+	 * 按数据源个数创建sequence：一个数据源时为DefaultSequence，多个时为MultipleSequence
+	 */
+	static Sequence createSequence(List<DataSource> dataSources, String name, int innerStep) {
+		if (dataSources.size() == 1) {
+			DefaultSequenceDAO sequenceDAO = new DefaultSequenceDAO();
+			sequenceDAO.setSequenceDataSourceHolder(new SequenceDataSourceHolder(dataSources.get(0)));
+			sequenceDAO.init();
+			DefaultSequence defaultSequence = new DefaultSequence(sequenceDAO, name, 0, Long.MAX_VALUE, innerStep);
+			defaultSequence.init();
+			return defaultSequence;
+		}
+		MultipleSequenceDAO sequenceDAO = new MultipleSequenceDAO();
+		sequenceDAO.setDataSourceList(dataSources);
+		sequenceDAO.init();
+		MultipleSequence multipleSequence = new MultipleSequence(sequenceDAO, name, 0, Long.MAX_VALUE, innerStep);
+		multipleSequence.init();
+		return multipleSequence;
+	}
+}
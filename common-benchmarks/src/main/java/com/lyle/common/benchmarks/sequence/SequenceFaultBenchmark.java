@@ -0,0 +1,107 @@
+package com.lyle.common.benchmarks.sequence;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lyle.common.benchmarks.sequence.FaultInjectingDataSource.Fault;
+import com.lyle.common.sequence.impl.MultipleSequence;
+import com.lyle.common.sequence.impl.MultipleSequenceDAO;
+
+/**
+ * 分库故障时MultipleSequence的吞吐量和延迟分位数：3个分库中的第一个按故障类型变慢、不可用或者时好时坏，
+ * 分别在开启和关闭对冲获取时测量；内步长较小，使取值频繁访问db
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceFaultBenchmark {
+
+	/** 分库个数 */
+	private static final int SHARDS = 3;
+	/** 内步长 */
+	private static final int INNER_STEP = 100;
+	/** 变慢的分库每次获取连接的延迟，单位毫秒 */
+	private static final long SLOW_DELAY_MILLIS = 20;
+	/** 时好时坏的分库正常和失败各自持续的时间，单位毫秒 */
+	private static final long FLAPPING_PERIOD_MILLIS = 500;
+	/** 熔断打开的持续时间，比默认值短，使时好时坏的分库能在一轮测量内恢复，单位毫秒 */
+	private static final long OPEN_STATE_MILLIS = 1000;
+
+	/** 第一个分库的故障类型 */
+	@Param({ "NONE", "SLOW", "FAILING", "FLAPPING" })
+	public Fault fault;
+
+	/** 是否开启对冲获取 */
+	@Param({ "false", "true" })
+	public boolean hedged;
+
+	private final List<EmbeddedDatabase> databases = new ArrayList<EmbeddedDatabase>();
+
+	private MultipleSequenceDAO sequenceDAO;
+
+	private MultipleSequence sequence;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		List<DataSource> dataSources = new ArrayList<DataSource>(SHARDS);
+		for (int i = 0; i < SHARDS; i++) {
+			EmbeddedDatabase database = new EmbeddedDatabase();
+			databases.add(database);
+			dataSources.add(database.getDataSource());
+		}
+		// 先在正常的数据源上初始化记录，再换成注入了故障的数据源
+		MultipleSequenceDAO healthySequenceDAO = newSequenceDAO(dataSources);
+		sequence = new MultipleSequence(healthySequenceDAO, "fault", 0, Long.MAX_VALUE, INNER_STEP);
+		sequence.init();
+		healthySequenceDAO.destroy();
+
+		List<DataSource> faultyDataSources = new ArrayList<DataSource>(dataSources);
+		faultyDataSources.set(0, new FaultInjectingDataSource(dataSources.get(0), fault, SLOW_DELAY_MILLIS,
+				FLAPPING_PERIOD_MILLIS));
+		sequenceDAO = newSequenceDAO(faultyDataSources);
+		sequence.setSequenceDao(sequenceDAO);
+	}
+
+	private MultipleSequenceDAO newSequenceDAO(List<DataSource> dataSources) {
+		MultipleSequenceDAO multipleSequenceDAO = new MultipleSequenceDAO();
+		multipleSequenceDAO.setDataSourceList(dataSources);
+		multipleSequenceDAO.setHedged(hedged);
+		multipleSequenceDAO.setOpenStateMillis(OPEN_STATE_MILLIS);
+		multipleSequenceDAO.init();
+		return multipleSequenceDAO;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		sequenceDAO.destroy();
+		for (EmbeddedDatabase database : databases) {
+			database.shutdown();
+		}
+		databases.clear();
+	}
+
+	@Benchmark
+	public long nextValue() {
+		return sequence.nextValue();
+	}
+}
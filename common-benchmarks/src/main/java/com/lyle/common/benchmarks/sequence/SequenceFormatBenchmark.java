@@ -0,0 +1,121 @@
+package com.lyle.common.benchmarks.sequence;
+
+import java.util.Calendar;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lyle.common.lang.util.StringUtils;
+import com.lyle.common.sequence.Sequence;
+import com.lyle.common.sequence.SequenceHandle;
+import com.lyle.common.sequence.impl.DefaultSequenceDAO;
+import com.lyle.common.sequence.impl.SequenceDataSourceHolder;
+import com.lyle.common.sequence.impl.SequenceFactory;
+
+/**
+ * SequenceFactory生成带日期前缀的序号的开销：按名称查找、通过句柄以及追加到调用方缓冲几种方式；
+ * legacyGenSequence为改用SequenceFormatter之前的实现(每次创建Calendar并用StringUtils.alignRight补0)，与genSequenceByName对比
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceFormatBenchmark {
+
+	private static final String SEQUENCE_NAME = "format";
+
+	private EmbeddedDatabase database;
+
+	private SequenceFactory sequenceFactory;
+
+	private SequenceHandle handle;
+
+	/** 旧实现按名称查找sequence的map */
+	private final Map<String, Sequence> sequenceMap = new ConcurrentHashMap<String, Sequence>();
+
+	/**
+	 * 每个线程自己的缓冲，追加方式下复用
+	 */
+	@State(Scope.Thread)
+	public static class Buffer {
+		final StringBuilder builder = new StringBuilder(32);
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		database = new EmbeddedDatabase();
+		DefaultSequenceDAO sequenceDAO = new DefaultSequenceDAO();
+		sequenceDAO.setSequenceDataSourceHolder(new SequenceDataSourceHolder(database.getDataSource()));
+		sequenceDAO.init();
+		sequenceDAO.initSequenceRecord(SEQUENCE_NAME, 0, 99999999L, 10000);
+		sequenceFactory = new SequenceFactory(sequenceDAO);
+		sequenceFactory.init();
+		handle = sequenceFactory.getSequenceHandle(SEQUENCE_NAME);
+		sequenceMap.put(SEQUENCE_NAME, handle.getSequence());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		sequenceFactory.destroy();
+		database.shutdown();
+	}
+
+	@Benchmark
+	public String genSequenceByName() {
+		return sequenceFactory.genSequence(SEQUENCE_NAME, true);
+	}
+
+	@Benchmark
+	public String legacyGenSequence() {
+		Sequence sequence = sequenceMap.get(SEQUENCE_NAME);
+		String seqString = String.valueOf(sequence.nextValue());
+		return getDate() + StringUtils.alignRight(seqString, String.valueOf(sequence.getMaxValue()).length(), "0");
+	}
+
+	@Benchmark
+	public String genSequenceByHandle() {
+		return sequenceFactory.genSequence(handle, true);
+	}
+
+	@Benchmark
+	public String genSequenceNoDate() {
+		return sequenceFactory.genSequenceNoDate(handle, true);
+	}
+
+	@Benchmark
+	public int genSequenceToBuffer(Buffer buffer) {
+		StringBuilder builder = buffer.builder;
+		builder.setLength(0);
+		sequenceFactory.genSequence(builder, SEQUENCE_NAME, true);
+		return builder.length();
+	}
+
+	/**
+	 * 旧实现的日期前缀 YYYYMMDD
+	 */
+	private static String getDate() {
+		// 使用默认时区和语言环境获得一个日历。
+		Calendar rightNow = Calendar.getInstance();
+		int year = rightNow.get(Calendar.YEAR);
+		int month = rightNow.get(Calendar.MONTH) + 1; // 第一个月从0开始，所以得到月份＋1
+		int day = rightNow.get(Calendar.DAY_OF_MONTH);
+		StringBuilder sb = new StringBuilder();
+		sb.append(year).append(month < 10 ? "0" + month : month).append(day < 10 ? "0" + day : day);
+		return sb.toString();
+	}
+}
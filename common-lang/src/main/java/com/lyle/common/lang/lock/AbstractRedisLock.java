@@ -0,0 +1,242 @@
+package com.lyle.common.lang.lock;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * redis锁的公共实现：获取不到锁时的等待(短间隔重试或阻塞等待唤醒令牌)以及持有期间的看门狗续期，
+ * 子类只需实现一次获取、释放和续期的脚本。<br>
+ * 开启唤醒通知(notifyEnabled)后，释放锁的脚本在锁变为空闲时向key:notify列表放入一个令牌，
+ * 等待的线程用BLPOP阻塞在该列表上，锁一释放就有一个等待者被唤醒去抢锁；
+ * 令牌只保留一个并随锁的过期时间过期，释放时没有等待者的令牌会被下一个等待者直接取走，不会丢失唤醒。
+ * 共享锁的等待者被唤醒并获取成功后再放回一个令牌，让其他等待的读者也能依次被唤醒。<br>
+ * BLPOP最多等待notifyPollSeconds秒后重新尝试一次，作为未开启通知的节点释放锁、锁过期或令牌被放弃时的兜底；
+ * 剩余等待时间不足1秒(BLPOP的最小粒度)时退回短间隔重试。每个阻塞中的等待者占用一个redis连接，
+ * 同一个key上的并发等待者较多时注意连接池大小。<br>
+ * 开启看门狗(watchdogEnabled)后，持有锁期间由共用的调度线程每隔1/3过期时间触发一次续期，直到释放，见{@link LockWatchdog}。<br>
+ * 锁用到的几个key都以锁的key为前缀，redis集群下需要在key里带上hash tag(如"{order}:lock")使它们落在同一个slot。
+ *
+ * @author Lyle
+ */
+public abstract class AbstractRedisLock implements Lock {
+
+    /** 未开启唤醒通知时的重试间隔，单位毫秒 */
+    private static final long RETRY_INTERVAL_MILLIS = 50;
+    /** 默认阻塞等待唤醒的最长时间，单位秒 */
+    private static final long DEFAULT_NOTIFY_POLL_SECONDS = 1;
+    /** 唤醒通知列表的key后缀 */
+    public static final String NOTIFY_SUFFIX = ":notify";
+    /** 当前进程的标识，和线程id一起作为按线程区分的持有者 */
+    private static final String CLIENT_ID = UUID.randomUUID().toString();
+    private static final RedisScript<Long> SIGNAL_SCRIPT;
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final String key;
+    private final long expire;
+    private final TimeUnit unit;
+    /** 是否开启唤醒通知 */
+    private boolean notifyEnabled = false;
+    /** 阻塞等待唤醒的最长时间，超过后重新尝试获取锁，单位秒 */
+    private long notifyPollSeconds = DEFAULT_NOTIFY_POLL_SECONDS;
+    /** 是否开启看门狗续期 */
+    private boolean watchdogEnabled = false;
+    /** 各持有者当前持有期间的续期任务 */
+    private final ConcurrentMap<String, LockWatchdog.Renewal> renewals =
+        new ConcurrentHashMap<String, LockWatchdog.Renewal>();
+
+    static {
+        // 放入一个唤醒令牌，列表里最多保留一个令牌
+        StringBuilder sb = new StringBuilder();
+        sb.append("redis.call(\"lpush\",KEYS[1],\"1\") ");
+        sb.append("redis.call(\"ltrim\",KEYS[1],0,0) ");
+        sb.append("redis.call(\"pexpire\",KEYS[1],ARGV[1]) ");
+        sb.append("return 1 ");
+        SIGNAL_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+    }
+
+    /**
+     * @param redisTemplate
+     * @param key           redis键
+     * @param expire        redis键过期时间
+     * @param unit
+     */
+    protected AbstractRedisLock(RedisTemplate<String, String> redisTemplate, String key, long expire, TimeUnit unit) {
+        this.redisTemplate = redisTemplate;
+        this.key = key;
+        this.expire = expire;
+        this.unit = unit;
+    }
+
+    public void lock() throws InterruptedException {
+        boolean notified = false;
+        while (!tryLock()) {
+            if (notifyEnabled) {
+                notified = awaitNotify(notifyPollSeconds);
+            } else {
+                Thread.sleep(RETRY_INTERVAL_MILLIS);
+            }
+        }
+        afterAcquired(notified);
+    }
+
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanosTimeout = unit.toNanos(timeout);
+        if (nanosTimeout <= 0L) return false;
+        final long deadline = System.nanoTime() + nanosTimeout;
+
+        boolean notified = false;
+        while (!tryLock()) {
+            nanosTimeout = deadline - System.nanoTime();
+            if (nanosTimeout <= 0L) return false;
+            long seconds = Math.min(notifyPollSeconds, TimeUnit.NANOSECONDS.toSeconds(nanosTimeout));
+            if (notifyEnabled && seconds > 0) {
+                notified = awaitNotify(seconds);
+            } else {
+                Thread.sleep(Math.min(RETRY_INTERVAL_MILLIS, TimeUnit.NANOSECONDS.toMillis(nanosTimeout) + 1));
+            }
+        }
+        afterAcquired(notified);
+        return true;
+    }
+
+    /**
+     * 阻塞等待释放锁时放入的唤醒令牌，BLPOP不响应中断，返回后再检查中断标记
+     *
+     * @param seconds 最长等待时间，单位秒
+     * @return 是否取到了令牌
+     */
+    private boolean awaitNotify(long seconds) throws InterruptedException {
+        String token = redisTemplate.opsForList().leftPop(getNotifyKey(), seconds, TimeUnit.SECONDS);
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        return token != null;
+    }
+
+    /**
+     * 共享锁的等待者被唤醒并获取成功后，把令牌传给下一个等待者
+     */
+    private void afterAcquired(boolean notified) {
+        if (notified && isShared()) {
+            redisTemplate.execute(SIGNAL_SCRIPT, Arrays.asList(getNotifyKey()), String.valueOf(getExpireMillis()));
+        }
+    }
+
+    /**
+     * 是否为可以被多个持有者同时持有的共享锁
+     */
+    protected boolean isShared() {
+        return false;
+    }
+
+    /**
+     * 校验仍由owner持有后重置过期时间，由看门狗调用
+     *
+     * @param owner 持有者
+     * @return 是否续期成功，false表示锁已经过期或被其他人持有
+     */
+    protected abstract boolean renew(String owner);
+
+    /**
+     * 持有者首次获取锁后调用，开启看门狗时开始续期
+     *
+     * @param owner 持有者
+     */
+    protected void startRenewal(String owner) {
+        if (!watchdogEnabled) {
+            return;
+        }
+        LockWatchdog.Renewal previous = renewals.put(owner, LockWatchdog.watch(this, owner, getExpireMillis()));
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+
+    /**
+     * 持有者完全释放锁后调用，停止续期
+     *
+     * @param owner 持有者
+     */
+    protected void stopRenewal(String owner) {
+        LockWatchdog.Renewal renewal = renewals.remove(owner);
+        if (renewal != null) {
+            renewal.cancel();
+        }
+    }
+
+    /**
+     * 当前线程作为持有者的标识：进程标识加线程id，同一个线程多次获取视为同一个持有者
+     */
+    protected static String currentThreadOwner() {
+        return CLIENT_ID + ":" + Thread.currentThread().getId();
+    }
+
+    protected RedisTemplate<String, String> getRedisTemplate() {
+        return redisTemplate;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    protected String getNotifyKey() {
+        return key + NOTIFY_SUFFIX;
+    }
+
+    /**
+     * 过期时间，单位毫秒
+     */
+    protected long getExpireMillis() {
+        return unit.toMillis(expire);
+    }
+
+    public boolean isNotifyEnabled() {
+        return notifyEnabled;
+    }
+
+    /**
+     * 设置是否开启唤醒通知，同一个key的所有使用方都开启时等待者才能及时被唤醒，否则依赖notifyPollSeconds兜底
+     *
+     * @param notifyEnabled 是否开启
+     */
+    public void setNotifyEnabled(boolean notifyEnabled) {
+        this.notifyEnabled = notifyEnabled;
+    }
+
+    public boolean isWatchdogEnabled() {
+        return watchdogEnabled;
+    }
+
+    /**
+     * 设置是否开启看门狗续期，开启后持有期间每隔1/3过期时间续期一次，直到释放
+     *
+     * @param watchdogEnabled 是否开启
+     */
+    public void setWatchdogEnabled(boolean watchdogEnabled) {
+        this.watchdogEnabled = watchdogEnabled;
+    }
+
+    public long getNotifyPollSeconds() {
+        return notifyPollSeconds;
+    }
+
+    /**
+     * 设置阻塞等待唤醒的最长时间，超过后重新尝试获取锁
+     *
+     * @param notifyPollSeconds 秒数，至少为1
+     */
+    public void setNotifyPollSeconds(long notifyPollSeconds) {
+        if (notifyPollSeconds < 1) {
+            throw new IllegalArgumentException("notifyPollSeconds must be at least 1, notifyPollSeconds = "
+                + notifyPollSeconds);
+        }
+        this.notifyPollSeconds = notifyPollSeconds;
+    }
+}
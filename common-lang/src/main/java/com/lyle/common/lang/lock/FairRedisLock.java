@@ -0,0 +1,269 @@
+package com.lyle.common.lang.lock;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 公平的redis锁：等待者按到达顺序在key:queue列表里排队，锁只交给队首，释放时唤醒队首的等待者，不会被后来者抢先。<br>
+ * 每个等待者阻塞在自己的通知列表(key:notify:持有者)上，unlock()只唤醒队首一个等待者；
+ * BLPOP最多等待notifyPollSeconds秒后重新尝试，作为持有者崩溃后锁过期时的兜底。<br>
+ * 等待者每次尝试时刷新自己的等待超时(记录在key:timeouts有序集合里，取redis服务端时间)，
+ * 超过waiterTimeoutMillis没有刷新的等待者(进程崩溃等)在下一次执行脚本时被移出队列，不会一直挡住后面的等待者；
+ * tryLock(timeout)超时或等待时被中断的线程主动出队。<br>
+ * tryLock()只在锁空闲且没有人排队时获取成功，不会插队，也不会留在队列里。<br>
+ * 持有者为进程标识加线程id，同一个实例可以在多个线程之间共用；不可重入，同一个线程持有期间再次获取会失败。
+ * 看门狗续期见{@link AbstractRedisLock}，唤醒通知总是开启，不受notifyEnabled影响。
+ *
+ * @author Lyle
+ */
+public class FairRedisLock extends AbstractRedisLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(FairRedisLock.class);
+
+    /** 等待队列的key后缀 */
+    public static final String QUEUE_SUFFIX = ":queue";
+    /** 等待超时有序集合的key后缀 */
+    public static final String TIMEOUTS_SUFFIX = ":timeouts";
+    /** 默认的等待超时，单位毫秒 */
+    private static final long DEFAULT_WAITER_TIMEOUT_MILLIS = 5000;
+    /** 剩余等待时间不足1秒时的重试间隔，单位毫秒 */
+    private static final long RETRY_INTERVAL_MILLIS = 20;
+
+    private static final RedisScript<Long> LOCK_SCRIPT;
+    private static final RedisScript<Long> UNLOCK_SCRIPT;
+    private static final RedisScript<Long> DEQUEUE_SCRIPT;
+    private static final RedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        // 取服务端时间，把等待超时的等待者移出队列
+        StringBuilder prepare = new StringBuilder();
+        prepare.append("redis.replicate_commands() ");
+        prepare.append("local time = redis.call(\"time\") ");
+        prepare.append("local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) ");
+        prepare.append("local expired = redis.call(\"zrangebyscore\",KEYS[3],\"-inf\",now) ");
+        prepare.append("for i = 1, #expired do ");
+        prepare.append("    redis.call(\"lrem\",KEYS[2],0,expired[i]) ");
+        prepare.append("end ");
+        prepare.append("if #expired > 0 ");
+        prepare.append("then ");
+        prepare.append("    redis.call(\"zremrangebyscore\",KEYS[3],\"-inf\",now) ");
+        prepare.append("end ");
+
+        // 锁空闲时唤醒队首的等待者
+        StringBuilder notifyHead = new StringBuilder();
+        notifyHead.append("if redis.call(\"exists\",KEYS[1]) == 0 ");
+        notifyHead.append("then ");
+        notifyHead.append("    local head = redis.call(\"lindex\",KEYS[2],0) ");
+        notifyHead.append("    if head ");
+        notifyHead.append("    then ");
+        notifyHead.append("        local notify = KEYS[4] .. \":\" .. head ");
+        notifyHead.append("        redis.call(\"lpush\",notify,\"1\") ");
+        notifyHead.append("        redis.call(\"ltrim\",notify,0,0) ");
+        notifyHead.append("        redis.call(\"pexpire\",notify,ARGV[1]) ");
+        notifyHead.append("    end ");
+        notifyHead.append("end ");
+
+        // 锁空闲且队列为空或自己是队首时获取，返回1；否则按ARGV[4]决定是否排队(刷新等待超时)，返回0
+        StringBuilder sb = new StringBuilder(prepare);
+        sb.append("if redis.call(\"exists\",KEYS[1]) == 0 ");
+        sb.append("then ");
+        sb.append("    local head = redis.call(\"lindex\",KEYS[2],0) ");
+        sb.append("    if head == false or head == ARGV[2] ");
+        sb.append("    then ");
+        sb.append("        if head == ARGV[2] ");
+        sb.append("        then ");
+        sb.append("            redis.call(\"lpop\",KEYS[2]) ");
+        sb.append("            redis.call(\"zrem\",KEYS[3],ARGV[2]) ");
+        sb.append("            redis.call(\"del\",KEYS[4] .. \":\" .. ARGV[2]) ");
+        sb.append("        end ");
+        sb.append("        redis.call(\"set\",KEYS[1],ARGV[2],\"px\",ARGV[1]) ");
+        sb.append("        return 1 ");
+        sb.append("    end ");
+        sb.append("end ");
+        sb.append("if ARGV[4] == \"1\" ");
+        sb.append("then ");
+        sb.append("    if redis.call(\"zscore\",KEYS[3],ARGV[2]) == false ");
+        sb.append("    then ");
+        sb.append("        redis.call(\"rpush\",KEYS[2],ARGV[2]) ");
+        sb.append("    end ");
+        sb.append("    redis.call(\"zadd\",KEYS[3],now + tonumber(ARGV[3]),ARGV[2]) ");
+        sb.append("    redis.call(\"pexpire\",KEYS[2],ARGV[3]) ");
+        sb.append("    redis.call(\"pexpire\",KEYS[3],ARGV[3]) ");
+        sb.append("end ");
+        sb.append("return 0 ");
+        LOCK_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 由自己持有时释放并唤醒队首，返回1；否则返回0
+        sb = new StringBuilder(prepare);
+        sb.append("if redis.call(\"get\",KEYS[1]) ~= ARGV[2] ");
+        sb.append("then ");
+        sb.append("    return 0 ");
+        sb.append("end ");
+        sb.append("redis.call(\"del\",KEYS[1]) ");
+        sb.append(notifyHead);
+        sb.append("return 1 ");
+        UNLOCK_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 放弃等待：出队并删除自己的通知列表，自己原来是队首时唤醒新的队首
+        sb = new StringBuilder(prepare);
+        sb.append("redis.call(\"lrem\",KEYS[2],0,ARGV[2]) ");
+        sb.append("redis.call(\"zrem\",KEYS[3],ARGV[2]) ");
+        sb.append("redis.call(\"del\",KEYS[4] .. \":\" .. ARGV[2]) ");
+        sb.append(notifyHead);
+        sb.append("return 1 ");
+        DEQUEUE_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 仍由自己持有时重置过期时间
+        sb = new StringBuilder();
+        sb.append("if redis.call(\"get\",KEYS[1]) == ARGV[2] ");
+        sb.append("then ");
+        sb.append("    return redis.call(\"pexpire\",KEYS[1],ARGV[1]) ");
+        sb.append("else ");
+        sb.append("    return 0 ");
+        sb.append("end ");
+        RENEW_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+    }
+
+    private final List<String> keys;
+    /** 等待者多久没有刷新就被移出队列，单位毫秒 */
+    private long waiterTimeoutMillis = DEFAULT_WAITER_TIMEOUT_MILLIS;
+
+    /**
+     * @param redisTemplate
+     * @param key           redis键
+     * @param expire        redis键过期时间
+     * @param unit
+     */
+    public FairRedisLock(RedisTemplate<String, String> redisTemplate, String key, long expire, TimeUnit unit) {
+        super(redisTemplate, key, expire, unit);
+        this.keys = Arrays.asList(key, key + QUEUE_SUFFIX, key + TIMEOUTS_SUFFIX, getNotifyKey());
+    }
+
+    @Override
+    public void lock() throws InterruptedException {
+        acquire(-1L);
+    }
+
+    /**
+     * 只在锁空闲且没有人排队时获取，失败时不排队
+     */
+    public boolean tryLock() {
+        String owner = currentThreadOwner();
+        if (tryAcquire(owner, false)) {
+            startRenewal(owner);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanosTimeout = unit.toNanos(timeout);
+        if (nanosTimeout <= 0L) return tryLock();
+        return acquire(System.nanoTime() + nanosTimeout);
+    }
+
+    /**
+     * 排队等待直到成为队首并获取锁；超时、被中断或出错时出队
+     *
+     * @param deadline 截止时间(System.nanoTime())，小于0表示一直等待
+     * @return 是否获取成功
+     */
+    private boolean acquire(long deadline) throws InterruptedException {
+        String owner = currentThreadOwner();
+        String notifyKey = getNotifyKey() + ":" + owner;
+        boolean acquired = false;
+        try {
+            for (;;) {
+                if (tryAcquire(owner, true)) {
+                    acquired = true;
+                    startRenewal(owner);
+                    return true;
+                }
+                long seconds = getNotifyPollSeconds();
+                if (deadline >= 0) {
+                    long nanosTimeout = deadline - System.nanoTime();
+                    if (nanosTimeout <= 0L) return false;
+                    seconds = Math.min(seconds, TimeUnit.NANOSECONDS.toSeconds(nanosTimeout));
+                    if (seconds <= 0) {
+                        Thread.sleep(Math.min(RETRY_INTERVAL_MILLIS, TimeUnit.NANOSECONDS.toMillis(nanosTimeout) + 1));
+                        continue;
+                    }
+                }
+                // BLPOP不响应中断，返回后再检查中断标记
+                getRedisTemplate().opsForList().leftPop(notifyKey, seconds, TimeUnit.SECONDS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            if (!acquired) {
+                dequeue(owner);
+            }
+        }
+    }
+
+    private boolean tryAcquire(String owner, boolean enqueue) {
+        Long result = getRedisTemplate().execute(LOCK_SCRIPT, keys, String.valueOf(getExpireMillis()), owner,
+            String.valueOf(getWaiterLeaseMillis()), enqueue ? "1" : "0");
+        return result != null && result.longValue() == 1L;
+    }
+
+    private void dequeue(String owner) {
+        try {
+            getRedisTemplate().execute(DEQUEUE_SCRIPT, keys, String.valueOf(getExpireMillis()), owner);
+        } catch (RuntimeException e) {
+            // 出队失败时等待超时后会被其他人清理
+            logger.warn("WARN ## dequeue the fair redis lock waiter failed, key=" + getKey(), e);
+        }
+    }
+
+    public boolean unlock() {
+        String owner = currentThreadOwner();
+        stopRenewal(owner);
+        Long result = getRedisTemplate().execute(UNLOCK_SCRIPT, keys, String.valueOf(getExpireMillis()), owner);
+        if (result == null || result.longValue() != 1L) {
+            logger.warn("WARN ## the fair redis lock is not held by current thread when unlock, key=" + getKey());
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean renew(String owner) {
+        Long result = getRedisTemplate().execute(RENEW_SCRIPT, Arrays.asList(getKey()),
+            String.valueOf(getExpireMillis()), owner);
+        return result != null && result.longValue() == 1L;
+    }
+
+    /**
+     * 等待者的租约：至少覆盖两次阻塞等待，避免正常等待中的线程被当作已放弃
+     */
+    private long getWaiterLeaseMillis() {
+        return Math.max(waiterTimeoutMillis, TimeUnit.SECONDS.toMillis(getNotifyPollSeconds()) * 2);
+    }
+
+    public long getWaiterTimeoutMillis() {
+        return waiterTimeoutMillis;
+    }
+
+    /**
+     * 设置等待者多久没有刷新就被移出队列，实际使用的值不小于两倍的notifyPollSeconds
+     *
+     * @param waiterTimeoutMillis 毫秒数
+     */
+    public void setWaiterTimeoutMillis(long waiterTimeoutMillis) {
+        if (waiterTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("waiterTimeoutMillis must be greater than zero, waiterTimeoutMillis = "
+                + waiterTimeoutMillis);
+        }
+        this.waiterTimeoutMillis = waiterTimeoutMillis;
+    }
+}
@@ -26,7 +26,9 @@ public interface Lock {
 
     /**
      * 解锁
+     *
+     * @return 是否由当前持有者释放；返回false表示锁在释放前已经过期或被其他人持有，临界区可能没有被保护
      */
-    void unlock();
+    boolean unlock();
 
 }
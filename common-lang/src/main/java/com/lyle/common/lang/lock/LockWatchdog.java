@@ -0,0 +1,190 @@
+package com.lyle.common.lang.lock;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 锁续期看门狗：所有开启续期的锁共用一个守护线程的调度器，每把锁持有期间只有一个待执行的续期任务，
+ * 每次续期完成后再调度下一次，上千把锁同时持有也只占用调度队列里的上千个任务。<br>
+ * 调度线程只负责计时，到期后把访问redis的续期交给固定大小的续期线程池执行，
+ * 个别续期卡在redis上(如网络抖动等到读超时)时不会推迟其他锁的续期。<br>
+ * 续期出错(如redis暂时不可用)时继续按间隔重试，直到超过一个过期时间仍未成功才认为锁已丢失。
+ *
+ * @author Lyle
+ */
+final class LockWatchdog {
+
+    private static final Logger logger = LoggerFactory.getLogger(LockWatchdog.class);
+
+    /** 续期线程数 */
+    private static final int RENEW_THREADS = 8;
+
+    private LockWatchdog() {
+
+    }
+
+    /**
+     * 开始为锁续期
+     *
+     * @param lock         持有中的锁
+     * @param owner        持有者
+     * @param expireMillis 锁的过期时间，每隔1/3过期时间续期一次
+     * @return 续期任务，释放锁时取消
+     */
+    static Renewal watch(AbstractRedisLock lock, String owner, long expireMillis) {
+        Renewal renewal = new Renewal(lock, owner, expireMillis);
+        renewal.schedule();
+        return renewal;
+    }
+
+    /**
+     * 一把锁的续期任务，在续期线程池里执行
+     */
+    static final class Renewal implements Runnable {
+
+        private final AbstractRedisLock lock;
+        private final String owner;
+        private final long expireMillis;
+        private final long periodMillis;
+        /** 上一次续期成功(或获取锁)的时间，单位纳秒 */
+        private long lastRenewed = System.nanoTime();
+        private volatile boolean cancelled = false;
+        private volatile ScheduledFuture<?> future;
+        /** 由调度线程在到期时执行，把续期提交到续期线程池 */
+        private final Runnable trigger = new Runnable() {
+            public void run() {
+                dispatch();
+            }
+        };
+
+        Renewal(AbstractRedisLock lock, String owner, long expireMillis) {
+            this.lock = lock;
+            this.owner = owner;
+            this.expireMillis = expireMillis;
+            this.periodMillis = Math.max(1, expireMillis / 3);
+        }
+
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                if (!lock.renew(owner)) {
+                    if (!cancelled) {
+                        logger.warn("WARN ## the redis lock is lost before unlock, key=" + lock.getKey());
+                    }
+                    return;
+                }
+                lastRenewed = System.nanoTime();
+            } catch (RuntimeException e) {
+                if (System.nanoTime() - lastRenewed > TimeUnit.MILLISECONDS.toNanos(expireMillis)) {
+                    logger.warn("WARN ## renew the redis lock failed until it expired, key=" + lock.getKey(), e);
+                    return;
+                }
+                logger.warn("WARN ## renew the redis lock failed, retry later, key=" + lock.getKey(), e);
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                future = SchedulerHolder.SCHEDULER.schedule(trigger, periodMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                logger.warn("WARN ## schedule the redis lock renewal failed, key=" + lock.getKey(), e);
+            }
+            // 调度的同时被取消时，确保新调度的任务也被取消
+            if (cancelled) {
+                cancelFuture();
+            }
+        }
+
+        /**
+         * 到期时把续期交给续期线程池，被拒绝时等下一个间隔再试
+         */
+        private void dispatch() {
+            if (cancelled) {
+                return;
+            }
+            try {
+                RenewerHolder.RENEWER.execute(this);
+            } catch (RejectedExecutionException e) {
+                logger.warn("WARN ## submit the redis lock renewal failed, retry later, key=" + lock.getKey(), e);
+                schedule();
+            }
+        }
+
+        /**
+         * 停止续期，已经在执行的续期不受影响
+         */
+        void cancel() {
+            cancelled = true;
+            cancelFuture();
+        }
+
+        private void cancelFuture() {
+            ScheduledFuture<?> current = future;
+            if (current != null) {
+                current.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 共用的续期调度器，首次使用时才创建
+     */
+    private static class SchedulerHolder {
+
+        private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+        static {
+            SCHEDULER = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+                private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "redis-lock-watchdog-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            // 释放锁时取消的任务立即移出队列，避免大量已释放的锁堆积在队列里
+            SCHEDULER.setRemoveOnCancelPolicy(true);
+        }
+    }
+
+    /**
+     * 共用的续期线程池，首次使用时才创建；每把锁同时最多只有一个续期在排队或执行，队列长度不超过持有中的锁数
+     */
+    private static class RenewerHolder {
+
+        private static final ThreadPoolExecutor RENEWER;
+
+        static {
+            RENEWER = new ThreadPoolExecutor(RENEW_THREADS, RENEW_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                    private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "redis-lock-renewer-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            // 没有持有中的锁时不占用线程
+            RENEWER.allowCoreThreadTimeOut(true);
+        }
+    }
+}
@@ -4,22 +4,27 @@ import java.util.Arrays;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.data.redis.core.script.RedisScript;
 
 /**
+ * 基于redis SET NX的锁，不可重入：同一个实例在持有期间再次获取会失败。<br>
+ * 默认获取不到锁时每50毫秒重试一次；可以开启唤醒通知(notifyEnabled)和看门狗续期(watchdogEnabled)，见{@link AbstractRedisLock}。
+ *
  * @author Lyle
  * @date 2019-06-14
  */
-public class RedisLock implements Lock {
+public class RedisLock extends AbstractRedisLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisLock.class);
 
-    private RedisTemplate<String, String> redisTemplate;
-    private String key;
     private String value;
-    private long expire;
-    private TimeUnit unit;
-    private static final String UNLOCK_SCRIPT;
+    private static final RedisScript<Long> UNLOCK_SCRIPT;
+    private static final RedisScript<Long> UNLOCK_NOTIFY_SCRIPT;
+    private static final RedisScript<Long> RENEW_SCRIPT;
 
     static {
         StringBuilder sb = new StringBuilder();
@@ -29,7 +34,31 @@ public class RedisLock implements Lock {
         sb.append("else ");
         sb.append("    return 0 ");
         sb.append("end ");
-        UNLOCK_SCRIPT = sb.toString();
+        UNLOCK_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 释放锁并放入一个唤醒令牌，列表里最多保留一个令牌
+        sb = new StringBuilder();
+        sb.append("if redis.call(\"get\",KEYS[1]) == ARGV[1] ");
+        sb.append("then ");
+        sb.append("    redis.call(\"del\",KEYS[1]) ");
+        sb.append("    redis.call(\"lpush\",KEYS[2],\"1\") ");
+        sb.append("    redis.call(\"ltrim\",KEYS[2],0,0) ");
+        sb.append("    redis.call(\"pexpire\",KEYS[2],ARGV[2]) ");
+        sb.append("    return 1 ");
+        sb.append("else ");
+        sb.append("    return 0 ");
+        sb.append("end ");
+        UNLOCK_NOTIFY_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 仍由自己持有时重置过期时间
+        sb = new StringBuilder();
+        sb.append("if redis.call(\"get\",KEYS[1]) == ARGV[1] ");
+        sb.append("then ");
+        sb.append("    return redis.call(\"pexpire\",KEYS[1],ARGV[2]) ");
+        sb.append("else ");
+        sb.append("    return 0 ");
+        sb.append("end ");
+        RENEW_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
     }
 
     /**
@@ -39,46 +68,40 @@ public class RedisLock implements Lock {
      * @param unit
      */
     public RedisLock(RedisTemplate<String, String> redisTemplate, String key, long expire, TimeUnit unit) {
-        super();
-        this.redisTemplate = redisTemplate;
-        this.key = key;
+        super(redisTemplate, key, expire, unit);
         this.value = UUID.randomUUID().toString();
-        this.expire = expire;
-        this.unit = unit;
-    }
-
-    public void lock() throws InterruptedException {
-        while (!tryLock()) {
-            Thread.sleep(50);
-        }
     }
 
     public boolean tryLock() {
-        if (redisTemplate.opsForValue().setIfAbsent(key, value, expire, unit)) {
+        if (getRedisTemplate().opsForValue().setIfAbsent(getKey(), value, getExpireMillis(),
+            TimeUnit.MILLISECONDS)) {
+            startRenewal(value);
             return true;
         }
         return false;
     }
 
-    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
-        long nanosTimeout = unit.toNanos(timeout);
-        if (nanosTimeout <= 0L) return false;
-        final long deadline = System.nanoTime() + nanosTimeout;
-
-        while (!tryLock()) {
-            nanosTimeout = deadline - System.nanoTime();
-            if (nanosTimeout <= 0L) return false;
-            Thread.sleep(50);
+    public boolean unlock() {
+        stopRenewal(value);
+        Long result;
+        if (isNotifyEnabled()) {
+            result = getRedisTemplate().execute(UNLOCK_NOTIFY_SCRIPT, Arrays.asList(getKey(), getNotifyKey()),
+                value, String.valueOf(getExpireMillis()));
+        } else {
+            result = getRedisTemplate().execute(UNLOCK_SCRIPT, Arrays.asList(getKey()), value);
+        }
+        if (result == null || result.longValue() != 1L) {
+            logger.warn("WARN ## the redis lock is not held when unlock, key=" + getKey());
+            return false;
         }
         return true;
     }
 
-    public void unlock() {
-        RedisScript<Long> redisScript = new DefaultRedisScript<Long>(UNLOCK_SCRIPT, Long.class);
-
-        Long result = redisTemplate.execute(redisScript, Arrays.asList(key), value);
-
-//        return result == 1;
+    @Override
+    protected boolean renew(String owner) {
+        Long result = getRedisTemplate().execute(RENEW_SCRIPT, Arrays.asList(getKey()), owner,
+            String.valueOf(getExpireMillis()));
+        return result != null && result.longValue() == 1L;
     }
 
 }
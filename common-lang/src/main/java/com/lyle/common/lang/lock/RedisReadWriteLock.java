@@ -0,0 +1,258 @@
+package com.lyle.common.lang.lock;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 基于redis的读写锁：多个读者可以同时持有读锁，写锁和其他任何持有者互斥；读锁和写锁都按线程可重入。<br>
+ * 锁是一个hash，field "mode"为当前模式(read/write)，其余field为持有者(进程标识加线程id)及其持有次数；
+ * 每个持有者的租约到期时间记录在key:leases有序集合里，每次执行脚本时先清理租约已过期的持有者，
+ * 所以崩溃的读者不会因为其他读者不断续期而一直阻塞写者。时间取redis服务端时间，不受各客户端时钟偏差影响。<br>
+ * 写锁的持有者可以再获取读锁(降级)，但在全部释放前仍按写锁排斥其他人；读锁的持有者不能升级为写锁，等待写锁会一直失败。
+ * 没有写者优先，读者持续不断时写者可能等待较久。<br>
+ * 唤醒通知、看门狗续期等配置同时作用于读锁和写锁，见{@link AbstractRedisLock}；
+ * 开启唤醒通知后，锁变为空闲时唤醒一个等待者，等待的读者获取成功后再依次唤醒下一个。
+ *
+ * @author Lyle
+ */
+public class RedisReadWriteLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisReadWriteLock.class);
+
+    /** 持有者租约有序集合的key后缀 */
+    public static final String LEASES_SUFFIX = ":leases";
+
+    private static final RedisScript<Long> READ_LOCK_SCRIPT;
+    private static final RedisScript<Long> WRITE_LOCK_SCRIPT;
+    private static final RedisScript<Long> UNLOCK_SCRIPT;
+    private static final RedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        // 取服务端时间，清理租约已过期的持有者，没有持有者时删除锁
+        StringBuilder prepare = new StringBuilder();
+        prepare.append("redis.replicate_commands() ");
+        prepare.append("local time = redis.call(\"time\") ");
+        prepare.append("local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000) ");
+        prepare.append("local ttl = tonumber(ARGV[1]) ");
+        prepare.append("local expired = redis.call(\"zrangebyscore\",KEYS[2],\"-inf\",now) ");
+        prepare.append("for i = 1, #expired do ");
+        prepare.append("    redis.call(\"hdel\",KEYS[1],expired[i]) ");
+        prepare.append("end ");
+        prepare.append("if #expired > 0 ");
+        prepare.append("then ");
+        prepare.append("    redis.call(\"zremrangebyscore\",KEYS[2],\"-inf\",now) ");
+        prepare.append("end ");
+        prepare.append("if redis.call(\"hlen\",KEYS[1]) <= 1 ");
+        prepare.append("then ");
+        prepare.append("    redis.call(\"del\",KEYS[1],KEYS[2]) ");
+        prepare.append("end ");
+
+        // 更新持有者的租约，两个key的过期时间不短于租约
+        StringBuilder lease = new StringBuilder();
+        lease.append("redis.call(\"zadd\",KEYS[2],now + ttl,ARGV[2]) ");
+        lease.append("local keep = math.max(redis.call(\"pttl\",KEYS[1]),ttl) ");
+        lease.append("redis.call(\"pexpire\",KEYS[1],keep) ");
+        lease.append("redis.call(\"pexpire\",KEYS[2],keep) ");
+
+        // 持有次数加1并返回
+        StringBuilder hold = new StringBuilder();
+        hold.append("local count = redis.call(\"hincrby\",KEYS[1],ARGV[2],1) ");
+        hold.append(lease);
+        hold.append("return count ");
+
+        // 空闲、读模式或自己持有写锁时可以获取读锁
+        StringBuilder sb = new StringBuilder(prepare);
+        sb.append("local mode = redis.call(\"hget\",KEYS[1],\"mode\") ");
+        sb.append("if mode == false ");
+        sb.append("then ");
+        sb.append("    redis.call(\"hset\",KEYS[1],\"mode\",\"read\") ");
+        sb.append("elseif mode == \"write\" and redis.call(\"hexists\",KEYS[1],ARGV[2]) == 0 ");
+        sb.append("then ");
+        sb.append("    return 0 ");
+        sb.append("end ");
+        sb.append(hold);
+        READ_LOCK_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 空闲或自己持有写锁时可以获取写锁
+        sb = new StringBuilder(prepare);
+        sb.append("local mode = redis.call(\"hget\",KEYS[1],\"mode\") ");
+        sb.append("if mode == false ");
+        sb.append("then ");
+        sb.append("    redis.call(\"hset\",KEYS[1],\"mode\",\"write\") ");
+        sb.append("elseif mode ~= \"write\" or redis.call(\"hexists\",KEYS[1],ARGV[2]) == 0 ");
+        sb.append("then ");
+        sb.append("    return 0 ");
+        sb.append("end ");
+        sb.append(hold);
+        WRITE_LOCK_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 持有次数减1，返回剩余次数；没有持有者时删除锁并按需放入唤醒令牌；不是自己持有时返回-1
+        sb = new StringBuilder(prepare);
+        sb.append("if redis.call(\"hexists\",KEYS[1],ARGV[2]) == 0 ");
+        sb.append("then ");
+        sb.append("    return -1 ");
+        sb.append("end ");
+        sb.append("local count = redis.call(\"hincrby\",KEYS[1],ARGV[2],-1) ");
+        sb.append("if count > 0 ");
+        sb.append("then ");
+        sb.append(lease);
+        sb.append("    return count ");
+        sb.append("end ");
+        sb.append("redis.call(\"hdel\",KEYS[1],ARGV[2]) ");
+        sb.append("redis.call(\"zrem\",KEYS[2],ARGV[2]) ");
+        sb.append("if redis.call(\"hlen\",KEYS[1]) <= 1 ");
+        sb.append("then ");
+        sb.append("    redis.call(\"del\",KEYS[1],KEYS[2]) ");
+        sb.append("    if ARGV[3] == \"1\" ");
+        sb.append("    then ");
+        sb.append("        redis.call(\"lpush\",KEYS[3],\"1\") ");
+        sb.append("        redis.call(\"ltrim\",KEYS[3],0,0) ");
+        sb.append("        redis.call(\"pexpire\",KEYS[3],ttl) ");
+        sb.append("    end ");
+        sb.append("end ");
+        sb.append("return 0 ");
+        UNLOCK_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 仍由自己持有时续租
+        sb = new StringBuilder(prepare);
+        sb.append("if redis.call(\"hexists\",KEYS[1],ARGV[2]) == 0 ");
+        sb.append("then ");
+        sb.append("    return 0 ");
+        sb.append("end ");
+        sb.append(lease);
+        sb.append("return 1 ");
+        RENEW_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+    }
+
+    private final ModeLock readLock;
+    private final ModeLock writeLock;
+
+    /**
+     * @param redisTemplate
+     * @param key           redis键
+     * @param expire        每个持有者的租约时间，每次获取和释放(未完全释放时)都会重置
+     * @param unit
+     */
+    public RedisReadWriteLock(RedisTemplate<String, String> redisTemplate, String key, long expire, TimeUnit unit) {
+        this.readLock = new ModeLock(redisTemplate, key, expire, unit, true);
+        this.writeLock = new ModeLock(redisTemplate, key, expire, unit, false);
+    }
+
+    /**
+     * 读锁，多个线程可以同时持有
+     */
+    public Lock readLock() {
+        return readLock;
+    }
+
+    /**
+     * 写锁，和其他任何持有者互斥
+     */
+    public Lock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * 设置是否开启唤醒通知
+     *
+     * @param notifyEnabled 是否开启
+     * @see AbstractRedisLock#setNotifyEnabled(boolean)
+     */
+    public void setNotifyEnabled(boolean notifyEnabled) {
+        readLock.setNotifyEnabled(notifyEnabled);
+        writeLock.setNotifyEnabled(notifyEnabled);
+    }
+
+    /**
+     * 设置阻塞等待唤醒的最长时间
+     *
+     * @param notifyPollSeconds 秒数，至少为1
+     * @see AbstractRedisLock#setNotifyPollSeconds(long)
+     */
+    public void setNotifyPollSeconds(long notifyPollSeconds) {
+        readLock.setNotifyPollSeconds(notifyPollSeconds);
+        writeLock.setNotifyPollSeconds(notifyPollSeconds);
+    }
+
+    /**
+     * 设置是否开启看门狗续期
+     *
+     * @param watchdogEnabled 是否开启
+     * @see AbstractRedisLock#setWatchdogEnabled(boolean)
+     */
+    public void setWatchdogEnabled(boolean watchdogEnabled) {
+        readLock.setWatchdogEnabled(watchdogEnabled);
+        writeLock.setWatchdogEnabled(watchdogEnabled);
+    }
+
+    /**
+     * 读锁或写锁，同一个持有者的读写持有次数记在同一个field上
+     */
+    private class ModeLock extends AbstractRedisLock {
+
+        private final boolean shared;
+        private final List<String> keys;
+
+        ModeLock(RedisTemplate<String, String> redisTemplate, String key, long expire, TimeUnit unit,
+                 boolean shared) {
+            super(redisTemplate, key, expire, unit);
+            this.shared = shared;
+            this.keys = Arrays.asList(key, key + LEASES_SUFFIX, getNotifyKey());
+        }
+
+        public boolean tryLock() {
+            String owner = currentThreadOwner();
+            Long count = getRedisTemplate().execute(shared ? READ_LOCK_SCRIPT : WRITE_LOCK_SCRIPT, keys,
+                String.valueOf(getExpireMillis()), owner);
+            if (count == null || count.longValue() <= 0) {
+                return false;
+            }
+            if (count.longValue() == 1L) {
+                startRenewal(owner);
+            }
+            return true;
+        }
+
+        public boolean unlock() {
+            String owner = currentThreadOwner();
+            Long count = getRedisTemplate().execute(UNLOCK_SCRIPT, keys, String.valueOf(getExpireMillis()), owner,
+                isNotifyEnabled() ? "1" : "0");
+            if (count == null || count.longValue() < 0) {
+                stopAllRenewal(owner);
+                logger.warn("WARN ## the redis " + (shared ? "read" : "write")
+                            + " lock is not held by current thread when unlock, key=" + getKey());
+                return false;
+            }
+            if (count.longValue() == 0) {
+                stopAllRenewal(owner);
+            }
+            return true;
+        }
+
+        /**
+         * 续期任务可能由读锁或写锁启动，完全释放时两边都停止
+         */
+        private void stopAllRenewal(String owner) {
+            readLock.stopRenewal(owner);
+            writeLock.stopRenewal(owner);
+        }
+
+        @Override
+        protected boolean renew(String owner) {
+            Long result = getRedisTemplate().execute(RENEW_SCRIPT, keys, String.valueOf(getExpireMillis()), owner);
+            return result != null && result.longValue() == 1L;
+        }
+
+        @Override
+        protected boolean isShared() {
+            return shared;
+        }
+    }
+}
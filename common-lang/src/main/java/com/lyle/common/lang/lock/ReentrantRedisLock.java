@@ -0,0 +1,127 @@
+package com.lyle.common.lang.lock;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 可重入的redis锁：锁是一个hash，field为持有者(进程标识加线程id)，value为持有次数。<br>
+ * 同一个线程可以多次获取，每次获取都要对应一次unlock()，持有次数减到0时才真正释放；
+ * 持有者按线程区分，所以同一个实例可以在多个线程之间共用，和java.util.concurrent.locks.ReentrantLock的用法一致。<br>
+ * 唤醒通知和看门狗续期见{@link AbstractRedisLock}。
+ *
+ * @author Lyle
+ */
+public class ReentrantRedisLock extends AbstractRedisLock {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReentrantRedisLock.class);
+
+    private static final RedisScript<Long> LOCK_SCRIPT;
+    private static final RedisScript<Long> UNLOCK_SCRIPT;
+    private static final RedisScript<Long> RENEW_SCRIPT;
+
+    static {
+        // 锁空闲或已由自己持有时持有次数加1，返回加1后的次数；被其他人持有时返回0
+        StringBuilder sb = new StringBuilder();
+        sb.append("if redis.call(\"exists\",KEYS[1]) == 0 or redis.call(\"hexists\",KEYS[1],ARGV[2]) == 1 ");
+        sb.append("then ");
+        sb.append("    local count = redis.call(\"hincrby\",KEYS[1],ARGV[2],1) ");
+        sb.append("    redis.call(\"pexpire\",KEYS[1],ARGV[1]) ");
+        sb.append("    return count ");
+        sb.append("end ");
+        sb.append("return 0 ");
+        LOCK_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 持有次数减1，返回剩余次数；减到0时删除锁并按需放入唤醒令牌；不是自己持有时返回-1
+        sb = new StringBuilder();
+        sb.append("if redis.call(\"hexists\",KEYS[1],ARGV[2]) == 0 ");
+        sb.append("then ");
+        sb.append("    return -1 ");
+        sb.append("end ");
+        sb.append("local count = redis.call(\"hincrby\",KEYS[1],ARGV[2],-1) ");
+        sb.append("if count > 0 ");
+        sb.append("then ");
+        sb.append("    redis.call(\"pexpire\",KEYS[1],ARGV[1]) ");
+        sb.append("    return count ");
+        sb.append("end ");
+        sb.append("redis.call(\"del\",KEYS[1]) ");
+        sb.append("if ARGV[3] == \"1\" ");
+        sb.append("then ");
+        sb.append("    redis.call(\"lpush\",KEYS[2],\"1\") ");
+        sb.append("    redis.call(\"ltrim\",KEYS[2],0,0) ");
+        sb.append("    redis.call(\"pexpire\",KEYS[2],ARGV[1]) ");
+        sb.append("end ");
+        sb.append("return 0 ");
+        UNLOCK_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+
+        // 仍由自己持有时重置过期时间
+        sb = new StringBuilder();
+        sb.append("if redis.call(\"hexists\",KEYS[1],ARGV[2]) == 1 ");
+        sb.append("then ");
+        sb.append("    return redis.call(\"pexpire\",KEYS[1],ARGV[1]) ");
+        sb.append("else ");
+        sb.append("    return 0 ");
+        sb.append("end ");
+        RENEW_SCRIPT = new DefaultRedisScript<Long>(sb.toString(), Long.class);
+    }
+
+    /**
+     * @param redisTemplate
+     * @param key           redis键
+     * @param expire        redis键过期时间，每次获取和释放(未完全释放时)都会重置
+     * @param unit
+     */
+    public ReentrantRedisLock(RedisTemplate<String, String> redisTemplate, String key, long expire, TimeUnit unit) {
+        super(redisTemplate, key, expire, unit);
+    }
+
+    public boolean tryLock() {
+        String owner = currentThreadOwner();
+        Long count = getRedisTemplate().execute(LOCK_SCRIPT, Arrays.asList(getKey()),
+            String.valueOf(getExpireMillis()), owner);
+        if (count == null || count.longValue() <= 0) {
+            return false;
+        }
+        if (count.longValue() == 1L) {
+            startRenewal(owner);
+        }
+        return true;
+    }
+
+    public boolean unlock() {
+        String owner = currentThreadOwner();
+        Long count = getRedisTemplate().execute(UNLOCK_SCRIPT, Arrays.asList(getKey(), getNotifyKey()),
+            String.valueOf(getExpireMillis()), owner, isNotifyEnabled() ? "1" : "0");
+        if (count == null || count.longValue() < 0) {
+            stopRenewal(owner);
+            logger.warn("WARN ## the redis lock is not held by current thread when unlock, key=" + getKey());
+            return false;
+        }
+        if (count.longValue() == 0) {
+            stopRenewal(owner);
+        }
+        return true;
+    }
+
+    @Override
+    protected boolean renew(String owner) {
+        Long result = getRedisTemplate().execute(RENEW_SCRIPT, Arrays.asList(getKey()),
+            String.valueOf(getExpireMillis()), owner);
+        return result != null && result.longValue() == 1L;
+    }
+
+    /**
+     * 当前线程的持有次数
+     *
+     * @return 持有次数，没有持有时返回0
+     */
+    public int getHoldCount() {
+        Object count = getRedisTemplate().opsForHash().get(getKey(), currentThreadOwner());
+        return count == null ? 0 : Integer.parseInt(count.toString());
+    }
+}
@@ -0,0 +1,193 @@
+package com.lyle.common.lang.lock;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 两级锁：先获取进程内按key区分的本地锁，只有本地锁的持有者才去获取分布式锁(如{@link RedisLock})，
+ * 同一个进程内的竞争不再访问redis，redis上每个节点最多只有一个竞争者。<br>
+ * 本地锁放在进程内共用的表里，按引用计数管理：等待或持有的线程都计入引用，最后一个线程释放后从表里移除，
+ * key再多也只保留正在使用的本地锁。<br>
+ * 本地锁可重入：同一个线程再次获取时只增加本地持有次数，不会再去获取分布式锁，所以分布式锁不需要支持重入；
+ * 完全释放时先释放分布式锁再释放本地锁，其他节点和本节点的等待者重新竞争。<br>
+ * 获取和释放必须在同一个线程里进行；同一个key在进程内应使用同一种分布式锁。
+ *
+ * @author Lyle
+ */
+public class TwoTierLock implements Lock {
+
+    /** 进程内正在使用的本地锁 */
+    private static final ConcurrentMap<String, LocalLock> LOCAL_LOCKS = new ConcurrentHashMap<String, LocalLock>();
+
+    private final String key;
+    private final Lock remoteLock;
+
+    /**
+     * @param key        本地锁的key，一般和分布式锁的key相同
+     * @param remoteLock 分布式锁
+     */
+    public TwoTierLock(String key, Lock remoteLock) {
+        if (key == null || remoteLock == null) {
+            throw new IllegalArgumentException("The key and remoteLock can not be null!");
+        }
+        this.key = key;
+        this.remoteLock = remoteLock;
+    }
+
+    public void lock() throws InterruptedException {
+        LocalLock local = retainLocalLock(key);
+        try {
+            local.lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            local.release();
+            throw e;
+        }
+        if (local.lock.getHoldCount() > 1) {
+            return;
+        }
+        boolean locked = false;
+        try {
+            remoteLock.lock();
+            locked = true;
+        } finally {
+            if (!locked) {
+                unlockLocal(local);
+            }
+        }
+    }
+
+    public boolean tryLock() {
+        LocalLock local = retainLocalLock(key);
+        if (!local.lock.tryLock()) {
+            local.release();
+            return false;
+        }
+        if (local.lock.getHoldCount() > 1) {
+            return true;
+        }
+        boolean locked = false;
+        try {
+            locked = remoteLock.tryLock();
+        } finally {
+            if (!locked) {
+                unlockLocal(local);
+            }
+        }
+        return locked;
+    }
+
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        LocalLock local = retainLocalLock(key);
+        boolean localLocked = false;
+        try {
+            localLocked = local.lock.tryLock(timeout, unit);
+        } finally {
+            if (!localLocked) {
+                local.release();
+            }
+        }
+        if (!localLocked) {
+            return false;
+        }
+        if (local.lock.getHoldCount() > 1) {
+            return true;
+        }
+        boolean locked = false;
+        try {
+            long remaining = deadline - System.nanoTime();
+            locked = remaining > 0 ? remoteLock.tryLock(remaining, TimeUnit.NANOSECONDS) : remoteLock.tryLock();
+        } finally {
+            if (!locked) {
+                unlockLocal(local);
+            }
+        }
+        return locked;
+    }
+
+    public boolean unlock() {
+        LocalLock local = LOCAL_LOCKS.get(key);
+        if (local == null || !local.lock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("The lock is not held by current thread, key=" + key);
+        }
+        if (local.lock.getHoldCount() > 1) {
+            unlockLocal(local);
+            return true;
+        }
+        try {
+            return remoteLock.unlock();
+        } finally {
+            unlockLocal(local);
+        }
+    }
+
+    private void unlockLocal(LocalLock local) {
+        local.lock.unlock();
+        local.release();
+    }
+
+    /**
+     * 取得key对应的本地锁并增加引用，本地锁正在被移除时重新创建
+     */
+    private static LocalLock retainLocalLock(String key) {
+        for (;;) {
+            LocalLock local = LOCAL_LOCKS.get(key);
+            if (local == null) {
+                LocalLock created = new LocalLock(key);
+                local = LOCAL_LOCKS.putIfAbsent(key, created);
+                if (local == null) {
+                    local = created;
+                }
+            }
+            if (local.retain()) {
+                return local;
+            }
+        }
+    }
+
+    /**
+     * 进程内正在使用的本地锁个数
+     */
+    static int getLocalLockCount() {
+        return LOCAL_LOCKS.size();
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * 带引用计数的本地锁，引用计数为-1表示已经从表里移除，不能再使用
+     */
+    private static class LocalLock {
+
+        private final String key;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicInteger references = new AtomicInteger(0);
+
+        LocalLock(String key) {
+            this.key = key;
+        }
+
+        boolean retain() {
+            for (;;) {
+                int count = references.get();
+                if (count < 0) {
+                    return false;
+                }
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            if (references.decrementAndGet() == 0 && references.compareAndSet(0, -1)) {
+                LOCAL_LOCKS.remove(key, this);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lyle.common.lang.lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * 看门狗的续期在续期线程池里执行：一把锁的续期卡住时，其他锁仍按间隔续期
+ *
+ * @author Lyle
+ */
+public class LockWatchdogTest {
+
+    /** 过期时间，每隔1/3过期时间续期一次 */
+    private static final long EXPIRE_MILLIS = 300;
+
+    @Test
+    public void stalledRenewalDoesNotDelayOtherLocks() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        StubLock stalled = new StubLock("stalled", release);
+        StubLock healthy = new StubLock("healthy", null);
+        LockWatchdog.Renewal stalledRenewal = LockWatchdog.watch(stalled, "owner", EXPIRE_MILLIS);
+        LockWatchdog.Renewal healthyRenewal = LockWatchdog.watch(healthy, "owner", EXPIRE_MILLIS);
+        try {
+            assertTrue(stalled.entered.await(5, TimeUnit.SECONDS));
+            // 卡住的续期占着一个线程期间，另一把锁续期多次
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (healthy.renewals.get() < 5 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("healthy lock renewed " + healthy.renewals.get() + " times", healthy.renewals.get() >= 5);
+            assertEquals(0, stalled.renewals.get());
+        } finally {
+            stalledRenewal.cancel();
+            healthyRenewal.cancel();
+            release.countDown();
+        }
+    }
+
+    /**
+     * 只记录续期次数的锁，release不为null时续期阻塞到release被释放
+     */
+    private static class StubLock extends AbstractRedisLock {
+
+        private final CountDownLatch release;
+
+        private final CountDownLatch entered = new CountDownLatch(1);
+
+        private final AtomicInteger renewals = new AtomicInteger(0);
+
+        StubLock(String key, CountDownLatch release) {
+            super(null, key, EXPIRE_MILLIS, TimeUnit.MILLISECONDS);
+            this.release = release;
+        }
+
+        @Override
+        protected boolean renew(String owner) {
+            entered.countDown();
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return false;
+            }
+            renewals.incrementAndGet();
+            return true;
+        }
+
+        public boolean tryLock() {
+            return true;
+        }
+
+        public boolean unlock() {
+            return true;
+        }
+    }
+}
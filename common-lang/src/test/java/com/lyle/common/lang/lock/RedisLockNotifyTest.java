@@ -0,0 +1,197 @@
+package com.lyle.common.lang.lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.RedisClientInfo;
+
+import redis.embedded.RedisServer;
+
+/**
+ * 唤醒通知的行为，使用本地启动的redis：释放锁唤醒BLPOP上的等待者、没有等待者时放入的令牌被下一个等待者取走、
+ * 持有者未开启通知时等待者靠notifyPollSeconds兜底
+ *
+ * @author Lyle
+ */
+public class RedisLockNotifyTest {
+
+    private static final long EXPIRE_SECONDS = 30;
+
+    /** 依赖通知的等待者的兜底间隔，远大于唤醒所需的时间，等待者能及时获取说明是被令牌唤醒的 */
+    private static final long LONG_POLL_SECONDS = 30;
+
+    private static RedisServer redisServer;
+
+    private static JedisConnectionFactory connectionFactory;
+
+    private static StringRedisTemplate redisTemplate;
+
+    private String key;
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public static void startRedis() throws IOException {
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        try {
+            port = socket.getLocalPort();
+        } finally {
+            socket.close();
+        }
+        redisServer = new RedisServer(port);
+        redisServer.start();
+        connectionFactory = new JedisConnectionFactory(new RedisStandaloneConfiguration("127.0.0.1", port));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.afterPropertiesSet();
+    }
+
+    @AfterClass
+    public static void stopRedis() throws IOException {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+        if (redisServer != null) {
+            redisServer.stop();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        key = "test:lock:" + UUID.randomUUID();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        redisTemplate.delete(Arrays.asList(key, key + AbstractRedisLock.NOTIFY_SUFFIX));
+    }
+
+    @Test
+    public void unlockWakesBlockedWaiter() throws Exception {
+        RedisLock holder = newLock(true);
+        assertTrue(holder.tryLock());
+
+        Future<Boolean> waiter = tryLockAsync(newLock(true), LONG_POLL_SECONDS);
+        awaitBlockedWaiters(1);
+
+        long unlockTime = System.nanoTime();
+        assertTrue(holder.unlock());
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - unlockTime) < LONG_POLL_SECONDS / 2);
+    }
+
+    @Test
+    public void tokenWithoutWaiterIsConsumedByNextWaiter() throws Exception {
+        RedisLock first = newLock(true);
+        assertTrue(first.tryLock());
+        assertTrue(first.unlock());
+        // 释放时没有等待者，令牌留在列表里
+        assertEquals(Long.valueOf(1), redisTemplate.opsForList().size(getNotifyKey()));
+
+        RedisLock holder = newLock(true);
+        assertTrue(holder.tryLock());
+        Future<Boolean> waiter = tryLockAsync(newLock(true), LONG_POLL_SECONDS);
+        // 等待者先取走遗留的令牌，抢锁失败后再阻塞等待
+        awaitBlockedWaiters(1);
+        assertEquals(Long.valueOf(0), redisTemplate.opsForList().size(getNotifyKey()));
+        assertFalse(waiter.isDone());
+
+        assertTrue(holder.unlock());
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void waiterFallsBackToPollingWhenPeerDoesNotNotify() throws Exception {
+        RedisLock peer = newLock(false);
+        assertTrue(peer.tryLock());
+
+        RedisLock lock = newLock(true);
+        lock.setNotifyPollSeconds(1);
+        Future<Boolean> waiter = tryLockAsync(lock, 10);
+        awaitBlockedWaiters(1);
+
+        assertTrue(peer.unlock());
+        // 未开启通知的持有者释放时不放令牌，等待者在notifyPollSeconds后重新尝试
+        assertFalse(redisTemplate.hasKey(getNotifyKey()));
+        assertTrue(waiter.get(5, TimeUnit.SECONDS));
+    }
+
+    private RedisLock newLock(boolean notifyEnabled) {
+        RedisLock lock = new RedisLock(redisTemplate, key, EXPIRE_SECONDS, TimeUnit.SECONDS);
+        lock.setNotifyEnabled(notifyEnabled);
+        lock.setNotifyPollSeconds(LONG_POLL_SECONDS);
+        return lock;
+    }
+
+    private Future<Boolean> tryLockAsync(final RedisLock lock, final long timeoutSeconds) {
+        return executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                boolean locked = lock.tryLock(timeoutSeconds, TimeUnit.SECONDS);
+                if (locked) {
+                    lock.unlock();
+                }
+                return locked;
+            }
+        });
+    }
+
+    private String getNotifyKey() {
+        return key + AbstractRedisLock.NOTIFY_SUFFIX;
+    }
+
+    /**
+     * 等到有count个连接正阻塞在BLPOP上
+     */
+    private void awaitBlockedWaiters(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countBlockedClients() < count) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("no waiter is blocked on " + getNotifyKey());
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private int countBlockedClients() {
+        List<RedisClientInfo> clients = redisTemplate.execute(new RedisCallback<List<RedisClientInfo>>() {
+            public List<RedisClientInfo> doInRedis(RedisConnection connection) throws DataAccessException {
+                return connection.getClientList();
+            }
+        });
+        int blocked = 0;
+        for (RedisClientInfo client : clients) {
+            // flags里的b表示正阻塞在BLPOP等命令上，连接池里刚执行过BLPOP的空闲连接不算
+            String flags = client.getFlags();
+            if ("blpop".equals(client.getLastCommand()) && flags != null && flags.contains("b")) {
+                blocked++;
+            }
+        }
+        return blocked;
+    }
+}
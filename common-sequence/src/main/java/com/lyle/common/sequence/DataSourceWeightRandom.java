@@ -1,95 +1,261 @@
 package com.lyle.common.sequence;
 
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * 生成随机数，用于选择在哪个库上获取sequence
+ * 生成随机数，用于选择在哪个库上获取sequence。<br>
+ * 每个库的权重由最近获取sequence段的耗时和出错率(指数加权移动平均)计算：耗时越长、出错越多权重越低，
+ * 慢库逐渐减少流量而不是等到连续出错后才被踢出；权重最低保留最大权重的一小部分，使慢库仍能收到少量请求以便恢复。<br>
+ * 按权重预先构建alias表，选库时O(1)且不创建对象；权重只在反馈耗时/出错时重新计算。
  */
 public class DataSourceWeightRandom {
 
 	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
 
+	/** 每次反馈在移动平均里所占的比重 */
+	private static final double EWMA_ALPHA = 0.2;
+	/** 计算权重时给耗时加上的平滑值，避免亚毫秒级的耗时差异造成权重大幅变化，单位纳秒 */
+	private static final double LATENCY_SMOOTHING_NANOS = 1000000;
+	/** 最低权重占最大权重的比例 */
+	private static final double MIN_WEIGHT_RATIO = 0.02;
+	/** 有排除的库时，按alias表随机选中未排除库的最多尝试次数，超过后按权重顺序扫描 */
+	private static final int MAX_REJECT_TIMES = 8;
+
 	private final int dataSourceNum;
-	private final int weights[];
 
-	private final Random random = new Random();
-	private final int DEFAULT_WEIGHT = 10;
+	/** 各库获取sequence段耗时的移动平均，0表示还没有数据，单位纳秒 */
+	private final double[] latencies;
+	/** 各库出错率的移动平均 */
+	private final double[] errorRates;
+
+	/** 当前的权重及alias表，重新计算时整体替换 */
+	private volatile AliasTable table;
 
 	/**
 	 * 构造方法
-	 * 
+	 *
 	 * @param dataSourceNum
 	 */
 	public DataSourceWeightRandom(int dataSourceNum) {
 		this.dataSourceNum = dataSourceNum;
-		weights = new int[dataSourceNum];
+		this.latencies = new double[dataSourceNum];
+		this.errorRates = new double[dataSourceNum];
+		double[] weights = new double[dataSourceNum];
 		for (int i = 0; i < dataSourceNum; i++) {
-			weights[i] = DEFAULT_WEIGHT;
+			weights[i] = 1;
 		}
+		this.table = new AliasTable(weights);
 	}
 
 	/**
 	 * 获取随机数索引
 	 *
 	 * @param excludeIndexes 存在问题的数据库
-	 * @return
+	 * @return 库的索引，所有库都被排除时返回-1
 	 */
 	public int getRandomDataSourceIndex(List<Integer> excludeIndexes) {
-		int[] tempWeights = weights.clone();
-		for (int i = 0; i < dataSourceNum; i++) {
-			if (excludeIndexes.contains(i)) {
-				tempWeights[i] = 0;
+		AliasTable current = table;
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		if (excludeIndexes.isEmpty()) {
+			return current.select(random);
+		}
+		// 排除的库通常很少，先按alias表选，选中排除的库时重选
+		for (int i = 0; i < MAX_REJECT_TIMES; i++) {
+			int index = current.select(random);
+			if (!isExcluded(excludeIndexes, index)) {
+				return index;
 			}
 		}
-		int[] areaEnds = getAreaEnds(tempWeights);
-		return select(areaEnds);
+		return selectByScan(current.weights, excludeIndexes, random);
+	}
+
+	/**
+	 * 反馈一次成功获取(或乐观锁冲突)的耗时
+	 *
+	 * @param index        库的索引
+	 * @param latencyNanos 耗时，单位纳秒
+	 */
+	public void onSuccess(int index, long latencyNanos) {
+		update(index, latencyNanos, 0);
+	}
+
+	/**
+	 * 反馈一次获取失败(连接或sql异常)
+	 *
+	 * @param index        库的索引
+	 * @param latencyNanos 耗时，单位纳秒
+	 */
+	public void onFailure(int index, long latencyNanos) {
+		update(index, latencyNanos, 1);
 	}
 
-	private int[] getAreaEnds(int[] weights) {
-		if (weights == null) {
-			return null;
+	/**
+	 * 当前各库的权重，最大为1
+	 *
+	 * @return 权重的副本
+	 */
+	public double[] getWeights() {
+		return table.weights.clone();
+	}
+
+	/**
+	 * 各库最近获取sequence段耗时(移动平均)中最短的
+	 *
+	 * @return 耗时，还没有数据时返回0，单位纳秒
+	 */
+	public synchronized long getMinLatencyNanos() {
+		return (long) minLatency();
+	}
+
+	private synchronized void update(int index, long latencyNanos, double error) {
+		if (index < 0 || index >= dataSourceNum) {
+			return;
 		}
-		int[] areaEnds = new int[weights.length];
-		int sum = 0;
-		for (int i = 0; i < weights.length; i++) {
-			sum += weights[i];
-			areaEnds[i] = sum;
+		double latency = Math.max(0, latencyNanos);
+		if (latencies[index] == 0) {
+			// 出错时可能很快返回(如拒绝连接)，不能作为第一个耗时数据
+			if (error == 0) {
+				latencies[index] = latency;
+			}
+		} else if (error == 0 || latency > latencies[index]) {
+			latencies[index] = latencies[index] + EWMA_ALPHA * (latency - latencies[index]);
+		}
+		errorRates[index] = errorRates[index] + EWMA_ALPHA * (error - errorRates[index]);
+		table = new AliasTable(computeWeights());
+	}
+
+	/**
+	 * 权重与(1-出错率)^2成正比、与平滑后的耗时成反比，按最大值归一化后不低于MIN_WEIGHT_RATIO
+	 */
+	private double[] computeWeights() {
+		// 没有耗时数据的库按已知的最小耗时计算
+		double minLatency = minLatency();
+		double[] weights = new double[dataSourceNum];
+		double maxWeight = 0;
+		for (int i = 0; i < dataSourceNum; i++) {
+			double latency = latencies[i] > 0 ? latencies[i] : minLatency;
+			double health = 1 - errorRates[i];
+			weights[i] = health * health / (latency + LATENCY_SMOOTHING_NANOS);
+			maxWeight = Math.max(maxWeight, weights[i]);
+		}
+		for (int i = 0; i < dataSourceNum; i++) {
+			weights[i] = maxWeight > 0 ? Math.max(MIN_WEIGHT_RATIO, weights[i] / maxWeight) : 1;
 		}
-		return areaEnds;
+		return weights;
 	}
 
-	private int select(int[] areaEnds) {
-		int sum = areaEnds[areaEnds.length - 1];
-		if (sum == 0) {
-			logger.error("ERROR ## areaEnds: " + intArray2String(areaEnds));
+	private double minLatency() {
+		double minLatency = 0;
+		for (int i = 0; i < dataSourceNum; i++) {
+			if (latencies[i] > 0 && (minLatency == 0 || latencies[i] < minLatency)) {
+				minLatency = latencies[i];
+			}
+		}
+		return minLatency;
+	}
+
+	private static boolean isExcluded(List<Integer> excludeIndexes, int index) {
+		for (int i = 0, size = excludeIndexes.size(); i < size; i++) {
+			if (excludeIndexes.get(i).intValue() == index) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 在未排除的库里按权重顺序扫描选择
+	 */
+	private int selectByScan(double[] weights, List<Integer> excludeIndexes, ThreadLocalRandom random) {
+		double sum = 0;
+		for (int i = 0; i < weights.length; i++) {
+			if (!isExcluded(excludeIndexes, i)) {
+				sum += weights[i];
+			}
+		}
+		if (sum <= 0) {
+			logger.error("ERROR ## all the dataSources are excluded, excludeIndexes: " + excludeIndexes);
 			return -1;
 		}
-		int rand = random.nextInt(sum);
-		for (int i = 0; i < areaEnds.length; i++) {
-			if (rand < areaEnds[i]) {
+		double rand = random.nextDouble() * sum;
+		int last = -1;
+		for (int i = 0; i < weights.length; i++) {
+			if (isExcluded(excludeIndexes, i)) {
+				continue;
+			}
+			last = i;
+			rand -= weights[i];
+			if (rand < 0) {
 				return i;
 			}
 		}
-		return -1;
+		// 浮点误差时落在最后一个可用库上
+		return last;
 	}
 
-	private String intArray2String(int[] inta) {
-		if (inta == null) {
-			return "null";
-		} else if (inta.length == 0) {
-			return "[]";
+	/**
+	 * 按权重构建的alias表(Vose方法)：随机选一列，再按该列的概率决定取该列还是其别名
+	 */
+	private static class AliasTable {
+		private final double[] weights;
+		private final double[] probabilities;
+		private final int[] aliases;
+
+		AliasTable(double[] weights) {
+			int n = weights.length;
+			this.weights = weights;
+			this.probabilities = new double[n];
+			this.aliases = new int[n];
+			double sum = 0;
+			for (double weight : weights) {
+				sum += weight;
+			}
+			double[] scaled = new double[n];
+			int[] small = new int[n];
+			int[] large = new int[n];
+			int smallSize = 0;
+			int largeSize = 0;
+			for (int i = 0; i < n; i++) {
+				scaled[i] = weights[i] * n / sum;
+				if (scaled[i] < 1) {
+					small[smallSize++] = i;
+				} else {
+					large[largeSize++] = i;
+				}
+			}
+			while (smallSize > 0 && largeSize > 0) {
+				int less = small[--smallSize];
+				int more = large[--largeSize];
+				probabilities[less] = scaled[less];
+				aliases[less] = more;
+				scaled[more] = scaled[more] + scaled[less] - 1;
+				if (scaled[more] < 1) {
+					small[smallSize++] = more;
+				} else {
+					large[largeSize++] = more;
+				}
+			}
+			// 剩下的列概率为1(含浮点误差)
+			while (largeSize > 0) {
+				int more = large[--largeSize];
+				probabilities[more] = 1;
+				aliases[more] = more;
+			}
+			while (smallSize > 0) {
+				int less = small[--smallSize];
+				probabilities[less] = 1;
+				aliases[less] = less;
+			}
 		}
-		StringBuilder sb = new StringBuilder();
-		sb.append("[").append(inta[0]);
-		for (int i = 1; i < inta.length; i++) {
-			sb.append(", ").append(inta[i]);
+
+		int select(ThreadLocalRandom random) {
+			int column = random.nextInt(probabilities.length);
+			return random.nextDouble() < probabilities[column] ? column : aliases[column];
 		}
-		sb.append("]");
-		return sb.toString();
 	}
 
 }
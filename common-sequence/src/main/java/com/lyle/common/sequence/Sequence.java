@@ -1,5 +1,7 @@
 package com.lyle.common.sequence;
 
+import java.util.concurrent.CompletableFuture;
+
 import com.lyle.common.sequence.exception.SequenceException;
 
 /**
@@ -15,6 +17,41 @@ public interface Sequence {
 	 */
 	long nextValue() throws SequenceException;
 
+	/**
+	 * 异步取得序列下一个值，不会因为访问db阻塞调用线程，适合在事件循环里调用；失败时future以SequenceException完成。<br>
+	 * 默认在调用线程调用{@link #nextValue()}并返回已完成的future，只适合不访问db的实现，访问db的实现须覆盖
+	 *
+	 * @return 序列下一个值
+	 */
+	default CompletableFuture<Long> nextValueAsync() {
+		CompletableFuture<Long> future = new CompletableFuture<Long>();
+		try {
+			future.complete(nextValue());
+		} catch (SequenceException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * 批量取得序列接下来的n个值，尽量从当前缓存的段里一次取出；多数据源时跨段的值不保证连续。<br>
+	 * 默认逐个调用{@link #nextValue()}，基于号段的实现会覆盖为每段一次原子操作
+	 *
+	 * @param n 个数
+	 * @return 按发放顺序排列的序列值
+	 * @throws SequenceException
+	 */
+	default long[] nextValues(int n) throws SequenceException {
+		if (n <= 0) {
+			throw new IllegalArgumentException("ERROR ## the n must be greater than zero, n = " + n);
+		}
+		long[] values = new long[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = nextValue();
+		}
+		return values;
+	}
+
 	/**
 	 * 获取配置的序列最小值
 	 * 
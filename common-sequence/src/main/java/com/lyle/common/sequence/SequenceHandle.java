@@ -0,0 +1,67 @@
+package com.lyle.common.sequence;
+
+import java.util.concurrent.CompletableFuture;
+
+import com.lyle.common.sequence.exception.SequenceException;
+
+/**
+ * sequence句柄：通过工厂按名称解析一次后由调用方持有，之后每次取值直接访问sequence对象，
+ * 不再计算名称的hash并查找工厂里的map
+ */
+public final class SequenceHandle implements Sequence {
+
+	/** sequence名称 */
+	private final String sequenceName;
+	/** 解析出的sequence对象 */
+	private final Sequence sequence;
+
+	/**
+	 * @param sequenceName sequence名称
+	 * @param sequence     sequence对象
+	 */
+	public SequenceHandle(String sequenceName, Sequence sequence) {
+		if (sequenceName == null || sequence == null) {
+			throw new IllegalArgumentException("The sequence name and sequence can not be null!");
+		}
+		this.sequenceName = sequenceName;
+		this.sequence = sequence;
+	}
+
+	@Override
+	public long nextValue() throws SequenceException {
+		return sequence.nextValue();
+	}
+
+	@Override
+	public CompletableFuture<Long> nextValueAsync() {
+		return sequence.nextValueAsync();
+	}
+
+	@Override
+	public long[] nextValues(int n) throws SequenceException {
+		return sequence.nextValues(n);
+	}
+
+	@Override
+	public long getMinValue() {
+		return sequence.getMinValue();
+	}
+
+	@Override
+	public long getMaxValue() {
+		return sequence.getMaxValue();
+	}
+
+	public String getSequenceName() {
+		return sequenceName;
+	}
+
+	public Sequence getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public String toString() {
+		return "SequenceHandle[sequenceName=" + sequenceName + "]";
+	}
+}
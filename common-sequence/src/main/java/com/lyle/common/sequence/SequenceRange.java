@@ -21,11 +21,14 @@ public class SequenceRange {
 	}
 
 	/**
-	 * 获取Seq并自增
+	 * 获取Seq并自增，段用完后不再自增计数器，避免无谓的竞争
 	 *
-	 * @return
+	 * @return 段用完时返回-1
 	 */
 	public long getAndIncrement() {
+		if (over) {
+			return -1;
+		}
 		long currentValue = value.getAndIncrement();
 		if (currentValue > max) {
 			over = true;
@@ -35,6 +38,35 @@ public class SequenceRange {
 		return currentValue;
 	}
 
+	/**
+	 * 一次原子操作从段里取出连续的一块Seq，段尾不足时只取到段的最大值
+	 *
+	 * @param delta 期望取出的个数
+	 * @return 取出的第一个Seq，段用完时返回-1；实际个数为min(delta, max - 返回值 + 1)
+	 */
+	public long getAndAdd(int delta) {
+		if (over) {
+			return -1;
+		}
+		long currentValue = value.getAndAdd(delta);
+		if (currentValue > max) {
+			over = true;
+			return -1;
+		}
+		if (max - currentValue < delta) {
+			over = true;
+		}
+
+		return currentValue;
+	}
+
+	/**
+	 * 标记段已用完，之后不再从该段发放Seq
+	 */
+	public void markOver() {
+		over = true;
+	}
+
 	public long getMin() {
 		return min;
 	}
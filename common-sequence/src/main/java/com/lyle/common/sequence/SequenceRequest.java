@@ -0,0 +1,51 @@
+package com.lyle.common.sequence;
+
+/**
+ * 批量获取sequence段时单个sequence的参数
+ */
+public class SequenceRequest {
+
+	/** sequence名称 */
+	private final String name;
+	/** 最小值 */
+	private final long minValue;
+	/** 最大值 */
+	private final long maxValue;
+	/** 内步长 */
+	private final int innerStep;
+
+	/**
+	 * @param name      sequence名称
+	 * @param minValue  最小值
+	 * @param maxValue  最大值
+	 * @param innerStep 内步长
+	 */
+	public SequenceRequest(String name, long minValue, long maxValue, int innerStep) {
+		this.name = name;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.innerStep = innerStep;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getMinValue() {
+		return minValue;
+	}
+
+	public long getMaxValue() {
+		return maxValue;
+	}
+
+	public int getInnerStep() {
+		return innerStep;
+	}
+
+	@Override
+	public String toString() {
+		return "SequenceRequest[name=" + name + ",minValue=" + minValue + ",maxValue=" + maxValue + ",innerStep="
+				+ innerStep + "]";
+	}
+}
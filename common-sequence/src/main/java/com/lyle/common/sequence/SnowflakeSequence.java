@@ -0,0 +1,312 @@
+package com.lyle.common.sequence;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lyle.common.sequence.exception.SequenceException;
+
+/**
+ * 基于时间的序列实现(snowflake)，不依赖db。<br>
+ * 序列值 = minValue + (时间戳 << (workerIdBits + sequenceBits) | workerId << sequenceBits | 毫秒内计数)，
+ * 时间戳为距epoch的毫秒数；同一workerId下单调递增，不同workerId之间不重复。<br>
+ * 毫秒内计数无锁：时间戳和计数合并在一个AtomicLong里，通过CAS推进；一毫秒内计数用完时借用下一毫秒。<br>
+ * 时钟回拨(或借用)不超过maxClockBackwardMillis时沿用逻辑时钟继续发放，必要时短暂等待时钟追上；超过则抛出异常，不会发放重复值。
+ */
+public class SnowflakeSequence implements Sequence {
+
+	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
+
+	/** 默认epoch：2020-01-01 00:00:00 UTC */
+	private static final long DEFAULT_EPOCH = 1577836800000L;
+	/** 默认workerId位数，最多1024个节点 */
+	private static final int DEFAULT_WORKER_ID_BITS = 10;
+	/** 默认毫秒内计数位数，每毫秒4096个 */
+	private static final int DEFAULT_SEQUENCE_BITS = 12;
+	/** 默认允许的时钟回拨毫秒数 */
+	private static final long DEFAULT_MAX_CLOCK_BACKWARD_MILLIS = 10;
+
+	/** 序列名称 */
+	private String sequenceName;
+	/** 节点标识，同一sequence下各节点必须不同 */
+	private long workerId;
+	/** 最小值 */
+	private long minValue = 0;
+	/** 最大值 */
+	private long maxValue = Long.MAX_VALUE;
+	/** 时间戳的起点，单位毫秒 */
+	private long epoch = DEFAULT_EPOCH;
+	/** workerId位数 */
+	private int workerIdBits = DEFAULT_WORKER_ID_BITS;
+	/** 毫秒内计数位数 */
+	private int sequenceBits = DEFAULT_SEQUENCE_BITS;
+	/** 允许的时钟回拨毫秒数 */
+	private long maxClockBackwardMillis = DEFAULT_MAX_CLOCK_BACKWARD_MILLIS;
+
+	/** 逻辑时钟：高位为距epoch的毫秒数，低sequenceBits位为毫秒内计数 */
+	private final AtomicLong state = new AtomicLong(0);
+	/** 时间戳在序列值里的左移位数 */
+	private int timestampShift;
+	/** workerId左移后的值 */
+	private long workerPart;
+	/** 毫秒内计数的掩码 */
+	private long sequenceMask;
+	/** 允许的最大时间戳(距epoch的毫秒数)，超过则序列值超出maxValue */
+	private long maxTimestamp;
+
+	/** 是否初始化完成 */
+	private volatile boolean isInitialize = false;
+
+	public SnowflakeSequence() {
+
+	}
+
+	/**
+	 * @param sequenceName 序列名称
+	 * @param workerId     节点标识
+	 */
+	public SnowflakeSequence(String sequenceName, long workerId) {
+		this.sequenceName = sequenceName;
+		this.workerId = workerId;
+	}
+
+	/**
+	 * 校验配置并计算各部分的位移
+	 *
+	 * @throws SequenceException
+	 */
+	public void init() throws SequenceException {
+		if (isInitialize == true) {
+			throw new SequenceException("ERROR ## the SnowflakeSequence has inited");
+		}
+		if (workerIdBits < 0 || sequenceBits < 1 || workerIdBits + sequenceBits > 30) {
+			throw new IllegalArgumentException("ERROR ## the workerIdBits or sequenceBits is illegal, workerIdBits="
+					+ workerIdBits + ",sequenceBits=" + sequenceBits);
+		}
+		if (workerId < 0 || workerId >= (1L << workerIdBits)) {
+			throw new IllegalArgumentException("ERROR ## the workerId must be in [0," + (1L << workerIdBits)
+					+ "), workerId=" + workerId);
+		}
+		if (minValue < 0 || maxValue < minValue) {
+			throw new IllegalArgumentException(
+					"ERROR ## the minValue or maxValue is illegal, minValue=" + minValue + ",maxValue=" + maxValue);
+		}
+		if (maxClockBackwardMillis < 0) {
+			throw new IllegalArgumentException(
+					"ERROR ## the maxClockBackwardMillis is less than zero, maxClockBackwardMillis="
+							+ maxClockBackwardMillis);
+		}
+		timestampShift = workerIdBits + sequenceBits;
+		workerPart = workerId << sequenceBits;
+		sequenceMask = (1L << sequenceBits) - 1;
+		// 最大时间戳那一毫秒的全部计数都不能超过maxValue；maxValue - minValue + 1溢出时按无符号数右移，结果仍正确
+		maxTimestamp = ((maxValue - minValue + 1) >>> timestampShift) - 1;
+
+		long now = currentTimestamp();
+		if (now < 0 || now > maxTimestamp) {
+			throw new SequenceException("ERROR ## the current time is out of the value range, sequenceName="
+					+ sequenceName + ",epoch=" + epoch + ",minValue=" + minValue + ",maxValue=" + maxValue);
+		}
+		logger.warn("WARN ## init the SnowflakeSequence success,the sequenceName = " + sequenceName + ",workerId="
+				+ workerId + ",available until " + new Date(epoch + maxTimestamp));
+		this.isInitialize = true;
+	}
+
+	/**
+	 * 取得序列下一个值
+	 *
+	 * @return 序列下一个值
+	 * @throws SequenceException
+	 */
+	public long nextValue() throws SequenceException {
+		if (isInitialize == false) {
+			throw new SequenceException("ERROR ## please init the SnowflakeSequence first");
+		}
+		return toValue(advance(1));
+	}
+
+	/**
+	 * 异步取得序列下一个值，不访问db，直接在调用线程取值并返回已完成的future；
+	 * 只有毫秒内计数借用超出允许范围时会短暂等待时钟追上
+	 *
+	 * @return 序列下一个值
+	 */
+	public CompletableFuture<Long> nextValueAsync() {
+		CompletableFuture<Long> future = new CompletableFuture<Long>();
+		try {
+			future.complete(nextValue());
+		} catch (SequenceException e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * 批量取得n个值，只做一次CAS；跨毫秒时按逻辑时钟连续借用
+	 *
+	 * @param n 个数
+	 * @return 递增的序列值
+	 * @throws SequenceException
+	 */
+	public long[] nextValues(int n) throws SequenceException {
+		if (isInitialize == false) {
+			throw new SequenceException("ERROR ## please init the SnowflakeSequence first");
+		}
+		if (n <= 0) {
+			throw new IllegalArgumentException("ERROR ## the n must be greater than zero, n = " + n);
+		}
+		// 一次最多借用maxClockBackwardMillis毫秒的计数
+		if (n > (maxClockBackwardMillis + 1) << sequenceBits) {
+			throw new IllegalArgumentException("ERROR ## the n is too large, n = " + n + ",at most "
+					+ ((maxClockBackwardMillis + 1) << sequenceBits));
+		}
+		long last = advance(n);
+		long[] values = new long[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = toValue(last - (n - 1) + i);
+		}
+		return values;
+	}
+
+	/**
+	 * 推进逻辑时钟count个计数
+	 *
+	 * @param count 计数个数
+	 * @return 最后一个计数对应的逻辑时钟
+	 */
+	private long advance(int count) {
+		for (;;) {
+			long current = state.get();
+			long now = currentTimestamp();
+			long next;
+			if (now > (current >>> sequenceBits)) {
+				// 进入新的毫秒，计数从0开始
+				next = (now << sequenceBits) + count - 1;
+			} else {
+				next = current + count;
+			}
+			long ahead = (next >>> sequenceBits) - now;
+			if (ahead > maxClockBackwardMillis) {
+				long backward = (current >>> sequenceBits) - now;
+				if (backward > maxClockBackwardMillis) {
+					throw new SequenceException("ERROR ## Clock moved backwards, refusing to generate id for "
+							+ backward + " ms, sequenceName=" + sequenceName);
+				}
+				// 借用会超出允许范围，等待时钟追上
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100));
+				continue;
+			}
+			if (state.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * 逻辑时钟转换为序列值
+	 */
+	private long toValue(long clock) {
+		long timestamp = clock >>> sequenceBits;
+		if (timestamp > maxTimestamp) {
+			throw new SequenceException("Sequence value overflow, sequenceName=" + sequenceName + ",maxValue="
+					+ maxValue);
+		}
+		return minValue + ((timestamp << timestampShift) | workerPart | (clock & sequenceMask));
+	}
+
+	/**
+	 * 当前距epoch的毫秒数
+	 */
+	protected long currentTimestamp() {
+		return System.currentTimeMillis() - epoch;
+	}
+
+	public String getSequenceName() {
+		return sequenceName;
+	}
+
+	public void setSequenceName(String sequenceName) {
+		this.sequenceName = sequenceName;
+	}
+
+	public long getWorkerId() {
+		return workerId;
+	}
+
+	public void setWorkerId(long workerId) {
+		this.workerId = workerId;
+	}
+
+	/**
+	 * 获取配置的序列最小值
+	 *
+	 * @return
+	 */
+	public long getMinValue() {
+		return minValue;
+	}
+
+	public void setMinValue(long minValue) {
+		this.minValue = minValue;
+	}
+
+	/**
+	 * 获取配置的序列最大值
+	 *
+	 * @return
+	 */
+	public long getMaxValue() {
+		return maxValue;
+	}
+
+	public void setMaxValue(long maxValue) {
+		this.maxValue = maxValue;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * 设置时间戳的起点，单位毫秒；同一sequence下各节点必须一致，上线后不能再修改
+	 *
+	 * @param epoch 起点
+	 */
+	public void setEpoch(long epoch) {
+		this.epoch = epoch;
+	}
+
+	public int getWorkerIdBits() {
+		return workerIdBits;
+	}
+
+	public void setWorkerIdBits(int workerIdBits) {
+		this.workerIdBits = workerIdBits;
+	}
+
+	public int getSequenceBits() {
+		return sequenceBits;
+	}
+
+	public void setSequenceBits(int sequenceBits) {
+		this.sequenceBits = sequenceBits;
+	}
+
+	public long getMaxClockBackwardMillis() {
+		return maxClockBackwardMillis;
+	}
+
+	/**
+	 * 设置允许的时钟回拨毫秒数，回拨超过该值时抛出异常；同时也是毫秒内计数用完后最多借用的毫秒数
+	 *
+	 * @param maxClockBackwardMillis 毫秒数
+	 */
+	public void setMaxClockBackwardMillis(long maxClockBackwardMillis) {
+		this.maxClockBackwardMillis = maxClockBackwardMillis;
+	}
+}
@@ -0,0 +1,942 @@
+package com.lyle.common.sequence.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lyle.common.sequence.Sequence;
+import com.lyle.common.sequence.SequenceConstants;
+import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.exception.SequenceException;
+import com.lyle.common.sequence.metrics.NoopSequenceMetrics;
+import com.lyle.common.sequence.metrics.SequenceMetrics;
+
+/**
+ * 基于db号段的序列公共实现，缓存当前sequence段，段用完后再从db获取下一段。<br>
+ * 取值路径无锁：段用完时由CAS选出的一个线程负责切换到下一段，其他线程短暂自旋后挂起，切换完成后被依次唤醒。<br>
+ * 开启预取(prefetch)后，当前段的消耗比例达到prefetchRatio时由后台线程提前取好下一段放入备用槽，
+ * 当前段用完时直接切换到备用段，不再同步等待db。<br>
+ * 开启自适应(adaptive)后，根据上一批sequence段的消耗速度调整每次从db获取的内步长个数，
+ * 使两次db获取的间隔接近adaptiveInterval；每次获取的仍是整数个内步长，db里各数据源的段分布保持不变。<br>
+ * 配置了journalDir后，当前段及其已发放的高水位记录在本地日志里，重启后先继续使用上次段的剩余部分，见{@link RangeJournal}。<br>
+ * 异步取值({@link #nextValueAsync()})在当前段有值时直接返回已完成的future；段用完时把future挂到等待队列，
+ * 由线程池里的任务切换段后再完成，调用线程不会等待db。
+ */
+public abstract class AbstractSequence implements Sequence {
+
+	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
+
+	/** 段用完后等待切换时的自旋次数，超过后挂起 */
+	private static final int REFILL_SPIN_TIMES = 64;
+
+	/** 是否有线程正在切换sequence段 */
+	private final AtomicBoolean refilling = new AtomicBoolean(false);
+	/** 等待段切换完成的线程 */
+	private final Queue<Thread> refillWaiters = new ConcurrentLinkedQueue<Thread>();
+	/** 等待段切换完成的异步取值 */
+	private final Queue<CompletableFuture<Long>> asyncWaiters = new ConcurrentLinkedQueue<CompletableFuture<Long>>();
+
+	/** 默认步长 */
+	protected static final int DEFAULT_STEP = 1000;
+	/** 默认sequence的最小值 */
+	protected static final long DEFAULT_MIN_VALUE = 0;
+	/** 默认sequence的最大值 */
+	protected static final long DEFAULT_MAX_VALUE = Long.MAX_VALUE;
+	/** 默认预取阈值，当前段消耗80%时开始预取下一段 */
+	private static final double DEFAULT_PREFETCH_RATIO = 0.8;
+	/** 默认两次从db获取sequence段的期望间隔，单位毫秒 */
+	private static final long DEFAULT_ADAPTIVE_INTERVAL = 30000;
+	/** 自适应模式下默认一次最多获取的内步长个数 */
+	private static final int DEFAULT_ADAPTIVE_MAX_ROUNDS = 64;
+
+	/** 内步长 */
+	private volatile int innerStep = DEFAULT_STEP;
+	/** 最小值 */
+	private volatile long minValue = DEFAULT_MIN_VALUE;
+	/** 最大值 */
+	private volatile long maxValue = DEFAULT_MAX_VALUE;
+	/** 运行中修改的最小值、最大值和内步长，下一次从db获取段时生效 */
+	private final AtomicReference<Bounds> pendingBounds = new AtomicReference<Bounds>();
+	/** 运行中修改过边界，下一次切换段时丢弃按旧边界取到的段 */
+	private volatile boolean boundsChanged = false;
+	/** 序列名称 */
+	private String sequenceName;
+	/** sequence 段 */
+	private volatile SequenceRange currentRange;
+	/** 一次从db获取多段时，尚未使用的后续段 */
+	private final Queue<SequenceRange> pendingRanges = new ConcurrentLinkedQueue<SequenceRange>();
+
+	/** 是否开启异步预取，默认关闭 */
+	private boolean prefetch = false;
+	/** 预取阈值，当前段已消耗的比例达到该值时触发预取 */
+	private double prefetchRatio = DEFAULT_PREFETCH_RATIO;
+	/** 执行预取的线程池，未设置时使用默认的守护线程池 */
+	private Executor prefetchExecutor;
+	/** 备用槽：正在预取或已经取好的下一批段 */
+	private final AtomicReference<FutureTask<List<SequenceRange>>> standbyRanges = new AtomicReference<FutureTask<List<SequenceRange>>>();
+	/** 异步取值时切换段以及完成future的线程池，未设置时使用预取线程池 */
+	private Executor asyncExecutor;
+
+	/** 是否根据消耗速度自适应调整每次获取的段长度，默认关闭 */
+	private boolean adaptive = false;
+	/** 自适应模式下期望的两次db获取间隔，单位毫秒 */
+	private long adaptiveInterval = DEFAULT_ADAPTIVE_INTERVAL;
+	/** 自适应模式下每次获取的最小长度，不足一个内步长时按一个内步长计算 */
+	private int adaptiveMinStep;
+	/** 自适应模式下每次获取的最大长度，未配置时为DEFAULT_ADAPTIVE_MAX_ROUNDS个内步长 */
+	private int adaptiveMaxStep;
+	/** 当前每次获取的内步长个数 */
+	private int fetchRounds = 1;
+	/** 上一次从db获取的时间，单位纳秒 */
+	private long lastFetchTime = -1;
+
+	/** 本地日志目录，为null时不记录日志 */
+	private String journalDir;
+	/** 每次推进日志高水位的值个数，未配置时为内步长的1/10 */
+	private int journalStep;
+	/** 每次写日志后是否刷盘，默认刷盘 */
+	private boolean journalSync = true;
+	/** 本地日志，仅由切换线程打开，销毁时关闭 */
+	private volatile RangeJournal journal;
+	/** 是否已经尝试过打开日志 */
+	private boolean journalOpened = false;
+
+	/** 运行指标，默认不统计 */
+	private SequenceMetrics metrics = NoopSequenceMetrics.INSTANCE;
+
+	public AbstractSequence() {
+
+	}
+
+	/**
+	 * @param sequenceName 序列名称
+	 * @param minValue     最小值
+	 * @param maxValue     最大值
+	 * @param innerStep    内步长
+	 */
+	public AbstractSequence(String sequenceName, long minValue, long maxValue, int innerStep) {
+		this.sequenceName = sequenceName;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.innerStep = innerStep;
+	}
+
+	/**
+	 * 从db获取接下来的sequence段
+	 *
+	 * @param rounds 获取的内步长个数
+	 * @return 按顺序排列的可用sequence段
+	 * @throws SequenceException
+	 */
+	protected abstract List<SequenceRange> fetchRanges(int rounds) throws SequenceException;
+
+	/**
+	 * 取得序列下一个值
+	 *
+	 * @return
+	 * @throws SequenceException
+	 */
+	public long nextValue() throws SequenceException {
+		SequenceRange range;
+		long value;
+		for (;;) {
+			range = currentRange;
+			if (range != null) {
+				value = range.getAndIncrement();
+				if (value != -1) {
+					break;
+				}
+			}
+			refill(range, 1);
+		}
+		return issue(range, value);
+	}
+
+	/**
+	 * 异步取得序列下一个值，当前段有值时返回已完成的future，不会阻塞调用线程；
+	 * 段用完时由线程池切换段后完成future，此时future上的回调在线程池里执行
+	 *
+	 * @return 序列下一个值
+	 */
+	public CompletableFuture<Long> nextValueAsync() {
+		CompletableFuture<Long> future = new CompletableFuture<Long>();
+		completeAsync(future);
+		return future;
+	}
+
+	/**
+	 * 发放从段里取得的值：检查溢出、推进日志高水位、触发预取并统计
+	 *
+	 * @param range 值所在的段
+	 * @param value 取得的值
+	 * @return 取得的值
+	 * @throws SequenceException
+	 */
+	private long issue(SequenceRange range, long value) throws SequenceException {
+		if (value < 0) {
+			throw new SequenceException("Sequence value overflow, value = " + value);
+		}
+
+		RangeJournal current = journal;
+		if (current != null) {
+			current.reserve(range, value);
+		}
+		checkPrefetch(range, value, 1);
+		metrics.onValues(sequenceName, 1);
+
+		return value;
+	}
+
+	/**
+	 * 批量取得序列接下来的n个值，每个段上只做一次原子加；当前段不够时，切换段时一次从db取足剩余个数
+	 *
+	 * @param n 个数
+	 * @return 按发放顺序排列的序列值
+	 * @throws SequenceException
+	 */
+	public long[] nextValues(int n) throws SequenceException {
+		if (n <= 0) {
+			throw new IllegalArgumentException("ERROR ## the n must be greater than zero, n = " + n);
+		}
+		long[] values = new long[n];
+		int filled = 0;
+		while (filled < n) {
+			SequenceRange range = currentRange;
+			if (range != null) {
+				long first = range.getAndAdd(n - filled);
+				if (first != -1) {
+					int count = (int) Math.min(n - filled, range.getMax() - first + 1);
+					RangeJournal current = journal;
+					if (current != null) {
+						current.reserve(range, first + count - 1);
+					}
+					for (int i = 0; i < count; i++) {
+						values[filled++] = first + i;
+					}
+					checkPrefetch(range, first, count);
+					continue;
+				}
+			}
+			refill(range, n - filled);
+		}
+		metrics.onValues(sequenceName, n);
+		return values;
+	}
+
+	/**
+	 * 当前段用完(或尚未初始化)时切换到下一段：CAS成功的线程负责切换，其他线程等待切换完成
+	 *
+	 * @param exhausted 调用方看到的已用完的段，为null表示尚未初始化
+	 * @param required  调用方还需要的值个数，需要从db获取时至少取足这么多
+	 * @throws SequenceException
+	 */
+	private void refill(SequenceRange exhausted, int required) throws SequenceException {
+		if (refilling.compareAndSet(false, true)) {
+			try {
+				// 其他线程可能已经完成了切换
+				if (currentRange == exhausted) {
+					currentRange = switchRange(required);
+				}
+			} finally {
+				endRefill(null);
+			}
+		} else {
+			awaitRefill(exhausted);
+		}
+	}
+
+	/**
+	 * 结束段切换：唤醒第一个挂起的线程(由它依次唤醒后面的线程)，等待中的异步取值交给线程池重新取值
+	 *
+	 * @param failure 异步切换失败的原因，不为null时等待中的异步取值直接以该异常完成
+	 */
+	private void endRefill(SequenceException failure) {
+		refilling.set(false);
+		signalNextWaiter();
+		if (asyncWaiters.isEmpty()) {
+			return;
+		}
+		final List<CompletableFuture<Long>> waiters = new ArrayList<CompletableFuture<Long>>();
+		CompletableFuture<Long> future;
+		while ((future = asyncWaiters.poll()) != null) {
+			waiters.add(future);
+		}
+		if (failure != null) {
+			failAll(waiters, failure);
+			return;
+		}
+		try {
+			getAsyncExecutor().execute(new Runnable() {
+				public void run() {
+					for (CompletableFuture<Long> waiter : waiters) {
+						completeAsync(waiter);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.warn("WARN ## 异步取值任务被拒绝,sequenceName=" + sequenceName, e);
+			failAll(waiters,
+					new SequenceException("ERROR ## the async task is rejected,sequenceName=" + sequenceName, e));
+		}
+	}
+
+	/**
+	 * 从当前段取值并完成future；段用完时挂到等待队列，没有线程在切换段时提交异步切换任务
+	 *
+	 * @param future 异步取值的future
+	 */
+	private void completeAsync(CompletableFuture<Long> future) {
+		SequenceRange range = currentRange;
+		if (range != null) {
+			long value = range.getAndIncrement();
+			if (value != -1) {
+				RangeJournal current = journal;
+				if (current != null && !current.isReserved(range, value)) {
+					// 推进高水位要写日志，放到线程池里执行
+					issueAsync(future, range, value);
+					return;
+				}
+				try {
+					future.complete(issue(range, value));
+				} catch (SequenceException e) {
+					future.completeExceptionally(e);
+				}
+				return;
+			}
+		}
+		// 先入队再抢切换权，切换线程结束时一定能看到这个future
+		asyncWaiters.offer(future);
+		if (refilling.compareAndSet(false, true)) {
+			refillAsync(range);
+		}
+	}
+
+	/**
+	 * 在线程池里发放已经取得的值，线程池拒绝时在当前线程发放
+	 */
+	private void issueAsync(final CompletableFuture<Long> future, final SequenceRange range, final long value) {
+		Runnable task = new Runnable() {
+			public void run() {
+				try {
+					future.complete(issue(range, value));
+				} catch (SequenceException e) {
+					future.completeExceptionally(e);
+				}
+			}
+		};
+		try {
+			getAsyncExecutor().execute(task);
+		} catch (RejectedExecutionException e) {
+			task.run();
+		}
+	}
+
+	/**
+	 * 在线程池里切换段，调用方已经通过CAS取得切换权；结束后等待中的异步取值重新取值
+	 *
+	 * @param exhausted 调用方看到的已用完的段，为null表示尚未初始化
+	 */
+	private void refillAsync(final SequenceRange exhausted) {
+		try {
+			getAsyncExecutor().execute(new Runnable() {
+				public void run() {
+					SequenceException failure = null;
+					try {
+						if (currentRange == exhausted) {
+							currentRange = switchRange(1);
+						}
+					} catch (SequenceException e) {
+						failure = e;
+					} catch (RuntimeException e) {
+						failure = new SequenceException("ERROR ## switch the sequence range failed,sequenceName="
+								+ sequenceName, e);
+					} finally {
+						endRefill(failure);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.warn("WARN ## 异步切换sequence段的任务被拒绝,sequenceName=" + sequenceName, e);
+			endRefill(new SequenceException("ERROR ## the async task is rejected,sequenceName=" + sequenceName, e));
+		}
+	}
+
+	private static void failAll(List<CompletableFuture<Long>> waiters, SequenceException failure) {
+		for (CompletableFuture<Long> waiter : waiters) {
+			waiter.completeExceptionally(failure);
+		}
+	}
+
+	/**
+	 * 唤醒排在最前面的挂起线程
+	 */
+	private void signalNextWaiter() {
+		Thread waiter = refillWaiters.peek();
+		if (waiter != null) {
+			LockSupport.unpark(waiter);
+		}
+	}
+
+	/**
+	 * 等待其他线程完成段切换，先短暂自旋，仍未完成则挂起直到被唤醒；不响应中断，返回前恢复中断标记。<br>
+	 * 切换完成时只唤醒第一个挂起的线程，每个线程醒来离开时再唤醒下一个，和ReentrantLock的排队方式相同，
+	 * 线程数远多于CPU时不会一次唤醒所有等待者去争抢刚切换的段
+	 *
+	 * @param exhausted 已用完的段
+	 */
+	private void awaitRefill(SequenceRange exhausted) {
+		long start = System.nanoTime();
+		for (int i = 0; i < REFILL_SPIN_TIMES; i++) {
+			if (currentRange != exhausted || !refilling.get()) {
+				metrics.onRefillBlocked(sequenceName, System.nanoTime() - start);
+				return;
+			}
+		}
+		Thread current = Thread.currentThread();
+		boolean interrupted = false;
+		for (;;) {
+			// 每次挂起前重新入队并在入队后检查状态，保证不会错过切换线程的唤醒
+			refillWaiters.offer(current);
+			boolean waiting = currentRange == exhausted && refilling.get();
+			if (waiting) {
+				LockSupport.park(this);
+			}
+			refillWaiters.remove(current);
+			if (Thread.interrupted()) {
+				interrupted = true;
+			}
+			if (!waiting) {
+				break;
+			}
+		}
+		signalNextWaiter();
+		if (interrupted) {
+			current.interrupt();
+		}
+		metrics.onRefillBlocked(sequenceName, System.nanoTime() - start);
+	}
+
+	/**
+	 * 放入一个预先(如批量预热时)获取的sequence段，切换段时优先使用
+	 *
+	 * @param range sequence段
+	 */
+	void offerRange(SequenceRange range) {
+		pendingRanges.offer(range);
+	}
+
+	/**
+	 * 切换到下一个sequence段，仅由CAS成功的切换线程调用。<br>
+	 * 优先使用上一批尚未用完的段；备用槽里有预取任务时等待其结果，避免同时再发起一次db请求；预取失败则退回同步获取。
+	 *
+	 * @param required 需要从db获取时至少取足的值个数
+	 * @return 下一个sequence段
+	 * @throws SequenceException
+	 */
+	private SequenceRange switchRange(int required) throws SequenceException {
+		if (journalDir != null && !journalOpened) {
+			SequenceRange recovered = openJournal();
+			if (recovered != null) {
+				journal.start(recovered);
+				return recovered;
+			}
+		}
+		if (boundsChanged) {
+			boundsChanged = false;
+			discardFetchedRanges();
+		}
+		SequenceRange range = pollPendingRange();
+		if (range == null) {
+			range = loadNextRange(required);
+		}
+		if (journal != null) {
+			journal.start(range);
+		}
+		return range;
+	}
+
+	/**
+	 * 取出待用队列里的下一段，超出最新边界的段直接丢弃
+	 *
+	 * @return 待用的段，没有时返回null
+	 */
+	private SequenceRange pollPendingRange() {
+		SequenceRange range;
+		while ((range = pendingRanges.poll()) != null) {
+			Bounds bounds = pendingBounds.get();
+			long min = bounds != null ? bounds.minValue : minValue;
+			long max = bounds != null ? bounds.maxValue : maxValue;
+			if (range.getMin() >= min && range.getMax() <= max) {
+				return range;
+			}
+			logger.warn("WARN ## discard the sequence range out of bounds,sequenceName=" + sequenceName + ",range="
+					+ range + ",minValue=" + min + ",maxValue=" + max);
+		}
+		return null;
+	}
+
+	/**
+	 * 边界修改后丢弃按旧边界取到的段：清空待用队列，取消备用槽里的预取任务
+	 */
+	private void discardFetchedRanges() {
+		int discarded = 0;
+		while (pendingRanges.poll() != null) {
+			discarded++;
+		}
+		FutureTask<List<SequenceRange>> task = standbyRanges.getAndSet(null);
+		if (task != null) {
+			task.cancel(false);
+		}
+		if (discarded > 0 || task != null) {
+			logger.warn("WARN ## the sequence is reconfigured, discard " + discarded + " pending ranges"
+					+ (task != null ? " and the prefetched ranges" : "") + ",sequenceName=" + sequenceName);
+		}
+	}
+
+	/**
+	 * 销毁sequence，关闭本地日志并释放其文件锁，之后同一进程内可以重新创建同名的sequence
+	 */
+	public void destroy() {
+		RangeJournal current = journal;
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	/**
+	 * 打开本地日志并读取上次未用完的段
+	 *
+	 * @return 上次未用完的段，没有时返回null
+	 */
+	private SequenceRange openJournal() {
+		journalOpened = true;
+		int step = journalStep > 0 ? journalStep : Math.max(1, innerStep / 10);
+		journal = RangeJournal.open(journalDir, sequenceName, minValue, maxValue, innerStep, step, journalSync,
+				getPrefetchExecutor());
+		return journal == null ? null : journal.recover();
+	}
+
+	/**
+	 * 从备用槽或db获取下一批段，第一段直接返回，其余的放入待用队列
+	 */
+	private SequenceRange loadNextRange(int required) throws SequenceException {
+		List<SequenceRange> ranges = null;
+		FutureTask<List<SequenceRange>> task = standbyRanges.getAndSet(null);
+		if (task != null) {
+			try {
+				ranges = task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("WARN ## 等待预取sequence段时被中断，改为同步获取,sequenceName=" + sequenceName);
+			} catch (ExecutionException e) {
+				logger.warn("WARN ## 预取sequence段失败，改为同步获取,sequenceName=" + sequenceName, e.getCause());
+			}
+		}
+		if (ranges == null || ranges.isEmpty()) {
+			ranges = loadRanges(required);
+		}
+		for (int i = 1; i < ranges.size(); i++) {
+			pendingRanges.offer(ranges.get(i));
+		}
+		return ranges.get(0);
+	}
+
+	/**
+	 * 从db获取下一批sequence段，自适应模式下按消耗速度决定获取的内步长个数，且至少能容纳required个值
+	 *
+	 * @param required 至少需要的值个数
+	 * @return 按顺序排列的sequence段
+	 * @throws SequenceException
+	 */
+	private List<SequenceRange> loadRanges(int required) throws SequenceException {
+		applyPendingBounds();
+		int rounds = adaptive ? nextFetchRounds() : 1;
+		int requiredRounds = (int) ((required + (long) innerStep - 1) / innerStep);
+		long start = System.nanoTime();
+		List<SequenceRange> ranges = null;
+		try {
+			ranges = fetchRanges(Math.max(rounds, requiredRounds));
+			return ranges;
+		} finally {
+			metrics.onRangeFetch(sequenceName, ranges == null ? 0 : ranges.size(), System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * 运行中修改最小值、最大值和内步长，取值的线程不需要等待：当前段超出新边界时立即标记为用完；
+	 * 待用队列里的段和备用槽里预取的段在下一次切换时丢弃，之后按新值从db获取
+	 *
+	 * @param minValue  最小值
+	 * @param maxValue  最大值
+	 * @param innerStep 内步长
+	 */
+	void reconfigure(long minValue, long maxValue, int innerStep) {
+		if (minValue < 0 || maxValue <= minValue || innerStep <= 0) {
+			logger.warn("WARN ## ignore the illegal sequence bounds,sequenceName=" + sequenceName + ",minValue="
+					+ minValue + ",maxValue=" + maxValue + ",innerStep=" + innerStep);
+			return;
+		}
+		pendingBounds.set(new Bounds(minValue, maxValue, innerStep));
+		boundsChanged = true;
+		SequenceRange range = currentRange;
+		if (range != null && (range.getMin() < minValue || range.getMax() > maxValue)) {
+			range.markOver();
+		}
+	}
+
+	/**
+	 * 应用运行中修改的最小值、最大值和内步长
+	 */
+	private void applyPendingBounds() {
+		Bounds bounds = pendingBounds.getAndSet(null);
+		if (bounds == null) {
+			return;
+		}
+		logger.warn("WARN ## the sequence bounds changed,sequenceName=" + sequenceName + ",minValue=" + minValue
+				+ "->" + bounds.minValue + ",maxValue=" + maxValue + "->" + bounds.maxValue + ",innerStep="
+				+ innerStep + "->" + bounds.innerStep);
+		this.minValue = bounds.minValue;
+		this.maxValue = bounds.maxValue;
+		this.innerStep = bounds.innerStep;
+	}
+
+	/**
+	 * 计算本次获取的内步长个数：上一批在elapsed时间内被用完，按adaptiveInterval等比例换算，
+	 * 单次最多放大或缩小一倍以避免抖动，并限制在[adaptiveMinStep, adaptiveMaxStep]之内
+	 *
+	 * @return 内步长个数
+	 */
+	private synchronized int nextFetchRounds() {
+		long now = System.nanoTime();
+		int minRounds = Math.max(1, adaptiveMinStep / innerStep);
+		int maxRounds = Math.max(minRounds,
+				adaptiveMaxStep > 0 ? adaptiveMaxStep / innerStep : DEFAULT_ADAPTIVE_MAX_ROUNDS);
+		if (lastFetchTime < 0) {
+			fetchRounds = minRounds;
+		} else {
+			long elapsed = Math.max(1, now - lastFetchTime);
+			double expected = (double) fetchRounds * TimeUnit.MILLISECONDS.toNanos(adaptiveInterval) / elapsed;
+			int rounds = (int) Math.ceil(expected);
+			rounds = Math.max(fetchRounds / 2, Math.min(fetchRounds * 2, rounds));
+			fetchRounds = Math.max(minRounds, Math.min(maxRounds, rounds));
+		}
+		lastFetchTime = now;
+		return fetchRounds;
+	}
+
+	/**
+	 * 提交后台任务预取下一段，备用槽已被占用时不重复提交
+	 */
+	private void prefetchNextRange() {
+		FutureTask<List<SequenceRange>> task = new FutureTask<List<SequenceRange>>(
+				new Callable<List<SequenceRange>>() {
+					public List<SequenceRange> call() throws Exception {
+						return loadRanges(1);
+					}
+				});
+		if (!standbyRanges.compareAndSet(null, task)) {
+			return;
+		}
+		try {
+			getPrefetchExecutor().execute(task);
+		} catch (RejectedExecutionException e) {
+			standbyRanges.compareAndSet(task, null);
+			logger.warn("WARN ## 预取任务被拒绝，当前段用完后同步获取,sequenceName=" + sequenceName, e);
+		}
+	}
+
+	/**
+	 * 每个值只会被发放一次，取到预取阈值的线程负责触发预取；还有未用完的段时不预取
+	 *
+	 * @param range 值所在的段
+	 * @param first 本次取得的第一个值
+	 * @param count 本次取得的个数
+	 */
+	private void checkPrefetch(SequenceRange range, long first, int count) {
+		if (!prefetch) {
+			return;
+		}
+		long threshold = getPrefetchThreshold(range);
+		if (threshold >= first && threshold - first < count && pendingRanges.isEmpty()) {
+			prefetchNextRange();
+		}
+	}
+
+	/**
+	 * 计算触发预取的sequence值
+	 *
+	 * @param range 当前sequence段
+	 * @return 触发预取的值
+	 */
+	private long getPrefetchThreshold(SequenceRange range) {
+		return range.getMin() + (long) ((range.getMax() - range.getMin() + 1) * prefetchRatio);
+	}
+
+	private Executor getPrefetchExecutor() {
+		if (prefetchExecutor == null) {
+			return DefaultPrefetchExecutorHolder.EXECUTOR;
+		}
+		return prefetchExecutor;
+	}
+
+	private Executor getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			return getPrefetchExecutor();
+		}
+		return asyncExecutor;
+	}
+
+	/**
+	 * 默认的预取线程池，首次使用时才创建
+	 */
+	private static class DefaultPrefetchExecutorHolder {
+
+		private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+			private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sequence-prefetch-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 一组最小值、最大值和内步长，整体替换避免取段时读到新旧混合的值
+	 */
+	private static class Bounds {
+		final long minValue;
+		final long maxValue;
+		final int innerStep;
+
+		Bounds(long minValue, long maxValue, int innerStep) {
+			this.minValue = minValue;
+			this.maxValue = maxValue;
+			this.innerStep = innerStep;
+		}
+	}
+
+	public String getSequenceName() {
+		return sequenceName;
+	}
+
+	public void setSequenceName(String sequenceName) {
+		this.sequenceName = sequenceName;
+	}
+
+	public int getInnerStep() {
+		return innerStep;
+	}
+
+	public void setInnerStep(int innerStep) {
+		this.innerStep = innerStep;
+	}
+
+	/**
+	 * 获取配置的序列最小值
+	 *
+	 * @return
+	 */
+	public long getMinValue() {
+		return minValue;
+	}
+
+	public void setMinValue(long minValue) {
+		this.minValue = minValue;
+	}
+
+	/**
+	 * 获取配置的序列最大值
+	 *
+	 * @return
+	 */
+	public long getMaxValue() {
+		return maxValue;
+	}
+
+	public void setMaxValue(long maxValue) {
+		this.maxValue = maxValue;
+	}
+
+	/**
+	 * Getter method for property <tt>prefetch</tt>.
+	 *
+	 * @return property value of prefetch
+	 */
+	public boolean isPrefetch() {
+		return prefetch;
+	}
+
+	/**
+	 * Setter method for property <tt>prefetch</tt>.
+	 *
+	 * @param prefetch value to be assigned to property prefetch
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Getter method for property <tt>prefetchRatio</tt>.
+	 *
+	 * @return property value of prefetchRatio
+	 */
+	public double getPrefetchRatio() {
+		return prefetchRatio;
+	}
+
+	/**
+	 * Setter method for property <tt>prefetchRatio</tt>.
+	 *
+	 * @param prefetchRatio value to be assigned to property prefetchRatio
+	 */
+	public void setPrefetchRatio(double prefetchRatio) {
+		if (prefetchRatio <= 0 || prefetchRatio >= 1) {
+			throw new IllegalArgumentException(
+					"Property prefetchRatio must be between 0 and 1, prefetchRatio = " + prefetchRatio);
+		}
+		this.prefetchRatio = prefetchRatio;
+	}
+
+	/**
+	 * Setter method for property <tt>prefetchExecutor</tt>.
+	 *
+	 * @param prefetchExecutor value to be assigned to property prefetchExecutor
+	 */
+	public void setPrefetchExecutor(Executor prefetchExecutor) {
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	/**
+	 * Setter method for property <tt>asyncExecutor</tt>.
+	 *
+	 * @param asyncExecutor value to be assigned to property asyncExecutor
+	 */
+	public void setAsyncExecutor(Executor asyncExecutor) {
+		this.asyncExecutor = asyncExecutor;
+	}
+
+	/**
+	 * Getter method for property <tt>adaptive</tt>.
+	 *
+	 * @return property value of adaptive
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptive</tt>.
+	 *
+	 * @param adaptive value to be assigned to property adaptive
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveInterval</tt>.
+	 *
+	 * @param adaptiveInterval value to be assigned to property adaptiveInterval
+	 */
+	public void setAdaptiveInterval(long adaptiveInterval) {
+		if (adaptiveInterval <= 0) {
+			throw new IllegalArgumentException(
+					"Property adaptiveInterval must be greater than zero, adaptiveInterval = " + adaptiveInterval);
+		}
+		this.adaptiveInterval = adaptiveInterval;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveMinStep</tt>.
+	 *
+	 * @param adaptiveMinStep value to be assigned to property adaptiveMinStep
+	 */
+	public void setAdaptiveMinStep(int adaptiveMinStep) {
+		this.adaptiveMinStep = adaptiveMinStep;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveMaxStep</tt>.
+	 *
+	 * @param adaptiveMaxStep value to be assigned to property adaptiveMaxStep
+	 */
+	public void setAdaptiveMaxStep(int adaptiveMaxStep) {
+		this.adaptiveMaxStep = adaptiveMaxStep;
+	}
+
+	public String getJournalDir() {
+		return journalDir;
+	}
+
+	/**
+	 * 设置本地日志目录，每个sequence一个日志文件；目录须为本机独占，不能被多个实例共享(同一时刻多个进程使用时只有一个生效)
+	 *
+	 * @param journalDir 日志目录，为null时不记录日志
+	 */
+	public void setJournalDir(String journalDir) {
+		this.journalDir = journalDir;
+	}
+
+	public int getJournalStep() {
+		return journalStep;
+	}
+
+	/**
+	 * 设置每次推进日志高水位的值个数，即重启时最多浪费的值个数；越小写日志越频繁
+	 *
+	 * @param journalStep 值个数，小于等于0时为内步长的1/10
+	 */
+	public void setJournalStep(int journalStep) {
+		this.journalStep = journalStep;
+	}
+
+	public boolean isJournalSync() {
+		return journalSync;
+	}
+
+	/**
+	 * 设置每次写日志后是否刷盘，默认开启：机器掉电也不会重复发放，但每次推进高水位都有一次刷盘。
+	 * 高水位在预留的值发放过半时由预取线程池提前推进，取值线程只有在发放速度超过刷盘速度(约journalStep/刷盘耗时)时才会等待刷盘。<br>
+	 * 关闭后写日志只到页缓存，只能防止进程崩溃；机器掉电或宕机时高水位可能丢失，重启后会从旧的高水位恢复而重复发放，
+	 * 只有能容忍该风险的场景才可关闭，否则应调大journalStep来减少刷盘次数
+	 *
+	 * @param journalSync 是否刷盘
+	 */
+	public void setJournalSync(boolean journalSync) {
+		this.journalSync = journalSync;
+	}
+
+	public SequenceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * 设置运行指标的上报对象，为null时不统计
+	 *
+	 * @param metrics 运行指标
+	 */
+	public void setMetrics(SequenceMetrics metrics) {
+		this.metrics = metrics == null ? NoopSequenceMetrics.INSTANCE : metrics;
+	}
+}
@@ -0,0 +1,33 @@
+package com.lyle.common.sequence.impl;
+
+/**
+ * 从db分配sequence段的方式
+ */
+public enum AllocateMode {
+
+	/**
+	 * 乐观锁方式：先select当前值，再update ... where value=旧值，冲突时重试；两次获取连接
+	 */
+	CAS,
+
+	/**
+	 * 行锁方式：同一连接、同一事务内select ... for update，计算后update，不会产生冲突
+	 */
+	FOR_UPDATE,
+
+	/**
+	 * 原子自增方式：同一连接、同一事务内update set value=value+? 后读取新值；需要调整或循环时退回行锁方式
+	 */
+	INCREMENT,
+
+	/**
+	 * 原子自增方式，使用update ... returning一次返回新值，适用于PostgreSQL；需要调整或循环时退回行锁方式
+	 */
+	RETURNING,
+
+	/**
+	 * 根据数据库类型自动选择：PostgreSQL使用RETURNING，其他数据库使用INCREMENT
+	 */
+	AUTO
+
+}
@@ -0,0 +1,218 @@
+package com.lyle.common.sequence.impl;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lyle.common.sequence.SequenceConstants;
+
+/**
+ * 单个数据源的熔断器：关闭(正常访问)、打开(直接跳过该数据源)、半开(只允许一个线程探测)三种状态。<br>
+ * 关闭状态下按最近slidingWindowSize次访问的结果计算出错率，访问次数不少于minimumNumberOfCalls且出错率达到failureRateThreshold时打开；
+ * 打开openStateMillis后，第一个到达的线程转为半开并独自探测，探测成功则关闭，失败则重新打开。<br>
+ * 状态和进入该状态的时间合并在一个AtomicLong里，状态转换都是CAS，不加锁。
+ */
+public class DataSourceCircuitBreaker {
+
+	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
+
+	/** 默认统计的最近访问次数 */
+	public static final int DEFAULT_SLIDING_WINDOW_SIZE = 20;
+	/** 默认计算出错率需要的最少访问次数 */
+	public static final int DEFAULT_MINIMUM_NUMBER_OF_CALLS = 10;
+	/** 默认打开熔断的出错率，百分比 */
+	public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+	/** 默认打开状态的持续时间，单位毫秒 */
+	public static final long DEFAULT_OPEN_STATE_MILLIS = 30000;
+
+	private static final int CLOSED = 0;
+	private static final int OPEN = 1;
+	private static final int HALF_OPEN = 2;
+	private static final int STATE_BITS = 2;
+	private static final long STATE_MASK = (1 << STATE_BITS) - 1;
+
+	/** 滑动窗口里每次访问的结果 */
+	private static final int SUCCESS = 1;
+	private static final int FAILURE = 2;
+
+	private int slidingWindowSize = DEFAULT_SLIDING_WINDOW_SIZE;
+	private int minimumNumberOfCalls = DEFAULT_MINIMUM_NUMBER_OF_CALLS;
+	private int failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+	private long openStateMillis = DEFAULT_OPEN_STATE_MILLIS;
+
+	/** 高位为进入当前状态的时间(毫秒)，低STATE_BITS位为状态 */
+	private final AtomicLong state = new AtomicLong(pack(CLOSED, 0));
+	/** 关闭状态下的滑动窗口，每次关闭时换成新的窗口 */
+	private volatile SlidingWindow window = new SlidingWindow(slidingWindowSize);
+
+	/**
+	 * 设置熔断参数，在数据源使用之前调用
+	 *
+	 * @param slidingWindowSize    统计的最近访问次数
+	 * @param minimumNumberOfCalls 计算出错率需要的最少访问次数
+	 * @param failureRateThreshold 打开熔断的出错率，百分比
+	 * @param openStateMillis      打开状态的持续时间，单位毫秒
+	 */
+	public void setParameters(int slidingWindowSize, int minimumNumberOfCalls, int failureRateThreshold,
+			long openStateMillis) {
+		if (slidingWindowSize <= 0 || minimumNumberOfCalls <= 0 || minimumNumberOfCalls > slidingWindowSize) {
+			throw new IllegalArgumentException("ERROR ## the slidingWindowSize or minimumNumberOfCalls is illegal, "
+					+ "slidingWindowSize=" + slidingWindowSize + ",minimumNumberOfCalls=" + minimumNumberOfCalls);
+		}
+		if (failureRateThreshold <= 0 || failureRateThreshold > 100) {
+			throw new IllegalArgumentException(
+					"ERROR ## the failureRateThreshold must be in (0,100], failureRateThreshold=" + failureRateThreshold);
+		}
+		if (openStateMillis < 0) {
+			throw new IllegalArgumentException(
+					"ERROR ## the openStateMillis is less than zero, openStateMillis=" + openStateMillis);
+		}
+		this.slidingWindowSize = slidingWindowSize;
+		this.minimumNumberOfCalls = minimumNumberOfCalls;
+		this.failureRateThreshold = failureRateThreshold;
+		this.openStateMillis = openStateMillis;
+		this.window = new SlidingWindow(slidingWindowSize);
+	}
+
+	/**
+	 * 是否处于关闭状态，即数据源可以正常访问
+	 */
+	public boolean isClosed() {
+		return stateOf(state.get()) == CLOSED;
+	}
+
+	/**
+	 * 尝试成为探测线程：打开状态超过openStateMillis(或上一个探测线程超过openStateMillis没有结束)时，只有一个线程能成功
+	 *
+	 * @return 是否成为探测线程，成功后必须调用onProbeSuccess或onProbeFailure
+	 */
+	public boolean tryAcquireProbe() {
+		long current = state.get();
+		int s = stateOf(current);
+		if (s == CLOSED) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		if (now - timeOf(current) < openStateMillis) {
+			return false;
+		}
+		return state.compareAndSet(current, pack(HALF_OPEN, now));
+	}
+
+	/**
+	 * 关闭状态下记录一次成功的访问
+	 */
+	public void onSuccess() {
+		if (isClosed()) {
+			window.record(SUCCESS);
+		}
+	}
+
+	/**
+	 * 关闭状态下记录一次出错的访问，出错率达到阈值时打开熔断
+	 *
+	 * @param index 数据源标号，用于日志
+	 */
+	public void onFailure(int index) {
+		long current = state.get();
+		if (stateOf(current) != CLOSED) {
+			return;
+		}
+		SlidingWindow w = window;
+		w.record(FAILURE);
+		int calls = w.calls.get();
+		int failures = w.failures.get();
+		logger.warn("WARN ## 数据源" + index + "最近" + calls + "次访问中出错" + failures + "次");
+		if (calls >= minimumNumberOfCalls && failures * 100L >= (long) failureRateThreshold * calls
+				&& state.compareAndSet(current, pack(OPEN, System.currentTimeMillis()))) {
+			logger.warn("WARN ## 数据源" + index + "出错率达到" + failureRateThreshold + "%，被踢出，" + openStateMillis
+					+ "ms后探测");
+		}
+	}
+
+	/**
+	 * 探测成功，关闭熔断并重新统计
+	 *
+	 * @param index 数据源标号，用于日志
+	 */
+	public void onProbeSuccess(int index) {
+		long current = state.get();
+		if (stateOf(current) == HALF_OPEN) {
+			window = new SlidingWindow(slidingWindowSize);
+			if (state.compareAndSet(current, pack(CLOSED, System.currentTimeMillis()))) {
+				logger.warn("WARN ## 数据源" + index + "探测成功，恢复可用");
+			}
+		}
+	}
+
+	/**
+	 * 探测失败，重新打开熔断
+	 *
+	 * @param index 数据源标号，用于日志
+	 */
+	public void onProbeFailure(int index) {
+		long current = state.get();
+		if (stateOf(current) == HALF_OPEN
+				&& state.compareAndSet(current, pack(OPEN, System.currentTimeMillis()))) {
+			logger.warn("WARN ## 数据源" + index + "探测失败，" + openStateMillis + "ms后再次探测");
+		}
+	}
+
+	/**
+	 * 当前状态，用于监控
+	 *
+	 * @return CLOSED、OPEN或HALF_OPEN
+	 */
+	public String getState() {
+		switch (stateOf(state.get())) {
+		case CLOSED:
+			return "CLOSED";
+		case OPEN:
+			return "OPEN";
+		default:
+			return "HALF_OPEN";
+		}
+	}
+
+	private static long pack(int state, long time) {
+		return (time << STATE_BITS) | state;
+	}
+
+	private static int stateOf(long packed) {
+		return (int) (packed & STATE_MASK);
+	}
+
+	private static long timeOf(long packed) {
+		return packed >>> STATE_BITS;
+	}
+
+	/**
+	 * 最近n次访问结果的环形数组，访问次数和出错次数随写入增量维护
+	 */
+	private static class SlidingWindow {
+		private final AtomicIntegerArray outcomes;
+		private final AtomicLong cursor = new AtomicLong(0);
+		private final AtomicInteger calls = new AtomicInteger(0);
+		private final AtomicInteger failures = new AtomicInteger(0);
+
+		SlidingWindow(int size) {
+			this.outcomes = new AtomicIntegerArray(size);
+		}
+
+		void record(int outcome) {
+			int slot = (int) (cursor.getAndIncrement() % outcomes.length());
+			int old = outcomes.getAndSet(slot, outcome);
+			if (old == 0) {
+				calls.incrementAndGet();
+			} else if (old == FAILURE) {
+				failures.decrementAndGet();
+			}
+			if (outcome == FAILURE) {
+				failures.incrementAndGet();
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package com.lyle.common.sequence.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lyle.common.sequence.SequenceConstants;
+
+/**
+ * 一个数据源上长期持有的专用连接，获取sequence段时优先使用，省去每次从连接池借出、归还连接的开销，
+ * 并缓存该连接上预编译的语句，热点sequence反复获取段时不再重复prepare。<br>
+ * 同一时刻只有一个线程能使用该连接，拿不到时调用方改用连接池里的连接；
+ * 空闲超过校验间隔的连接在使用前先校验，校验失败或者使用中出错时关闭，下次使用时重新建立。
+ */
+class DedicatedConnection {
+
+	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
+
+	/** 校验连接的超时时间，单位秒 */
+	private static final int VALIDATION_TIMEOUT_SECONDS = 3;
+
+	private final DataSource ds;
+
+	/** 空闲超过该时间的连接使用前先校验，单位纳秒 */
+	private final long validationNanos;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** 以下字段只在持有lock时访问 */
+	private Connection connection;
+	/** key为sql，value为该连接上预编译的语句 */
+	private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+	/** 上次使用完的时间，单位纳秒 */
+	private long lastUsedTime;
+
+	/**
+	 * @param ds               数据源
+	 * @param validationMillis 空闲超过该时间的连接使用前先校验，单位毫秒
+	 */
+	DedicatedConnection(DataSource ds, long validationMillis) {
+		this.ds = ds;
+		this.validationNanos = TimeUnit.MILLISECONDS.toNanos(validationMillis);
+	}
+
+	/**
+	 * 尝试独占专用连接，成功后必须调用{@link #release(boolean)}
+	 *
+	 * @return 专用连接，被其他线程占用或者无法建立连接时返回null
+	 */
+	Connection tryAcquire() {
+		// 当前线程已经持有时不能重入，否则同一连接上会交错执行两次获取
+		if (lock.isHeldByCurrentThread() || !lock.tryLock()) {
+			return null;
+		}
+		try {
+			if (connection != null && System.nanoTime() - lastUsedTime > validationNanos && !isValid()) {
+				logger.warn("WARN ## the dedicated sequence connection is invalid, reconnect it");
+				closeConnection();
+			}
+			if (connection == null) {
+				connection = ds.getConnection();
+			}
+			return connection;
+		} catch (SQLException e) {
+			logger.warn("WARN ## get the dedicated sequence connection failed, use the pooled connection", e);
+			closeConnection();
+			lock.unlock();
+			return null;
+		}
+	}
+
+	/**
+	 * 连接是否为当前线程持有的专用连接
+	 */
+	boolean isHeldBy(Connection con) {
+		return con != null && lock.isHeldByCurrentThread() && con == connection;
+	}
+
+	/**
+	 * 获取专用连接上缓存的预编译语句，须先调用{@link #tryAcquire()}；语句用完后不要关闭
+	 *
+	 * @param sql sql语句
+	 * @return 清空了参数的预编译语句
+	 * @throws SQLException
+	 */
+	PreparedStatement prepareStatement(String sql) throws SQLException {
+		PreparedStatement stmt = statements.get(sql);
+		if (stmt == null) {
+			stmt = connection.prepareStatement(sql);
+			statements.put(sql, stmt);
+		} else {
+			stmt.clearParameters();
+		}
+		return stmt;
+	}
+
+	/**
+	 * 释放专用连接
+	 *
+	 * @param broken 使用中是否出错，出错时关闭连接，下次使用时重新建立
+	 */
+	void release(boolean broken) {
+		try {
+			if (broken) {
+				closeConnection();
+			} else {
+				lastUsedTime = System.nanoTime();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 关闭专用连接，正在使用时等待使用完
+	 */
+	void close() {
+		lock.lock();
+		try {
+			closeConnection();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isValid() {
+		try {
+			return connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		} catch (SQLException e) {
+			return false;
+		} catch (AbstractMethodError e) {
+			// JDBC4之前的驱动没有实现isValid，执行一条sql校验
+			Statement stmt = null;
+			try {
+				stmt = connection.createStatement();
+				stmt.executeQuery("select 'x' ").close();
+				return true;
+			} catch (SQLException ex) {
+				return false;
+			} finally {
+				closeQuietly(stmt);
+			}
+		}
+	}
+
+	private void closeConnection() {
+		for (PreparedStatement stmt : statements.values()) {
+			closeQuietly(stmt);
+		}
+		statements.clear();
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (Exception e) {
+				logger.error("ERROR ## close the dedicated sequence connection has an error", e);
+			}
+			connection = null;
+		}
+	}
+
+	private void closeQuietly(Statement stmt) {
+		if (stmt == null) {
+			return;
+		}
+		try {
+			stmt.close();
+		} catch (Exception e) {
+			logger.error("ERROR ## close resources has an error", e);
+		}
+	}
+}
@@ -1,12 +1,10 @@
 package com.lyle.common.sequence.impl;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.lyle.common.sequence.Sequence;
 import com.lyle.common.sequence.SequenceConstants;
 import com.lyle.common.sequence.SequenceRange;
 import com.lyle.common.sequence.exception.SequenceException;
@@ -14,33 +12,14 @@ import com.lyle.common.sequence.exception.SequenceException;
 /**
  * 序列默认实现
  */
-public class DefaultSequence implements Sequence {
+public class DefaultSequence extends AbstractSequence {
 
     private static final Logger    logger            = LoggerFactory
         .getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
 
-    private final Lock             lock              = new ReentrantLock();
-
     /** 序列DAO */
     private DefaultSequenceDAO     sequenceDAO;
 
-    /** 默认步长 */
-    private static final int       DEFAULT_STEP      = 1000;
-    /**默认sequence的最小值*/
-    private static final long      DEFAULT_MIN_VALUE = 0;
-    /**默认sequence的最大值*/
-    private static final long      DEFAULT_MAX_VALUE = Long.MAX_VALUE;
-    /**内步长*/
-    private int                    innerStep         = DEFAULT_STEP;
-    /** 最小值*/
-    private long                   minValue          = DEFAULT_MIN_VALUE;
-    /** 最大值*/
-    private long                   maxValue          = DEFAULT_MAX_VALUE;
-    /**序列名称*/
-    private String                 sequenceName;
-    /** sequence 段*/
-    private volatile SequenceRange currentRange;
-
     /** 是否初始化完成 */
     private volatile boolean       isInitialize      = false;
 
@@ -56,11 +35,8 @@ public class DefaultSequence implements Sequence {
 
     public DefaultSequence(DefaultSequenceDAO sequenceDAO, String sequenceName, long minValue,
                            long maxValue, int innerStep) {
+        super(sequenceName, minValue, maxValue, innerStep);
         this.sequenceDAO = sequenceDAO;
-        this.sequenceName = sequenceName;
-        this.minValue = minValue;
-        this.maxValue = maxValue;
-        this.innerStep = innerStep;
     }
 
     /**
@@ -69,26 +45,39 @@ public class DefaultSequence implements Sequence {
      * @throws SequenceException
      */
     public void init() throws SequenceException {
+        init(true);
+    }
+
+    /**
+     * 记录已由工厂批量初始化时使用，只校验参数，不再访问db
+     *
+     * @throws SequenceException
+     */
+    void initWithoutRecord() throws SequenceException {
+        init(false);
+    }
+
+    private void init(boolean initRecord) throws SequenceException {
         if (isInitialize == true) {
             throw new SequenceException("ERROR ## the MultipleSequence has inited");
         }
         if (sequenceDAO == null) {
             throw new IllegalArgumentException("ERROR ## the sequenceDao is null");
         }
+        String sequenceName = getSequenceName();
         if (sequenceName == null || sequenceName.trim().length() == 0) {
             throw new IllegalArgumentException("ERROR ## the sequenceName is null");
         }
-        if (minValue < 0) {
+        if (getMinValue() < 0) {
             throw new IllegalArgumentException("ERROR ## the minValue is less than zero");
         }
-        if (maxValue < 0) {
+        if (getMaxValue() < 0) {
             throw new IllegalArgumentException("ERROR ## the maxValue is less than zero");
         }
 
-        try {
-            sequenceDAO.initSequenceRecord(sequenceName, minValue, maxValue, innerStep);
-        } catch (SequenceException e) {
-            throw e;
+        if (initRecord) {
+            sequenceDAO.initSequenceRecord(sequenceName, getMinValue(), getMaxValue(),
+                getInnerStep());
         }
 
         logger.warn("WARN ## init the multipleSequence success,the sequenceName = " + sequenceName);
@@ -96,69 +85,16 @@ public class DefaultSequence implements Sequence {
     }
 
     /**
-     * 取得序列下一个值
+     * 从db获取接下来的sequence段
      *
+     * @param rounds 内步长个数
      * @return
      * @throws SequenceException
      */
-    public long nextValue() throws SequenceException {
-        if (currentRange == null) {
-            lock.lock();
-            try {
-                if (currentRange == null) {
-                    currentRange = sequenceDAO.nextRange(sequenceName, minValue, maxValue,
-                        innerStep);
-                }
-            } finally {
-                lock.unlock();
-            }
-        }
-
-        long value = currentRange.getAndIncrement();
-        if (value == -1) {
-            lock.lock();
-            try {
-                for (;;) {
-                    if (currentRange.isOver()) {
-                        currentRange = sequenceDAO.nextRange(sequenceName, minValue, maxValue,
-                            innerStep);
-                    }
-
-                    value = currentRange.getAndIncrement();
-                    if (value == -1) {
-                        continue;
-                    }
-
-                    break;
-                }
-            } finally {
-                lock.unlock();
-            }
-        }
-
-        if (value < 0) {
-            throw new SequenceException("Sequence value overflow, value = " + value);
-        }
-
-        return value;
-    }
-
-    /**
-     * 获取配置的序列最小值
-     *
-     * @return
-     */
-    public long getMinValue() {
-        return this.minValue;
-    }
-
-    /**
-     * 获取配置的序列最大值
-     *
-     * @return
-     */
-    public long getMaxValue() {
-        return this.maxValue;
+    @Override
+    protected List<SequenceRange> fetchRanges(int rounds) throws SequenceException {
+        return sequenceDAO.nextRanges(getSequenceName(), getMinValue(), getMaxValue(),
+            getInnerStep(), rounds);
     }
 
     /**
@@ -178,22 +114,4 @@ public class DefaultSequence implements Sequence {
     public void setSequenceDAO(DefaultSequenceDAO sequenceDAO) {
         this.sequenceDAO = sequenceDAO;
     }
-
-    /**
-     * Getter method for property <tt>sequenceName</tt>.
-     *
-     * @return property value of sequenceName
-     */
-    public String getSequenceName() {
-        return sequenceName;
-    }
-
-    /**
-     * Setter method for property <tt>counterType</tt>.
-     *
-     * @param sequenceName value to be assigned to property sequenceName
-     */
-    public void setSequenceName(String sequenceName) {
-        this.sequenceName = sequenceName;
-    }
 }
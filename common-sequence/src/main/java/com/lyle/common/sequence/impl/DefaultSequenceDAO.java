@@ -1,19 +1,28 @@
 package com.lyle.common.sequence.impl;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.lyle.common.sequence.SequenceConstants;
 import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.SequenceRequest;
 import com.lyle.common.sequence.exception.SequenceException;
+import com.lyle.common.sequence.metrics.NoopSequenceMetrics;
+import com.lyle.common.sequence.metrics.SequenceMetrics;
+import com.lyle.common.sequence.retry.ExponentialBackoffRetryPolicy;
+import com.lyle.common.sequence.retry.RetryCause;
+import com.lyle.common.sequence.retry.RetryPolicy;
 
 /**
  * 序列DAO默认实现，JDBC方式
@@ -58,17 +67,25 @@ public class DefaultSequenceDAO {
 	/** 存储序列最后更新时间的列名 默认为 gmt_modified */
 	private String gmtModifiedColumnName = DEFAULT_GMT_MODIFIED_COLUMN_NAME;
 
+	/** 批量获取sequence段时每批的最大个数，受sql参数个数的限制 */
+	private static final int BATCH_SIZE = 500;
+
 	/** 重试次数 */
-	private static final int DEFAULT_RETRY_TIMES = 150;
+	private static final int DEFAULT_RETRY_TIMES = ExponentialBackoffRetryPolicy.DEFAULT_MAX_RETRIES;
 
 	/** sequence的最大值=Long.MAX_VALUE-DELTA，超过这个值就说明sequence溢出了. */
 	private static final long DELTA = 100000000L;
 
 	/**
-	 * 重试次数
+	 * 重试次数，没有配置重试策略时使用
 	 */
 	private int retryTimes = DEFAULT_RETRY_TIMES;
 
+	/**
+	 * 重试策略，为null时按retryTimes创建指数退避策略
+	 */
+	private RetryPolicy retryPolicy;
+
 	/**
 	 * 查询sequence记录的sql<br>
 	 * 格式：select value from sequence where name=?
@@ -103,9 +120,55 @@ public class DefaultSequenceDAO {
 	 */
 	private String selectSeqRecordSql;
 
+	/**
+	 * 查询修改时间晚于水位的sequence记录的sql<br>
+	 * 格式：select name,min_value,max_value,step,gmt_modified from sequence where gmt_modified > ?
+	 */
+	private String selectModifiedRecordSql;
+
+	/**
+	 * 加行锁查询sequence记录的sql<br>
+	 * 格式：select value from sequence where name=? for update
+	 */
+	private String selectForUpdateSql;
+
+	/**
+	 * 原子自增sequence记录的sql<br>
+	 * 格式：update table_name(default：sequence) set value=value+? ,gmt_modified=? where name=?
+	 */
+	private String incrementSql;
+
+	/**
+	 * 批量查询sequence当前值的sql前缀<br>
+	 * 格式：select name,value from sequence where name in (
+	 */
+	private String batchSelectSql;
+
 	/** 调整开关 adjust 默认true */
 	private Boolean adjust = true;
 
+	/** 分配sequence段的方式 默认为CAS乐观锁方式 */
+	private AllocateMode allocateMode = AllocateMode.CAS;
+
+	/** 运行指标，上报乐观锁冲突、重试以及被排除的数据源，默认不统计 */
+	private SequenceMetrics metrics = NoopSequenceMetrics.INSTANCE;
+
+	/** 熔断器统计的最近访问次数 */
+	private int slidingWindowSize = DataSourceCircuitBreaker.DEFAULT_SLIDING_WINDOW_SIZE;
+	/** 熔断器计算出错率需要的最少访问次数 */
+	private int minimumNumberOfCalls = DataSourceCircuitBreaker.DEFAULT_MINIMUM_NUMBER_OF_CALLS;
+	/** 打开熔断的出错率，百分比 */
+	private int failureRateThreshold = DataSourceCircuitBreaker.DEFAULT_FAILURE_RATE_THRESHOLD;
+	/** 熔断打开的持续时间，之后允许一个线程探测，单位毫秒 */
+	private long openStateMillis = DataSourceCircuitBreaker.DEFAULT_OPEN_STATE_MILLIS;
+
+	/** 默认的专用连接校验间隔，单位毫秒 */
+	private static final long DEFAULT_CONNECTION_VALIDATION_MILLIS = 30000;
+	/** 是否在每个数据源上长期持有一个专用连接获取sequence段，省去连接池借还连接的开销 */
+	private boolean dedicatedConnection = false;
+	/** 专用连接空闲超过该时间后使用前先校验，单位毫秒 */
+	private long connectionValidationMillis = DEFAULT_CONNECTION_VALIDATION_MILLIS;
+
 	/** DefaultSequenceDao是否已经初始化 */
 	private volatile boolean isInitialize = false;
 
@@ -120,11 +183,27 @@ public class DefaultSequenceDAO {
 			throw new SequenceException("ERROR ## the DefaultSequenceDao has inited");
 		}
 
+		if (retryPolicy == null) {
+			retryPolicy = new ExponentialBackoffRetryPolicy(retryTimes);
+		}
 		sequenceDataSourceHolder.setParameters(getTableName(), getSelectSql(), getUpdateSql(), getInsertSql(), adjust);
+		sequenceDataSourceHolder.setAllocateParameters(allocateMode, getSelectForUpdateSql(), getIncrementSql(),
+				getIncrementSql() + " returning " + getValueColumnName());
+		sequenceDataSourceHolder.setBatchParameters(getBatchSelectSql());
+		sequenceDataSourceHolder.getCircuitBreaker().setParameters(slidingWindowSize, minimumNumberOfCalls,
+				failureRateThreshold, openStateMillis);
+		sequenceDataSourceHolder.setConnectionParameters(dedicatedConnection, connectionValidationMillis);
 
 		isInitialize = true;
 	}
 
+	/**
+	 * 关闭数据源上的专用连接
+	 */
+	public void destroy() {
+		sequenceDataSourceHolder.close();
+	}
+
 	/**
 	 * 初始化sequence的初始值,每个数据源都要去检查一遍，如果不存在就插入一条记录
 	 *
@@ -144,6 +223,23 @@ public class DefaultSequenceDAO {
 
 	}
 
+	/**
+	 * 批量初始化sequence记录：只查询一次全部记录，只对不存在或不符合规律的记录逐条调整/插入
+	 *
+	 * @param sequences sequence列表
+	 * @param executor  执行初始化的线程池
+	 * @return 初始化失败的sequence名称
+	 * @throws SequenceException
+	 */
+	public Set<String> initSequenceRecords(Collection<? extends AbstractSequence> sequences, ExecutorService executor)
+			throws SequenceException {
+		if (!isInitialize) {
+			throw new SequenceException("ERROR ## please init the DefaultSequenceDAO first");
+		}
+		return new SequenceRecordInitializer(Collections.singletonList(sequenceDataSourceHolder),
+				getSelectAllRecord(), getNameColumnName(), getValueColumnName()).init(sequences, executor);
+	}
+
 	/**
 	 * 取得下一个可用的序列区间
 	 *
@@ -155,29 +251,105 @@ public class DefaultSequenceDAO {
 	 * @throws SequenceException
 	 */
 	public SequenceRange nextRange(String name, long minValue, long maxValue, int innerStep) throws SequenceException {
+		return nextRanges(name, minValue, maxValue, innerStep, 1).get(0);
+	}
+
+	/**
+	 * 一次取得多个步长的序列区间，单数据源下各步长首尾相连，合并为一个区间返回
+	 *
+	 * @param name      序列名称
+	 * @param minValue  序列最小值
+	 * @param maxValue  序列最大值
+	 * @param innerStep 序列步长
+	 * @param rounds    获取的步长个数，接近最大值时可能少于该值
+	 * @return 返回下一批可用的序列区间
+	 * @throws SequenceException
+	 */
+	public List<SequenceRange> nextRanges(String name, long minValue, long maxValue, int innerStep, int rounds)
+			throws SequenceException {
 		if (name == null || name.trim().length() == 0) {
 			throw new IllegalArgumentException("序列名称不能为空");
 		}
 
-		long oldValue;
-		long newValue;
+		long beginTime = System.nanoTime();
+		List<Integer> excludeIndexes = new ArrayList<Integer>(1);
+		for (int retries = 0;;) {
+			excludeIndexes.clear();
+			List<SequenceRange> sequenceRanges = sequenceDataSourceHolder.tryOnSelectedDataSource(0, name, minValue,
+					maxValue, innerStep, innerStep, rounds, excludeIndexes);
 
-		Connection conn = null;
-		PreparedStatement stmt = null;
-		ResultSet rs = null;
-
-		for (int i = 0; i < retryTimes + 1; ++i) {
-			SequenceRange sequenceRange = sequenceDataSourceHolder.tryOnSelectedDataSource(0, name, minValue, maxValue,
-					innerStep, innerStep, new ArrayList<Integer>(0));
+			if (sequenceRanges != null) {
+				retryPolicy.onSuccess(name, retries);
+				return sequenceRanges;
+			}
+			// 数据源没有被排除说明是乐观锁更新冲突；只有一个数据源，出错即不可用
+			RetryCause cause;
+			if (excludeIndexes.isEmpty()) {
+				metrics.onCasConflict(name, 0);
+				cause = RetryCause.CONFLICT;
+			} else {
+				metrics.onExclude(name, 0);
+				cause = RetryCause.UNAVAILABLE;
+			}
+			metrics.onRetry(name);
+			retries++;
+			logger.warn("WARN ## 重试去取 sequenceRange，第" + retries + "次尝试!");
+			retryPolicy.backoff(name, cause, retries, beginTime,
+					"Retried too many times, retryTimes = " + retryTimes);
+		}
+	}
 
-			if (sequenceRange == null) {
-				logger.warn("WARN ## 重试去取 sequenceRange，第" + (i + 1) + "次尝试!");
-				continue;
+	/**
+	 * 批量获取多个sequence的下一个段：在一个数据源上用一次查询和一次JDBC批量更新获取，适用于启动预热或者多个sequence同时用完的场景；
+	 * 记录不存在、更新冲突等批量没有获取到的sequence再逐个获取。每批最多BATCH_SIZE个sequence。
+	 *
+	 * @param requests 各sequence的参数，名称重复时只获取一次
+	 * @return key为sequence名称，value为获取到的段
+	 * @throws SequenceException
+	 */
+	public Map<String, SequenceRange> nextRanges(Collection<SequenceRequest> requests) throws SequenceException {
+		Map<String, SequenceRequest> pending = new LinkedHashMap<String, SequenceRequest>();
+		for (SequenceRequest request : requests) {
+			if (request.getName() == null || request.getName().trim().length() == 0) {
+				throw new IllegalArgumentException("序列名称不能为空");
 			}
-			return sequenceRange;
+			pending.put(request.getName(), request);
 		}
+		Map<String, SequenceRange> result = new HashMap<String, SequenceRange>(pending.size() * 4 / 3 + 1);
+		List<SequenceRequest> batch = new ArrayList<SequenceRequest>(Math.min(pending.size(), BATCH_SIZE));
+		for (SequenceRequest request : pending.values()) {
+			batch.add(request);
+			if (batch.size() == BATCH_SIZE) {
+				result.putAll(batchOnDataSource(batch));
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			result.putAll(batchOnDataSource(batch));
+		}
+		// 批量没有获取到的逐个获取
+		for (SequenceRequest request : pending.values()) {
+			if (!result.containsKey(request.getName())) {
+				result.put(request.getName(), nextRange(request.getName(), request.getMinValue(),
+						request.getMaxValue(), request.getInnerStep()));
+			}
+		}
+		return result;
+	}
 
-		throw new SequenceException("Retried too many times, retryTimes = " + retryTimes);
+	/**
+	 * 批量获取一批sequence段，单数据源下外步长等于内步长
+	 */
+	private Map<String, SequenceRange> batchOnDataSource(List<SequenceRequest> batch) {
+		List<Integer> excludeIndexes = new ArrayList<Integer>(1);
+		Map<String, SequenceRange> ranges = sequenceDataSourceHolder.batchAllocate(0, batch, 1, excludeIndexes);
+		if (!excludeIndexes.isEmpty()) {
+			// 整批都没有获取到，按sequence分别记录
+			for (SequenceRequest request : batch) {
+				metrics.onExclude(request.getName(), 0);
+			}
+		}
+		return ranges;
 	}
 
 	/**
@@ -215,6 +387,33 @@ public class DefaultSequenceDAO {
 		return sequenceRecordMap;
 	}
 
+	/**
+	 * 查询修改时间晚于指定时间的sequence记录
+	 *
+	 * @param sinceMillis 只查询修改时间晚于该时间的记录，单位毫秒
+	 * @return 外层key为sequence名称，内层key为最小值、最大值、步长以及修改时间的列名，修改时间为毫秒数
+	 * @throws SQLException
+	 */
+	public Map<String, Map<String, Object>> getModifiedSequenceRecords(long sinceMillis) throws SQLException {
+		return sequenceDataSourceHolder.getModifiedSequenceRecords(getSelectModifiedRecordSql(), sinceMillis,
+				getNameColumnName(), getMinValueColumnName(), getMaxValueColumnName(), getInnerStepColumnName(),
+				getGmtModifiedColumnName());
+	}
+
+	/**
+	 * 根据sequenceName来获取一条记录
+	 *
+	 * @param sequenceName sequence名称
+	 * @return 外层key为sequence名称，内层key为最小值、最大值以及步长的列名
+	 * @throws SQLException
+	 * @throws SequenceException 记录不存在时
+	 */
+	public Map<String, Map<String, Object>> getSequenceRecordByName(String sequenceName)
+			throws SQLException, SequenceException {
+		return sequenceDataSourceHolder.getSequenceRecordByName(getSequenceRecordSql(), getMinValueColumnName(),
+				getMaxValueColumnName(), getInnerStepColumnName(), sequenceName);
+	}
+
 	/** 格式：select value from table_name(default:sequence) where name=? */
 	private String getSelectSql() {
 		if (selectSql == null) {
@@ -245,6 +444,25 @@ public class DefaultSequenceDAO {
 		return selectAllRecordSql;
 	}
 
+	/**
+	 * 格式：select name,min_value,max_value,step,gmt_modified from
+	 * table_name(default:sequence) where gmt_modified > ?
+	 */
+	public String getSelectModifiedRecordSql() {
+		if (selectModifiedRecordSql == null) {
+			StringBuilder buffer = new StringBuilder();
+			buffer.append("select ").append(getNameColumnName()).append(",");
+			buffer.append(this.getMinValueColumnName()).append(",");
+			buffer.append(this.getMaxValueColumnName()).append(",");
+			buffer.append(this.getInnerStepColumnName()).append(",");
+			buffer.append(this.getGmtModifiedColumnName());
+			buffer.append(" from ").append(getTableName());
+			buffer.append(" where ").append(getGmtModifiedColumnName()).append(" > ?");
+			selectModifiedRecordSql = buffer.toString();
+		}
+		return selectModifiedRecordSql;
+	}
+
 	/** 格式：select value,min_value,max_value,step from sequence where name=? */
 	public String getSequenceRecordSql() {
 		if (selectSeqRecordSql == null) {
@@ -261,6 +479,43 @@ public class DefaultSequenceDAO {
 		return selectSeqRecordSql;
 	}
 
+	/** 格式：select name,value from table_name(default:sequence) where name in ( */
+	private String getBatchSelectSql() {
+		if (batchSelectSql == null) {
+			StringBuilder buffer = new StringBuilder();
+			buffer.append("select ").append(getNameColumnName()).append(",").append(getValueColumnName());
+			buffer.append(" from ").append(getTableName());
+			buffer.append(" where ").append(getNameColumnName()).append(" in (");
+			batchSelectSql = buffer.toString();
+		}
+		return batchSelectSql;
+	}
+
+	/** 格式：select value from table_name(default:sequence) where name=? for update */
+	private String getSelectForUpdateSql() {
+		if (selectForUpdateSql == null) {
+			selectForUpdateSql = getSelectSql() + " for update";
+		}
+		return selectForUpdateSql;
+	}
+
+	/**
+	 * 格式 update table_name(default：sequence) set value=value+? ,gmt_modified=?
+	 * where name=?
+	 */
+	private String getIncrementSql() {
+		if (incrementSql == null) {
+			StringBuilder buffer = new StringBuilder();
+			buffer.append("update ").append(getTableName());
+			buffer.append(" set ").append(getValueColumnName()).append(" = ");
+			buffer.append(getValueColumnName()).append(" + ?, ");
+			buffer.append(getGmtModifiedColumnName()).append(" = ? where ");
+			buffer.append(getNameColumnName()).append(" = ?");
+			incrementSql = buffer.toString();
+		}
+		return incrementSql;
+	}
+
 	/**
 	 * 格式 update table_name(default：sequence) set value=? ,gmt_modified=? where
 	 * name=? and value=?
@@ -321,6 +576,24 @@ public class DefaultSequenceDAO {
 		this.retryTimes = retryTimes;
 	}
 
+	/**
+	 * Getter method for property <tt>retryPolicy</tt>.
+	 *
+	 * @return property value of retryPolicy
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Setter method for property <tt>retryPolicy</tt>，为null时使用按retryTimes创建的指数退避策略.
+	 *
+	 * @param retryPolicy value to be assigned to property retryPolicy
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
 	/**
 	 * Getter method for property <tt>tableName</tt>.
 	 *
@@ -486,4 +759,148 @@ public class DefaultSequenceDAO {
 	public void setSequenceDataSourceHolder(SequenceDataSourceHolder sequenceDataSourceHolder) {
 		this.sequenceDataSourceHolder = sequenceDataSourceHolder;
 	}
+
+	/**
+	 * Getter method for property <tt>allocateMode</tt>.
+	 *
+	 * @return property value of allocateMode
+	 */
+	public AllocateMode getAllocateMode() {
+		return allocateMode;
+	}
+
+	/**
+	 * Setter method for property <tt>allocateMode</tt>.
+	 *
+	 * @param allocateMode value to be assigned to property allocateMode
+	 */
+	public void setAllocateMode(AllocateMode allocateMode) {
+		this.allocateMode = allocateMode;
+	}
+
+	/**
+	 * Getter method for property <tt>metrics</tt>.
+	 *
+	 * @return property value of metrics
+	 */
+	public SequenceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Setter method for property <tt>metrics</tt>，为null时不统计.
+	 *
+	 * @param metrics value to be assigned to property metrics
+	 */
+	public void setMetrics(SequenceMetrics metrics) {
+		this.metrics = metrics == null ? NoopSequenceMetrics.INSTANCE : metrics;
+	}
+
+	/**
+	 * Getter method for property <tt>slidingWindowSize</tt>.
+	 *
+	 * @return property value of slidingWindowSize
+	 */
+	public int getSlidingWindowSize() {
+		return slidingWindowSize;
+	}
+
+	/**
+	 * Setter method for property <tt>slidingWindowSize</tt>.
+	 *
+	 * @param slidingWindowSize value to be assigned to property slidingWindowSize
+	 */
+	public void setSlidingWindowSize(int slidingWindowSize) {
+		this.slidingWindowSize = slidingWindowSize;
+	}
+
+	/**
+	 * Getter method for property <tt>minimumNumberOfCalls</tt>.
+	 *
+	 * @return property value of minimumNumberOfCalls
+	 */
+	public int getMinimumNumberOfCalls() {
+		return minimumNumberOfCalls;
+	}
+
+	/**
+	 * Setter method for property <tt>minimumNumberOfCalls</tt>.
+	 *
+	 * @param minimumNumberOfCalls value to be assigned to property minimumNumberOfCalls
+	 */
+	public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+		this.minimumNumberOfCalls = minimumNumberOfCalls;
+	}
+
+	/**
+	 * Getter method for property <tt>failureRateThreshold</tt>.
+	 *
+	 * @return property value of failureRateThreshold
+	 */
+	public int getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	/**
+	 * Setter method for property <tt>failureRateThreshold</tt>，百分比.
+	 *
+	 * @param failureRateThreshold value to be assigned to property failureRateThreshold
+	 */
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * Getter method for property <tt>openStateMillis</tt>.
+	 *
+	 * @return property value of openStateMillis
+	 */
+	public long getOpenStateMillis() {
+		return openStateMillis;
+	}
+
+	/**
+	 * Setter method for property <tt>openStateMillis</tt>.
+	 *
+	 * @param openStateMillis value to be assigned to property openStateMillis
+	 */
+	public void setOpenStateMillis(long openStateMillis) {
+		this.openStateMillis = openStateMillis;
+	}
+
+	/**
+	 * Getter method for property <tt>dedicatedConnection</tt>.
+	 *
+	 * @return property value of dedicatedConnection
+	 */
+	public boolean isDedicatedConnection() {
+		return dedicatedConnection;
+	}
+
+	/**
+	 * Setter method for property <tt>dedicatedConnection</tt>，在init之前设置.
+	 *
+	 * @param dedicatedConnection value to be assigned to property dedicatedConnection
+	 */
+	public void setDedicatedConnection(boolean dedicatedConnection) {
+		this.dedicatedConnection = dedicatedConnection;
+	}
+
+	/**
+	 * Getter method for property <tt>connectionValidationMillis</tt>.
+	 *
+	 * @return property value of connectionValidationMillis
+	 */
+	public long getConnectionValidationMillis() {
+		return connectionValidationMillis;
+	}
+
+	/**
+	 * Setter method for property <tt>connectionValidationMillis</tt>.
+	 *
+	 * @param connectionValidationMillis value to be assigned to property connectionValidationMillis
+	 */
+	public void setConnectionValidationMillis(long connectionValidationMillis) {
+		this.connectionValidationMillis = connectionValidationMillis;
+	}
 }
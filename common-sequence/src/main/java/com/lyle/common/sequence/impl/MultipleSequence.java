@@ -1,12 +1,11 @@
 package com.lyle.common.sequence.impl;
 
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.lyle.common.sequence.Sequence;
 import com.lyle.common.sequence.SequenceConstants;
 import com.lyle.common.sequence.SequenceRange;
 import com.lyle.common.sequence.exception.SequenceException;
@@ -15,44 +14,10 @@ import com.lyle.common.sequence.exception.SequenceException;
  * 高可用 sequence 序列实现,sequence包含名称、当前值、步长、最小值、最大值、创建时间和修改时间等属性。
  * 采用乐观锁的方式实现从db获取当前sequence段，取完缓存起来，供业务使用
  */
-public class MultipleSequence implements Sequence {
+public class MultipleSequence extends AbstractSequence {
 
 	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
 
-	private final Lock lock = new ReentrantLock();
-
-	/**
-	 * 默认步长
-	 */
-	private static final int DEFAULT_STEP = 1000;
-	/**
-	 * 默认sequence的最小值
-	 */
-	private static final long DEFAULT_MIN_VALUE = 0;
-	/**
-	 * 默认sequence的最大值
-	 */
-	private static final long DEFAULT_MAX_VALUE = Long.MAX_VALUE;
-	/**
-	 * 内步长
-	 */
-	private int innerStep = DEFAULT_STEP;
-	/**
-	 * 最小值
-	 */
-	private long minValue = DEFAULT_MIN_VALUE;
-	/**
-	 * 最大值
-	 */
-	private long maxValue = DEFAULT_MAX_VALUE;
-	/**
-	 * 序列名称
-	 */
-	private String sequenceName;
-	/**
-	 * sequence 段
-	 */
-	private volatile SequenceRange currentRange;
 	/**
 	 * 数据源的包装器
 	 */
@@ -76,11 +41,8 @@ public class MultipleSequence implements Sequence {
 
 	public MultipleSequence(MultipleSequenceDAO sequenceDAO, String sequenceName, long minValue, long maxValue,
 			int innerStep) {
+		super(sequenceName, minValue, maxValue, innerStep);
 		this.sequenceDAO = sequenceDAO;
-		this.sequenceName = sequenceName;
-		this.minValue = minValue;
-		this.maxValue = maxValue;
-		this.innerStep = innerStep;
 	}
 
 	/**
@@ -89,26 +51,38 @@ public class MultipleSequence implements Sequence {
 	 * @throws SequenceException
 	 */
 	public void init() throws SequenceException {
+		init(true);
+	}
+
+	/**
+	 * 记录已由工厂批量初始化时使用，只校验参数，不再访问db
+	 *
+	 * @throws SequenceException
+	 */
+	void initWithoutRecord() throws SequenceException {
+		init(false);
+	}
+
+	private void init(boolean initRecord) throws SequenceException {
 		if (isInitialize) {
 			throw new SequenceException("ERROR ## the MultipleSequence has inited");
 		}
 		if (sequenceDAO == null) {
 			throw new IllegalArgumentException("ERROR ## the sequenceDao is null");
 		}
+		String sequenceName = getSequenceName();
 		if (sequenceName == null || sequenceName.trim().length() == 0) {
 			throw new IllegalArgumentException("ERROR ## the sequenceName is null");
 		}
-		if (minValue < 0) {
+		if (getMinValue() < 0) {
 			throw new IllegalArgumentException("ERROR ## the minValue is less than zero");
 		}
-		if (maxValue < 0) {
+		if (getMaxValue() < 0) {
 			throw new IllegalArgumentException("ERROR ## the maxValue is less than zero");
 		}
 		// 初始化该sequence
-		try {
-			sequenceDAO.initSequenceRecord(sequenceName, minValue, maxValue, innerStep);
-		} catch (SequenceException e) {
-			throw e;
+		if (initRecord) {
+			sequenceDAO.initSequenceRecord(sequenceName, getMinValue(), getMaxValue(), getInnerStep());
 		}
 
 		logger.info("WARN ## init the multipleSequence success,the sequenceName = " + sequenceName);
@@ -118,49 +92,50 @@ public class MultipleSequence implements Sequence {
 	/**
 	 * 获取sequence值
 	 */
+	@Override
 	public long nextValue() throws SequenceException {
 		if (this.isInitialize == false) {
 			throw new SequenceException("ERROR ## the MultipleSequence is not init");
 		}
-		if (currentRange == null) {
-			lock.lock();
-			try {
-				if (currentRange == null) {
-					currentRange = sequenceDAO.nextRange(sequenceName, minValue, maxValue, innerStep);
-					logger.warn("WARN ## get the sequence range, from " + currentRange.getMin() + " to "
-							+ currentRange.getMax() + ",the sequenceName = " + sequenceName);
-				}
-			} finally {
-				lock.unlock();
-			}
-		}
+		return super.nextValue();
+	}
 
-		long value = currentRange.getAndIncrement();
-		if (value == -1) {
-			lock.lock();
-			try {
-				for (;;) {
-					if (currentRange.isOver()) {
-						currentRange = sequenceDAO.nextRange(sequenceName, minValue, maxValue, innerStep);
-						logger.warn("WARN ## after over,get the sequence range, from " + currentRange.getMin() + " to "
-								+ currentRange.getMax() + ",the sequenceName = " + sequenceName);
-					}
-					value = currentRange.getAndIncrement();
-					if (value == -1) {
-						continue;
-					}
-					break;
-				}
-			} finally {
-				lock.unlock();
-			}
+	/**
+	 * 异步获取sequence值，未初始化时返回以SequenceException完成的future
+	 */
+	@Override
+	public CompletableFuture<Long> nextValueAsync() {
+		if (this.isInitialize == false) {
+			CompletableFuture<Long> future = new CompletableFuture<Long>();
+			future.completeExceptionally(new SequenceException("ERROR ## the MultipleSequence is not init"));
+			return future;
 		}
+		return super.nextValueAsync();
+	}
 
-		if (value < 0) {
-			throw new SequenceException("Sequence value overflow, value = " + value);
+	/**
+	 * 批量获取sequence值
+	 */
+	@Override
+	public long[] nextValues(int n) throws SequenceException {
+		if (this.isInitialize == false) {
+			throw new SequenceException("ERROR ## the MultipleSequence is not init");
 		}
+		return super.nextValues(n);
+	}
 
-		return value;
+	/**
+	 * 从db获取接下来的sequence段
+	 */
+	@Override
+	protected List<SequenceRange> fetchRanges(int rounds) throws SequenceException {
+		List<SequenceRange> ranges = sequenceDAO.nextRanges(getSequenceName(), getMinValue(), getMaxValue(),
+				getInnerStep(), rounds);
+		for (SequenceRange range : ranges) {
+			logger.warn("WARN ## get the sequence range, from " + range.getMin() + " to " + range.getMax()
+					+ ",the sequenceName = " + getSequenceName());
+		}
+		return ranges;
 	}
 
 	public MultipleSequenceDAO getSequenceDAO() {
@@ -170,36 +145,4 @@ public class MultipleSequence implements Sequence {
 	public void setSequenceDao(MultipleSequenceDAO sequenceDAO) {
 		this.sequenceDAO = sequenceDAO;
 	}
-
-	public String getSequenceName() {
-		return sequenceName;
-	}
-
-	public void setSequenceName(String name) {
-		this.sequenceName = name;
-	}
-
-	public int getInnerStep() {
-		return innerStep;
-	}
-
-	public void setInnerStep(int innerStep) {
-		this.innerStep = innerStep;
-	}
-
-	public long getMinValue() {
-		return minValue;
-	}
-
-	public void setMinValue(long minValue) {
-		this.minValue = minValue;
-	}
-
-	public long getMaxValue() {
-		return maxValue;
-	}
-
-	public void setMaxValue(long maxValue) {
-		this.maxValue = maxValue;
-	}
 }
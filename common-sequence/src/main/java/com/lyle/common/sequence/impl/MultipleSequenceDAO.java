@@ -2,9 +2,29 @@ package com.lyle.common.sequence.impl;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import javax.sql.DataSource;
 
@@ -14,7 +34,13 @@ import org.slf4j.LoggerFactory;
 import com.lyle.common.sequence.DataSourceWeightRandom;
 import com.lyle.common.sequence.SequenceConstants;
 import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.SequenceRequest;
 import com.lyle.common.sequence.exception.SequenceException;
+import com.lyle.common.sequence.metrics.NoopSequenceMetrics;
+import com.lyle.common.sequence.metrics.SequenceMetrics;
+import com.lyle.common.sequence.retry.ExponentialBackoffRetryPolicy;
+import com.lyle.common.sequence.retry.RetryCause;
+import com.lyle.common.sequence.retry.RetryPolicy;
 
 /**
  * 序列DAO默认实现，JDBC方式
@@ -29,10 +55,30 @@ public class MultipleSequenceDAO {
 	private int dataSourceNum = DEFAULT_DATA_SOURCE_NUMBER;
 	/** 数据源的列表 */
 	private List<SequenceDataSourceHolder> dataSourceList = new ArrayList<SequenceDataSourceHolder>();
-	/** 重试次数 */
-	private int retryTimes = 150;
+	/** 批量获取sequence段时每批的最大个数，受sql参数个数的限制 */
+	private static final int BATCH_SIZE = 500;
+	/** 重试次数，没有配置重试策略时使用 */
+	private int retryTimes = ExponentialBackoffRetryPolicy.DEFAULT_MAX_RETRIES;
+	/** 重试策略，为null时按retryTimes创建指数退避策略 */
+	private RetryPolicy retryPolicy;
 	/** 随机权重 */
 	private DataSourceWeightRandom weightRandom;
+	/** 默认的对冲延迟，还没有耗时数据时使用，单位毫秒 */
+	private static final long DEFAULT_HEDGE_DELAY_MILLIS = 50;
+	/** 是否开启对冲获取：选中的数据源超过延迟没有返回时，同时在另一个数据源上获取 */
+	private volatile boolean hedged = false;
+	/** 对冲延迟，单位毫秒；为0时按各数据源最近耗时中最短的两倍计算 */
+	private long hedgeDelayMillis = 0;
+	/** 对冲线程池的默认最大线程数 */
+	private static final int DEFAULT_HEDGE_THREADS = 16;
+	/** 对冲线程池的最大线程数，线程都在使用时本次不对冲 */
+	private int hedgeThreads = DEFAULT_HEDGE_THREADS;
+	/** 执行对冲获取的线程池，第一次对冲时创建 */
+	private volatile ExecutorService hedgeExecutor;
+	/** 是否已经destroy，之后不再创建对冲线程池 */
+	private boolean destroyed = false;
+	/** 对冲时较慢返回的sequence段，按sequence名称保存，下次以相同的最小值、最大值和步长获取时优先使用 */
+	private final ConcurrentMap<String, SpareRanges> spareRanges = new ConcurrentHashMap<String, SpareRanges>();
 	/** sequence表名默认值 */
 	private static final String DEFAULT_TABLE_NAME = "sequence";
 	/**
@@ -67,6 +113,28 @@ public class MultipleSequenceDAO {
 	/** 调整开关 adjust 默认true */
 	private Boolean adjust = true;
 
+	/** 分配sequence段的方式 默认为CAS乐观锁方式 */
+	private AllocateMode allocateMode = AllocateMode.CAS;
+
+	/** 运行指标，上报乐观锁冲突、重试以及被排除的数据源，默认不统计 */
+	private SequenceMetrics metrics = NoopSequenceMetrics.INSTANCE;
+
+	/** 熔断器统计的最近访问次数 */
+	private int slidingWindowSize = DataSourceCircuitBreaker.DEFAULT_SLIDING_WINDOW_SIZE;
+	/** 熔断器计算出错率需要的最少访问次数 */
+	private int minimumNumberOfCalls = DataSourceCircuitBreaker.DEFAULT_MINIMUM_NUMBER_OF_CALLS;
+	/** 打开熔断的出错率，百分比 */
+	private int failureRateThreshold = DataSourceCircuitBreaker.DEFAULT_FAILURE_RATE_THRESHOLD;
+	/** 熔断打开的持续时间，之后允许一个线程探测，单位毫秒 */
+	private long openStateMillis = DataSourceCircuitBreaker.DEFAULT_OPEN_STATE_MILLIS;
+
+	/** 默认的专用连接校验间隔，单位毫秒 */
+	private static final long DEFAULT_CONNECTION_VALIDATION_MILLIS = 30000;
+	/** 是否在每个数据源上长期持有一个专用连接获取sequence段，省去连接池借还连接的开销 */
+	private boolean dedicatedConnection = false;
+	/** 专用连接空闲超过该时间后使用前先校验，单位毫秒 */
+	private long connectionValidationMillis = DEFAULT_CONNECTION_VALIDATION_MILLIS;
+
 	/**
 	 * 查询sequence记录的sql<br>
 	 * 格式：select value from sequence where name=?
@@ -100,6 +168,30 @@ public class MultipleSequenceDAO {
 	 */
 	private String selectSeqRecordSql;
 
+	/**
+	 * 查询修改时间晚于水位的sequence记录的sql<br>
+	 * 格式：select name,min_value,max_value,step,gmt_modified from sequence where gmt_modified > ?
+	 */
+	private String selectModifiedRecordSql;
+
+	/**
+	 * 加行锁查询sequence记录的sql<br>
+	 * 格式：select value from sequence where name=? for update
+	 */
+	private String selectForUpdateSql;
+
+	/**
+	 * 原子自增sequence记录的sql<br>
+	 * 格式：update table_name(default：sequence) set value=value+? ,gmt_modified=? where name=?
+	 */
+	private String incrementSql;
+
+	/**
+	 * 批量查询sequence当前值的sql前缀<br>
+	 * 格式：select name,value from sequence where name in (
+	 */
+	private String batchSelectSql;
+
 	/** MultipleSequenceDao是否已经初始化 */
 	private volatile boolean isInitialize = false;
 
@@ -119,14 +211,41 @@ public class MultipleSequenceDAO {
 			throw new IllegalArgumentException("为保证高可用，数据源的个数建议设置多于两个,size=" + dataSourceNum);
 		}
 		weightRandom = new DataSourceWeightRandom(dataSourceNum);
+		if (retryPolicy == null) {
+			retryPolicy = new ExponentialBackoffRetryPolicy(retryTimes);
+		}
 		logger.warn("初始化结束,其中dataSourceNum=" + dataSourceNum);
 		// 初始化SequenceDataSourceHolder数据源包装器的一些参数
 		for (SequenceDataSourceHolder dsHolder : dataSourceList) {
 			dsHolder.setParameters(getTableName(), getSelectSql(), getUpdateSql(), getInsertSql(), adjust);
+			dsHolder.setAllocateParameters(allocateMode, getSelectForUpdateSql(), getIncrementSql(),
+					getIncrementSql() + " returning " + getValueColumnName());
+			dsHolder.setBatchParameters(getBatchSelectSql());
+			dsHolder.getCircuitBreaker().setParameters(slidingWindowSize, minimumNumberOfCalls, failureRateThreshold,
+					openStateMillis);
+			dsHolder.setConnectionParameters(dedicatedConnection, connectionValidationMillis);
 		}
 		isInitialize = true;
 	}
 
+	/**
+	 * 关闭对冲线程池以及各数据源上的专用连接
+	 */
+	public void destroy() {
+		ExecutorService executor;
+		synchronized (this) {
+			destroyed = true;
+			executor = hedgeExecutor;
+			hedgeExecutor = null;
+		}
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		for (SequenceDataSourceHolder dsHolder : dataSourceList) {
+			dsHolder.close();
+		}
+	}
+
 	/**
 	 * 初始化sequence的初始值,每个数据源都要去检查一遍，如果不存在就插入一条记录
 	 *
@@ -145,6 +264,23 @@ public class MultipleSequenceDAO {
 		}
 	}
 
+	/**
+	 * 批量初始化sequence记录：每个数据源只查询一次全部记录，只对不存在或不符合规律的记录逐条调整/插入，各数据源并行
+	 *
+	 * @param sequences sequence列表
+	 * @param executor  执行初始化的线程池
+	 * @return 初始化失败的sequence名称
+	 * @throws SequenceException
+	 */
+	public Set<String> initSequenceRecords(Collection<? extends AbstractSequence> sequences, ExecutorService executor)
+			throws SequenceException {
+		if (isInitialize == false) {
+			throw new SequenceException("ERROR ## please init the MultipleSequenceDao first");
+		}
+		return new SequenceRecordInitializer(dataSourceList, getSelectAllRecord(), getNameColumnName(),
+				getValueColumnName()).init(sequences, executor);
+	}
+
 	/**
 	 * 获取所有的sequence记录
 	 *
@@ -168,6 +304,28 @@ public class MultipleSequenceDAO {
 		return sequenceRecordMap;
 	}
 
+	/**
+	 * 查询修改时间晚于指定时间的sequence记录，各数据源的记录原则上相同，取第一个可用的数据源
+	 *
+	 * @param sinceMillis 只查询修改时间晚于该时间的记录，单位毫秒
+	 * @return 外层key为sequence名称，内层key为最小值、最大值、步长以及修改时间的列名，修改时间为毫秒数
+	 * @throws SQLException 所有数据源都查询失败时
+	 */
+	public Map<String, Map<String, Object>> getModifiedSequenceRecords(long sinceMillis) throws SQLException {
+		SQLException lastException = null;
+		for (int i = 0; i < dataSourceList.size(); i++) {
+			try {
+				return dataSourceList.get(i).getModifiedSequenceRecords(getSelectModifiedRecordSql(), sinceMillis,
+						getNameColumnName(), getMinValueColumnName(), getMaxValueColumnName(),
+						getInnerStepColumnName(), getGmtModifiedColumnName());
+			} catch (SQLException e) {
+				logger.warn("The " + i + "th datasource failed,", e);
+				lastException = e;
+			}
+		}
+		throw lastException == null ? new SQLException("ERROR ## no datasource") : lastException;
+	}
+
 	/**
 	 * 根据sequenceName来获取一条记录,便于查询sequence当期的区段.
 	 *
@@ -195,35 +353,366 @@ public class MultipleSequenceDAO {
 	 */
 	public SequenceRange nextRange(String sequenceName, long minValue, long maxValue, int innerStep)
 			throws SequenceException {
+		return nextRanges(sequenceName, minValue, maxValue, innerStep, 1).get(0);
+	}
+
+	/**
+	 * 在随机选中的数据源上一次获取多轮sequence段，每轮占用该数据源的一个内步长，外步长保持innerStep*dataSourceNum不变
+	 * 
+	 * @param sequenceName sequence名称
+	 * @param rounds       获取的轮数，接近最大值时可能少于该值
+	 */
+	public List<SequenceRange> nextRanges(String sequenceName, long minValue, long maxValue, int innerStep,
+			int rounds) throws SequenceException {
 		if (isInitialize == false) {
 			throw new SequenceException("ERROR ## please init the MultipleSequenceDao first");
 		}
 		if (sequenceName == null || sequenceName.trim().length() == 0) {
 			throw new IllegalArgumentException("ERROR ## 序列表名称不能为空!");
 		}
-		for (int i = 0; i < retryTimes; i++) {
-			List<Integer> excludeIndexes = new ArrayList<Integer>(0);
-			for (int j = 0; j < dataSourceNum; j++) {
-				// 随机选库
-				int index = weightRandom.getRandomDataSourceIndex(excludeIndexes);
-				if (index == -1) {
-					break;
+		List<SequenceRange> sequenceRanges = pollSpareRanges(sequenceName, minValue, maxValue, innerStep, rounds);
+		if (sequenceRanges != null) {
+			return sequenceRanges;
+		}
+		long beginTime = System.nanoTime();
+		if (hedged) {
+			sequenceRanges = hedgedNextRanges(sequenceName, minValue, maxValue, innerStep, rounds);
+			if (sequenceRanges != null) {
+				retryPolicy.onSuccess(sequenceName, 0);
+				return sequenceRanges;
+			}
+		}
+		List<Integer> excludeIndexes = new ArrayList<Integer>(dataSourceNum);
+		for (int retries = 0;;) {
+			// 随机选库，所有数据源都被排除时按重试策略等待后重新开始一轮
+			int index = weightRandom.getRandomDataSourceIndex(excludeIndexes);
+			RetryCause cause;
+			if (index == -1) {
+				excludeIndexes.clear();
+				cause = RetryCause.UNAVAILABLE;
+			} else {
+				int excludeSize = excludeIndexes.size();
+				sequenceRanges = tryOnDataSource(index, sequenceName, minValue, maxValue, innerStep, rounds,
+						excludeIndexes);
+				if (sequenceRanges != null) {
+					retryPolicy.onSuccess(sequenceName, retries);
+					return sequenceRanges;
+				}
+				// 数据源没有被排除说明是乐观锁更新冲突
+				cause = excludeIndexes.size() == excludeSize ? RetryCause.CONFLICT : RetryCause.FAILURE;
+			}
+			retries++;
+			logger.warn("WARN ## 重试去取 sequenceRange，第" + retries + "次尝试!");
+			retryPolicy.backoff(sequenceName, cause, retries, beginTime,
+					"MultipleSequenceDao没有可用的数据源了,数据源个数dataSourceNum=" + this.dataSourceNum);
+		}
+	}
+
+	/**
+	 * 批量获取多个sequence的下一个段：在一个数据源上用一次查询和一次JDBC批量更新获取，适用于启动预热或者多个sequence同时用完的场景；
+	 * 记录不存在、更新冲突等批量没有获取到的sequence再逐个获取。每批最多BATCH_SIZE个sequence。
+	 *
+	 * @param requests 各sequence的参数，名称重复时只获取一次
+	 * @return key为sequence名称，value为获取到的段
+	 * @throws SequenceException
+	 */
+	public Map<String, SequenceRange> nextRanges(Collection<SequenceRequest> requests) throws SequenceException {
+		if (isInitialize == false) {
+			throw new SequenceException("ERROR ## please init the MultipleSequenceDao first");
+		}
+		Map<String, SequenceRange> result = new HashMap<String, SequenceRange>(requests.size() * 4 / 3 + 1);
+		Map<String, SequenceRequest> pending = new LinkedHashMap<String, SequenceRequest>();
+		for (SequenceRequest request : requests) {
+			if (request.getName() == null || request.getName().trim().length() == 0) {
+				throw new IllegalArgumentException("ERROR ## 序列表名称不能为空!");
+			}
+			// 对冲时保存的段直接使用
+			List<SequenceRange> spare = pollSpareRanges(request.getName(), request.getMinValue(),
+					request.getMaxValue(), request.getInnerStep(), 1);
+			if (spare != null) {
+				result.put(request.getName(), spare.get(0));
+			} else if (!result.containsKey(request.getName())) {
+				pending.put(request.getName(), request);
+			}
+		}
+		List<SequenceRequest> batch = new ArrayList<SequenceRequest>(Math.min(pending.size(), BATCH_SIZE));
+		for (SequenceRequest request : pending.values()) {
+			batch.add(request);
+			if (batch.size() == BATCH_SIZE) {
+				result.putAll(batchOnDataSource(batch));
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			result.putAll(batchOnDataSource(batch));
+		}
+		// 批量没有获取到的逐个获取
+		for (SequenceRequest request : pending.values()) {
+			if (!result.containsKey(request.getName())) {
+				result.put(request.getName(), nextRange(request.getName(), request.getMinValue(),
+						request.getMaxValue(), request.getInnerStep()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 在随机选中的数据源上批量获取一批sequence段，并反馈耗时
+	 */
+	private Map<String, SequenceRange> batchOnDataSource(List<SequenceRequest> batch) {
+		int index = weightRandom.getRandomDataSourceIndex(Collections.<Integer> emptyList());
+		if (index == -1) {
+			return Collections.emptyMap();
+		}
+		List<Integer> excludeIndexes = new ArrayList<Integer>(1);
+		long beginTime = System.nanoTime();
+		Map<String, SequenceRange> ranges = dataSourceList.get(index).batchAllocate(index, batch, dataSourceNum,
+				excludeIndexes);
+		long latency = System.nanoTime() - beginTime;
+		if (excludeIndexes.isEmpty()) {
+			weightRandom.onSuccess(index, latency);
+		} else {
+			weightRandom.onFailure(index, latency);
+			// 整批都没有在该数据源上获取到，按sequence分别记录
+			for (SequenceRequest request : batch) {
+				metrics.onExclude(request.getName(), index);
+			}
+		}
+		return ranges;
+	}
+
+	/**
+	 * 在指定的数据源上获取一次sequence段，并反馈耗时、统计运行指标
+	 *
+	 * @param index          数据源标号
+	 * @param excludeIndexes 记录单次内已经故障的数据源
+	 * @return sequence段，出错或者乐观锁更新冲突时返回null
+	 */
+	private List<SequenceRange> tryOnDataSource(int index, String sequenceName, long minValue, long maxValue,
+			int innerStep, int rounds, List<Integer> excludeIndexes) throws SequenceException {
+		SequenceDataSourceHolder dsHolder = dataSourceList.get(index);
+		int excludeSize = excludeIndexes.size();
+		long beginTime = System.nanoTime();
+		List<SequenceRange> sequenceRanges = dsHolder.tryOnSelectedDataSource(index, sequenceName, minValue,
+				maxValue, innerStep, innerStep * dataSourceNum, rounds, excludeIndexes);
+		long latency = System.nanoTime() - beginTime;
+
+		// 数据源被排除说明出错了，否则(包括乐观锁更新冲突)反馈耗时，用于调整各库的权重
+		boolean excluded = excludeIndexes.size() != excludeSize;
+		if (excluded) {
+			weightRandom.onFailure(index, latency);
+		} else {
+			weightRandom.onSuccess(index, latency);
+		}
+		if (sequenceRanges == null) {
+			// 数据源没有被排除说明是乐观锁更新冲突
+			if (!excluded) {
+				metrics.onCasConflict(sequenceName, index);
+			} else {
+				metrics.onExclude(sequenceName, index);
+			}
+			metrics.onRetry(sequenceName);
+		}
+		return sequenceRanges;
+	}
+
+	/**
+	 * 对冲获取：在选中的数据源上异步获取，超过对冲延迟没有返回时，同时在另一个数据源上获取，使用先返回的有效结果；
+	 * 较慢返回的结果保存起来供下次使用，不会浪费也不会重复。<br>
+	 * 两边都失败(或冲突)时返回null，由调用方按原来的方式逐个重试；对冲线程池已满时不对冲，同样返回null或等待第一个结果
+	 *
+	 * @return sequence段，失败时返回null
+	 */
+	private List<SequenceRange> hedgedNextRanges(String sequenceName, long minValue, long maxValue, int innerStep,
+			int rounds) {
+		int first = weightRandom.getRandomDataSourceIndex(Collections.<Integer> emptyList());
+		if (first == -1) {
+			return null;
+		}
+		CompletableFuture<List<SequenceRange>> firstFuture;
+		try {
+			firstFuture = tryOnDataSourceAsync(first, sequenceName, minValue, maxValue, innerStep, rounds);
+		} catch (RejectedExecutionException e) {
+			logger.warn("WARN ## the hedge executor is busy or destroyed, get the sequence range without hedging,sequenceName="
+					+ sequenceName);
+			return null;
+		}
+		long delayNanos = getHedgeDelayNanos();
+		try {
+			return firstFuture.get(delayNanos, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			// 超过对冲延迟没有返回，同时在另一个数据源上获取
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SequenceException("ERROR ## interrupted while getting the sequence range, sequenceName="
+					+ sequenceName, e);
+		} catch (ExecutionException e) {
+			// tryOnDataSourceAsync不会异常结束
+			throw new SequenceException("ERROR ## get the sequence range failed, sequenceName=" + sequenceName,
+					e.getCause());
+		}
+		int second = weightRandom.getRandomDataSourceIndex(Collections.singletonList(first));
+		if (second == -1) {
+			return firstFuture.join();
+		}
+		logger.warn("WARN ## 数据源" + first + "超过" + TimeUnit.NANOSECONDS.toMillis(delayNanos) + "ms没有返回，同时在数据源"
+				+ second + "上获取sequence段,sequenceName=" + sequenceName);
+		CompletableFuture<List<SequenceRange>> secondFuture;
+		try {
+			secondFuture = tryOnDataSourceAsync(second, sequenceName, minValue, maxValue, innerStep, rounds);
+		} catch (RejectedExecutionException e) {
+			logger.warn("WARN ## the hedge executor is busy or destroyed, wait for the first dataSource,sequenceName="
+					+ sequenceName);
+			return firstFuture.join();
+		}
+		CompletableFuture.anyOf(firstFuture, secondFuture).join();
+		CompletableFuture<List<SequenceRange>> winner = firstFuture.isDone() ? firstFuture : secondFuture;
+		CompletableFuture<List<SequenceRange>> loser = winner == firstFuture ? secondFuture : firstFuture;
+		List<SequenceRange> sequenceRanges = winner.join();
+		if (sequenceRanges == null) {
+			return loser.join();
+		}
+		keepSpareRanges(sequenceName, minValue, maxValue, innerStep, loser);
+		return sequenceRanges;
+	}
+
+	/**
+	 * 在对冲线程池里获取一次sequence段，异常时记录日志并返回null，由调用方重试时再抛出
+	 */
+	private CompletableFuture<List<SequenceRange>> tryOnDataSourceAsync(final int index, final String sequenceName,
+			final long minValue, final long maxValue, final int innerStep, final int rounds) {
+		return CompletableFuture.supplyAsync(new Supplier<List<SequenceRange>>() {
+			@Override
+			public List<SequenceRange> get() {
+				try {
+					return tryOnDataSource(index, sequenceName, minValue, maxValue, innerStep, rounds,
+							new ArrayList<Integer>(0));
+				} catch (RuntimeException e) {
+					logger.warn("WARN ## 对冲获取sequence段失败,db-index=" + index + ",sequenceName=" + sequenceName, e);
+					return null;
 				}
-				SequenceDataSourceHolder dsHolder = dataSourceList.get(index);
-				SequenceRange sequenceRange = null;
+			}
+		}, getHedgeExecutor());
+	}
+
+	/**
+	 * 较慢的一方返回后，将其sequence段连同获取时的最小值、最大值和步长保存起来供下次使用；
+	 * 已保存的段是按其他参数获取的(sequence已被修改)时直接替换
+	 */
+	private void keepSpareRanges(final String sequenceName, final long minValue, final long maxValue,
+			final int innerStep, CompletableFuture<List<SequenceRange>> loser) {
+		loser.thenAccept(new Consumer<List<SequenceRange>>() {
+			@Override
+			public void accept(List<SequenceRange> ranges) {
+				if (ranges == null) {
+					return;
+				}
+				SpareRanges spare = spareRanges.get(sequenceName);
+				while (spare == null || !spare.matches(minValue, maxValue, innerStep)) {
+					SpareRanges created = new SpareRanges(minValue, maxValue, innerStep);
+					if (spare == null ? spareRanges.putIfAbsent(sequenceName, created) == null
+							: spareRanges.replace(sequenceName, spare, created)) {
+						spare = created;
+					} else {
+						spare = spareRanges.get(sequenceName);
+					}
+				}
+				spare.ranges.addAll(ranges);
+			}
+		});
+	}
 
-				sequenceRange = dsHolder.tryOnSelectedDataSource(index, sequenceName, minValue, maxValue, innerStep,
-						innerStep * dataSourceNum, excludeIndexes);
+	/**
+	 * 取出对冲时保存的sequence段，最多rounds个；保存的段与本次的最小值、最大值或步长不一致时丢弃
+	 *
+	 * @return sequence段，没有时返回null
+	 */
+	private List<SequenceRange> pollSpareRanges(String sequenceName, long minValue, long maxValue, int innerStep,
+			int rounds) {
+		SpareRanges spare = spareRanges.get(sequenceName);
+		if (spare == null) {
+			return null;
+		}
+		if (!spare.matches(minValue, maxValue, innerStep)) {
+			if (spareRanges.remove(sequenceName, spare)) {
+				logger.warn("WARN ## the sequence is reconfigured, discard " + spare.ranges.size()
+						+ " spare ranges,sequenceName=" + sequenceName);
+			}
+			return null;
+		}
+		List<SequenceRange> ranges = null;
+		SequenceRange range;
+		while ((ranges == null || ranges.size() < rounds) && (range = spare.ranges.poll()) != null) {
+			if (ranges == null) {
+				ranges = new ArrayList<SequenceRange>(rounds);
+			}
+			ranges.add(range);
+		}
+		return ranges;
+	}
+
+	/**
+	 * 丢弃对冲时保存的sequence段，sequence的最小值、最大值或步长修改后调用
+	 *
+	 * @param sequenceName sequence名称
+	 */
+	public void clearSpareRanges(String sequenceName) {
+		spareRanges.remove(sequenceName);
+	}
+
+	/**
+	 * 对冲延迟：配置了hedgeDelayMillis时使用配置值，否则为各数据源最近耗时(移动平均)中最短的两倍，最少1ms；<br>
+	 * 以最快的数据源为基准，选中的数据源整体变慢(还没有被降权或熔断)时也能及时对冲
+	 */
+	private long getHedgeDelayNanos() {
+		if (hedgeDelayMillis > 0) {
+			return TimeUnit.MILLISECONDS.toNanos(hedgeDelayMillis);
+		}
+		long latency = weightRandom.getMinLatencyNanos();
+		if (latency <= 0) {
+			return TimeUnit.MILLISECONDS.toNanos(DEFAULT_HEDGE_DELAY_MILLIS);
+		}
+		return Math.max(TimeUnit.MILLISECONDS.toNanos(1), latency * 2);
+	}
 
-				if (sequenceRange == null) {
-					logger.warn("WARN ## 重试去取 sequenceRange，第" + (i + 1) + "次尝试!");
-					continue;
+	/**
+	 * 取得对冲线程池，第一次使用时创建，因此init之后才开启对冲也可以使用
+	 *
+	 * @throws RejectedExecutionException 已经destroy时抛出
+	 */
+	private ExecutorService getHedgeExecutor() {
+		ExecutorService executor = hedgeExecutor;
+		if (executor == null) {
+			synchronized (this) {
+				if (destroyed) {
+					throw new RejectedExecutionException("the MultipleSequenceDao is destroyed");
+				}
+				executor = hedgeExecutor;
+				if (executor == null) {
+					executor = newHedgeExecutor(hedgeThreads);
+					hedgeExecutor = executor;
 				}
-				return sequenceRange;
 			}
 		}
-		throw new SequenceException("MultipleSequenceDao没有可用的数据源了,数据源个数dataSourceNum=" + this.dataSourceNum
-				+ ",重试次数retryTimes=" + this.retryTimes);
+		return executor;
+	}
+
+	/**
+	 * 对冲线程池：按需创建守护线程，最多maxThreads个，空闲60s后回收；线程都在使用时拒绝，不排队
+	 */
+	private static ExecutorService newHedgeExecutor(int maxThreads) {
+		return new ThreadPoolExecutor(0, maxThreads, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+				new ThreadFactory() {
+
+					private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "sequence-hedge-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
 	}
 
 	/** 格式：select value from table_name(default:sequence) where name=? */
@@ -254,6 +743,43 @@ public class MultipleSequenceDAO {
 		return selectSeqRecordSql;
 	}
 
+	/** 格式：select name,value from table_name(default:sequence) where name in ( */
+	private String getBatchSelectSql() {
+		if (batchSelectSql == null) {
+			StringBuilder buffer = new StringBuilder();
+			buffer.append("select ").append(getNameColumnName()).append(",").append(getValueColumnName());
+			buffer.append(" from ").append(getTableName());
+			buffer.append(" where ").append(getNameColumnName()).append(" in (");
+			batchSelectSql = buffer.toString();
+		}
+		return batchSelectSql;
+	}
+
+	/** 格式：select value from table_name(default:sequence) where name=? for update */
+	private String getSelectForUpdateSql() {
+		if (selectForUpdateSql == null) {
+			selectForUpdateSql = getSelectSql() + " for update";
+		}
+		return selectForUpdateSql;
+	}
+
+	/**
+	 * 格式 update table_name(default：sequence) set value=value+? ,gmt_modified=?
+	 * where name=?
+	 */
+	private String getIncrementSql() {
+		if (incrementSql == null) {
+			StringBuilder buffer = new StringBuilder();
+			buffer.append("update ").append(getTableName());
+			buffer.append(" set ").append(getValueColumnName()).append(" = ");
+			buffer.append(getValueColumnName()).append(" + ?, ");
+			buffer.append(getGmtModifiedColumnName()).append(" = ? where ");
+			buffer.append(getNameColumnName()).append(" = ?");
+			incrementSql = buffer.toString();
+		}
+		return incrementSql;
+	}
+
 	/**
 	 * 格式 update table_name(default：sequence) set value=? ,gmt_modified=? where
 	 * name=? and value=?
@@ -301,6 +827,24 @@ public class MultipleSequenceDAO {
 		this.retryTimes = retryTimes;
 	}
 
+	/**
+	 * Getter method for property <tt>retryPolicy</tt>.
+	 *
+	 * @return property value of retryPolicy
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * Setter method for property <tt>retryPolicy</tt>，为null时使用按retryTimes创建的指数退避策略.
+	 *
+	 * @param retryPolicy value to be assigned to property retryPolicy
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
 	/**
 	 * Getter method for property <tt>retryTimes</tt>.
 	 *
@@ -352,6 +896,25 @@ public class MultipleSequenceDAO {
 		return selectAllRecordSql;
 	}
 
+	/**
+	 * 格式：select name,min_value,max_value,step,gmt_modified from
+	 * table_name(default:sequence) where gmt_modified > ?
+	 */
+	public String getSelectModifiedRecordSql() {
+		if (selectModifiedRecordSql == null) {
+			StringBuilder buffer = new StringBuilder();
+			buffer.append("select ").append(getNameColumnName()).append(",");
+			buffer.append(this.getMinValueColumnName()).append(",");
+			buffer.append(this.getMaxValueColumnName()).append(",");
+			buffer.append(this.getInnerStepColumnName()).append(",");
+			buffer.append(this.getGmtModifiedColumnName());
+			buffer.append(" from ").append(getTableName());
+			buffer.append(" where ").append(getGmtModifiedColumnName()).append(" > ?");
+			selectModifiedRecordSql = buffer.toString();
+		}
+		return selectModifiedRecordSql;
+	}
+
 	/**
 	 * Getter method for property <tt>tableName</tt>.
 	 *
@@ -517,4 +1080,234 @@ public class MultipleSequenceDAO {
 		this.innerStepColumnName = innerStepColumnName;
 	}
 
+	/**
+	 * Getter method for property <tt>allocateMode</tt>.
+	 *
+	 * @return property value of allocateMode
+	 */
+	public AllocateMode getAllocateMode() {
+		return allocateMode;
+	}
+
+	/**
+	 * Setter method for property <tt>allocateMode</tt>.
+	 *
+	 * @param allocateMode value to be assigned to property allocateMode
+	 */
+	public void setAllocateMode(AllocateMode allocateMode) {
+		this.allocateMode = allocateMode;
+	}
+
+	/**
+	 * Getter method for property <tt>metrics</tt>.
+	 *
+	 * @return property value of metrics
+	 */
+	public SequenceMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Setter method for property <tt>metrics</tt>，为null时不统计.
+	 *
+	 * @param metrics value to be assigned to property metrics
+	 */
+	public void setMetrics(SequenceMetrics metrics) {
+		this.metrics = metrics == null ? NoopSequenceMetrics.INSTANCE : metrics;
+	}
+
+	/**
+	 * 当前各数据源的选择权重，按最近获取sequence段的耗时和出错率计算，最大为1
+	 *
+	 * @return 权重，未初始化时返回null
+	 */
+	public double[] getDataSourceWeights() {
+		return weightRandom == null ? null : weightRandom.getWeights();
+	}
+
+	/**
+	 * Getter method for property <tt>slidingWindowSize</tt>.
+	 *
+	 * @return property value of slidingWindowSize
+	 */
+	public int getSlidingWindowSize() {
+		return slidingWindowSize;
+	}
+
+	/**
+	 * Setter method for property <tt>slidingWindowSize</tt>.
+	 *
+	 * @param slidingWindowSize value to be assigned to property slidingWindowSize
+	 */
+	public void setSlidingWindowSize(int slidingWindowSize) {
+		this.slidingWindowSize = slidingWindowSize;
+	}
+
+	/**
+	 * Getter method for property <tt>minimumNumberOfCalls</tt>.
+	 *
+	 * @return property value of minimumNumberOfCalls
+	 */
+	public int getMinimumNumberOfCalls() {
+		return minimumNumberOfCalls;
+	}
+
+	/**
+	 * Setter method for property <tt>minimumNumberOfCalls</tt>.
+	 *
+	 * @param minimumNumberOfCalls value to be assigned to property minimumNumberOfCalls
+	 */
+	public void setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+		this.minimumNumberOfCalls = minimumNumberOfCalls;
+	}
+
+	/**
+	 * Getter method for property <tt>failureRateThreshold</tt>.
+	 *
+	 * @return property value of failureRateThreshold
+	 */
+	public int getFailureRateThreshold() {
+		return failureRateThreshold;
+	}
+
+	/**
+	 * Setter method for property <tt>failureRateThreshold</tt>，百分比.
+	 *
+	 * @param failureRateThreshold value to be assigned to property failureRateThreshold
+	 */
+	public void setFailureRateThreshold(int failureRateThreshold) {
+		this.failureRateThreshold = failureRateThreshold;
+	}
+
+	/**
+	 * Getter method for property <tt>openStateMillis</tt>.
+	 *
+	 * @return property value of openStateMillis
+	 */
+	public long getOpenStateMillis() {
+		return openStateMillis;
+	}
+
+	/**
+	 * Setter method for property <tt>openStateMillis</tt>.
+	 *
+	 * @param openStateMillis value to be assigned to property openStateMillis
+	 */
+	public void setOpenStateMillis(long openStateMillis) {
+		this.openStateMillis = openStateMillis;
+	}
+
+	/**
+	 * Getter method for property <tt>hedged</tt>.
+	 *
+	 * @return property value of hedged
+	 */
+	public boolean isHedged() {
+		return hedged;
+	}
+
+	/**
+	 * Setter method for property <tt>hedged</tt>，init之后也可以修改.
+	 *
+	 * @param hedged value to be assigned to property hedged
+	 */
+	public void setHedged(boolean hedged) {
+		this.hedged = hedged;
+	}
+
+	/**
+	 * Getter method for property <tt>hedgeThreads</tt>.
+	 *
+	 * @return property value of hedgeThreads
+	 */
+	public int getHedgeThreads() {
+		return hedgeThreads;
+	}
+
+	/**
+	 * Setter method for property <tt>hedgeThreads</tt>，在第一次对冲之前设置.
+	 *
+	 * @param hedgeThreads value to be assigned to property hedgeThreads
+	 */
+	public void setHedgeThreads(int hedgeThreads) {
+		if (hedgeThreads <= 0) {
+			throw new IllegalArgumentException("ERROR ## the hedgeThreads must be greater than zero, hedgeThreads="
+					+ hedgeThreads);
+		}
+		this.hedgeThreads = hedgeThreads;
+	}
+
+	/**
+	 * Getter method for property <tt>hedgeDelayMillis</tt>.
+	 *
+	 * @return property value of hedgeDelayMillis
+	 */
+	public long getHedgeDelayMillis() {
+		return hedgeDelayMillis;
+	}
+
+	/**
+	 * Setter method for property <tt>hedgeDelayMillis</tt>，为0时按各数据源最近耗时中最短的两倍计算.
+	 *
+	 * @param hedgeDelayMillis value to be assigned to property hedgeDelayMillis
+	 */
+	public void setHedgeDelayMillis(long hedgeDelayMillis) {
+		this.hedgeDelayMillis = hedgeDelayMillis;
+	}
+
+	/**
+	 * Getter method for property <tt>dedicatedConnection</tt>.
+	 *
+	 * @return property value of dedicatedConnection
+	 */
+	public boolean isDedicatedConnection() {
+		return dedicatedConnection;
+	}
+
+	/**
+	 * Setter method for property <tt>dedicatedConnection</tt>，在init之前设置.
+	 *
+	 * @param dedicatedConnection value to be assigned to property dedicatedConnection
+	 */
+	public void setDedicatedConnection(boolean dedicatedConnection) {
+		this.dedicatedConnection = dedicatedConnection;
+	}
+
+	/**
+	 * Getter method for property <tt>connectionValidationMillis</tt>.
+	 *
+	 * @return property value of connectionValidationMillis
+	 */
+	public long getConnectionValidationMillis() {
+		return connectionValidationMillis;
+	}
+
+	/**
+	 * Setter method for property <tt>connectionValidationMillis</tt>.
+	 *
+	 * @param connectionValidationMillis value to be assigned to property connectionValidationMillis
+	 */
+	public void setConnectionValidationMillis(long connectionValidationMillis) {
+		this.connectionValidationMillis = connectionValidationMillis;
+	}
+
+	/**
+	 * 对冲时保存的sequence段及获取时的参数，参数不一致的段不能再使用
+	 */
+	private static class SpareRanges {
+		final long minValue;
+		final long maxValue;
+		final int innerStep;
+		final Queue<SequenceRange> ranges = new ConcurrentLinkedQueue<SequenceRange>();
+
+		SpareRanges(long minValue, long maxValue, int innerStep) {
+			this.minValue = minValue;
+			this.maxValue = maxValue;
+			this.innerStep = innerStep;
+		}
+
+		boolean matches(long minValue, long maxValue, int innerStep) {
+			return this.minValue == minValue && this.maxValue == maxValue && this.innerStep == innerStep;
+		}
+	}
 }
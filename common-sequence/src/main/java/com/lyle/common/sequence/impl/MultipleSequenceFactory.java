@@ -1,15 +1,25 @@
 package com.lyle.common.sequence.impl;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.lyle.common.sequence.SequenceConstants;
+import com.lyle.common.sequence.SequenceHandle;
+import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.SequenceRequest;
+import com.lyle.common.sequence.exception.SequenceException;
+import com.lyle.common.sequence.metrics.SequenceMetrics;
 
 /**
  * 根据数据库里的sequence记录来初始化成sequence的factory 利用sequence
@@ -20,7 +30,10 @@ public class MultipleSequenceFactory {
 
 	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
 
-	private final Lock lock = new ReentrantLock();
+	/**
+	 * 按sequence名称分段的初始化锁，不同sequence按需初始化时互不阻塞
+	 */
+	private final StripedLocks initLocks = new StripedLocks();
 	/**
 	 * 存放sequence，key为sequence名称，value为对应的MultipleSequence对象
 	 */
@@ -29,6 +42,78 @@ public class MultipleSequenceFactory {
 	 * 获取sequence的DAO对象，在所有的factory里共用同一个DAO
 	 */
 	private MultipleSequenceDAO multipleSequenceDAO;
+	/**
+	 * 是否开启sequence段异步预取，默认关闭
+	 */
+	private boolean prefetch = false;
+	/**
+	 * 预取阈值，为null时使用sequence的默认值
+	 */
+	private Double prefetchRatio;
+	/**
+	 * 预取线程池，为null时使用sequence的默认线程池
+	 */
+	private Executor prefetchExecutor;
+	/**
+	 * 是否根据消耗速度自适应调整每次获取的段长度，默认关闭
+	 */
+	private boolean adaptive = false;
+	/**
+	 * 自适应模式下期望的两次db获取间隔，单位毫秒，为null时使用sequence的默认值
+	 */
+	private Long adaptiveInterval;
+	/**
+	 * 自适应模式下每次获取的最小长度
+	 */
+	private int adaptiveMinStep;
+	/**
+	 * 自适应模式下每次获取的最大长度
+	 */
+	private int adaptiveMaxStep;
+	/**
+	 * sequence运行指标，为null时不统计
+	 */
+	private SequenceMetrics metrics;
+	/**
+	 * sequence段本地日志目录，为null时不记录
+	 */
+	private String journalDir;
+	/**
+	 * 每次推进日志高水位的值个数
+	 */
+	private int journalStep;
+	/**
+	 * 每次写日志后是否刷盘，默认刷盘，关闭后机器掉电时可能重复发放
+	 */
+	private boolean journalSync = true;
+	/**
+	 * 并行初始化的线程数，小于等于0时逐条串行初始化
+	 */
+	private int initThreads = 0;
+	/**
+	 * 是否延迟初始化：启动时不加载，第一次通过getNextValue使用某个sequence时才初始化
+	 */
+	private boolean lazyInit = false;
+	/**
+	 * 是否在初始化后批量预取各sequence的第一个段
+	 */
+	private boolean warmUp = false;
+	/**
+	 * 后台刷新sequence记录的间隔，单位毫秒，小于等于0时不刷新
+	 */
+	private long refreshInterval = 0;
+	/**
+	 * 刷新时水位回退的时间，容忍各服务器之间的时钟偏差，单位毫秒
+	 */
+	private long refreshLookback = SequenceRefresher.DEFAULT_LOOKBACK_MILLIS;
+	/**
+	 * 后台刷新sequence记录的任务
+	 */
+	private SequenceRefresher refresher;
+	/**
+	 * 已经告警过的被忽略的步长，key为sequence名称，只在刷新线程里访问
+	 */
+	private final Map<String, Integer> ignoredSteps = new HashMap<String, Integer>();
 
 	/**
 	 * 初始化multipleSequence的工厂
@@ -40,7 +125,99 @@ public class MultipleSequenceFactory {
 		if (multipleSequenceDAO == null) {
 			throw new IllegalArgumentException("The sequenceDao is null!");
 		}
-		initMultipleSequenceMap();
+		if (lazyInit) {
+			logger.warn("WARN ## the sequences will be initialized when first used");
+		} else {
+			initMultipleSequenceMap();
+			if (warmUp) {
+				warmUpSequences();
+			}
+		}
+		if (refreshInterval > 0) {
+			refresher = new SequenceRefresher(refreshInterval, refreshLookback) {
+				@Override
+				protected long refresh(long sinceMillis) throws Exception {
+					return refreshSequences(sinceMillis);
+				}
+			};
+			refresher.start();
+		}
+	}
+
+	/**
+	 * 停止后台刷新，销毁已加载的sequence以释放其本地日志
+	 */
+	public void destroy() {
+		if (refresher != null) {
+			refresher.stop();
+		}
+		for (MultipleSequence multipleSequence : multipleSequenceMap.values()) {
+			multipleSequence.destroy();
+		}
+	}
+
+	/**
+	 * 对比修改过的sequence记录：新增的sequence注册到工厂(延迟初始化时等第一次使用再加载)，
+	 * 已加载的sequence在下一次获取段时应用新的最小值和最大值。<br>
+	 * 多数据源下步长决定了各数据源的区间规律，运行中修改会和其他数据源已经发放的段重叠，因此不应用步长的变化
+	 *
+	 * @param sinceMillis 只处理修改时间晚于该时间的记录
+	 * @return 最大的修改时间
+	 * @throws Exception
+	 */
+	private long refreshSequences(long sinceMillis) throws Exception {
+		Map<String, Map<String, Object>> records = multipleSequenceDAO.getModifiedSequenceRecords(sinceMillis);
+		long maxModified = sinceMillis;
+		for (Map.Entry<String, Map<String, Object>> sequenceRecord : records.entrySet()) {
+			String seqName = sequenceRecord.getKey();
+			Map<String, Object> sequeceRecordvalue = sequenceRecord.getValue();
+			long min = (Long) sequeceRecordvalue.get(multipleSequenceDAO.getMinValueColumnName());
+			long max = (Long) sequeceRecordvalue.get(multipleSequenceDAO.getMaxValueColumnName());
+			int step = (Integer) sequeceRecordvalue.get(multipleSequenceDAO.getInnerStepColumnName());
+			long modified = (Long) sequeceRecordvalue.get(multipleSequenceDAO.getGmtModifiedColumnName());
+			maxModified = Math.max(maxModified, modified);
+
+			MultipleSequence multipleSequence = multipleSequenceMap.get(seqName);
+			if (multipleSequence == null) {
+				if (!lazyInit) {
+					registerMultipleSequence(seqName, min, max, step);
+				}
+				continue;
+			}
+			if (step != multipleSequence.getInnerStep()) {
+				Integer ignored = ignoredSteps.put(seqName, step);
+				if (ignored == null || ignored != step) {
+					logger.warn("WARN ## the step of multiple sequence can not be changed at runtime,sequenceName="
+							+ seqName + ",step=" + multipleSequence.getInnerStep() + ",newStep=" + step);
+				}
+			}
+			if (min != multipleSequence.getMinValue() || max != multipleSequence.getMaxValue()) {
+				multipleSequence.reconfigure(min, max, multipleSequence.getInnerStep());
+				multipleSequenceDAO.clearSpareRanges(seqName);
+			}
+		}
+		return maxModified;
+	}
+
+	/**
+	 * 注册刷新时发现的新sequence
+	 */
+	private void registerMultipleSequence(String seqName, long min, long max, int step) {
+		Lock lock = initLocks.get(seqName);
+		lock.lock();
+		try {
+			if (multipleSequenceMap.get(seqName) != null) {
+				return;
+			}
+			MultipleSequence multipleSequence = newMultipleSequence(seqName, min, max, step);
+			multipleSequence.init();
+			multipleSequenceMap.put(seqName, multipleSequence);
+			logger.warn("WARN ## register the new sequence, sequenceName=" + seqName);
+		} catch (Exception e) {
+			logger.error("ERROR ## init the sequenceName = " + seqName + " has an error:", e);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -48,6 +225,7 @@ public class MultipleSequenceFactory {
 	 */
 	private void initMultipleSequenceMap() {
 		Map<String, Map<String, Object>> sequenceRecords = null;
+		List<MultipleSequence> sequences = new ArrayList<MultipleSequence>();
 		// 获取全部的sequence记录
 		try {
 			sequenceRecords = multipleSequenceDAO.getAllSequenceNameRecord();
@@ -60,7 +238,11 @@ public class MultipleSequenceFactory {
 				long min = (Long) sequeceRecordvalue.get(multipleSequenceDAO.getMinValueColumnName());
 				long max = (Long) sequeceRecordvalue.get(multipleSequenceDAO.getMaxValueColumnName());
 				int step = (Integer) sequeceRecordvalue.get(multipleSequenceDAO.getInnerStepColumnName());
-				MultipleSequence multipleSequence = new MultipleSequence(multipleSequenceDAO, seqName, min, max, step);
+				MultipleSequence multipleSequence = newMultipleSequence(seqName, min, max, step);
+				if (initThreads > 0) {
+					sequences.add(multipleSequence);
+					continue;
+				}
 				try {
 					multipleSequence.init();
 					multipleSequenceMap.put(seqName, multipleSequence);
@@ -68,11 +250,57 @@ public class MultipleSequenceFactory {
 					logger.error("ERROR ## init the sequenceName = " + seqName + " has an error:", e);
 				}
 			}
+			if (!sequences.isEmpty()) {
+				initInParallel(sequences);
+			}
 		} catch (Exception e) {
 			logger.error("ERROR ## init the multiple-Sequence-Map failed!", e);
 		}
 	}
 
+	/**
+	 * 预热：通过批量接口一次获取所有sequence的第一个段，避免启动后各sequence第一次取值时逐个访问db；失败时不影响使用
+	 */
+	private void warmUpSequences() {
+		List<SequenceRequest> requests = new ArrayList<SequenceRequest>(multipleSequenceMap.size());
+		for (MultipleSequence multipleSequence : multipleSequenceMap.values()) {
+			requests.add(new SequenceRequest(multipleSequence.getSequenceName(), multipleSequence.getMinValue(),
+					multipleSequence.getMaxValue(), multipleSequence.getInnerStep()));
+		}
+		if (requests.isEmpty()) {
+			return;
+		}
+		long beginTime = System.currentTimeMillis();
+		try {
+			Map<String, SequenceRange> ranges = multipleSequenceDAO.nextRanges(requests);
+			for (Map.Entry<String, SequenceRange> entry : ranges.entrySet()) {
+				multipleSequenceMap.get(entry.getKey()).offerRange(entry.getValue());
+			}
+			logger.warn("WARN ## warm up " + ranges.size() + " sequences, cost "
+					+ (System.currentTimeMillis() - beginTime) + "ms");
+		} catch (Exception e) {
+			logger.error("ERROR ## warm up the sequences failed", e);
+		}
+	}
+
+	/**
+	 * 在有界线程池上批量初始化sequence记录，各数据源并行且每个数据源只查询一次；记录初始化失败的sequence不加载
+	 */
+	private void initInParallel(List<MultipleSequence> sequences) {
+		ExecutorService executor = SequenceRecordInitializer.newExecutor(initThreads);
+		try {
+			Set<String> failed = multipleSequenceDAO.initSequenceRecords(sequences, executor);
+			for (MultipleSequence multipleSequence : sequences) {
+				if (!failed.contains(multipleSequence.getSequenceName())) {
+					multipleSequence.initWithoutRecord();
+					multipleSequenceMap.put(multipleSequence.getSequenceName(), multipleSequence);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	/**
 	 * 根据sequence name初始化单条记录到multipleSequenceMap
 	 * 
@@ -93,7 +321,7 @@ public class MultipleSequenceFactory {
 				long min = (Long) sequeceRecordvalue.get(multipleSequenceDAO.getMinValueColumnName());
 				long max = (Long) sequeceRecordvalue.get(multipleSequenceDAO.getMaxValueColumnName());
 				int step = (Integer) sequeceRecordvalue.get(multipleSequenceDAO.getInnerStepColumnName());
-				MultipleSequence multipleSequence = new MultipleSequence(multipleSequenceDAO, seqName, min, max, step);
+				MultipleSequence multipleSequence = newMultipleSequence(seqName, min, max, step);
 				multipleSequence.init();
 				multipleSequenceMap.put(seqName, multipleSequence);
 			}
@@ -104,6 +332,29 @@ public class MultipleSequenceFactory {
 		}
 	}
 
+	/**
+	 * 根据配置生成MultipleSequence对象
+	 */
+	private MultipleSequence newMultipleSequence(String seqName, long min, long max, int step) {
+		MultipleSequence multipleSequence = new MultipleSequence(multipleSequenceDAO, seqName, min, max, step);
+		multipleSequence.setPrefetch(prefetch);
+		if (prefetchRatio != null) {
+			multipleSequence.setPrefetchRatio(prefetchRatio);
+		}
+		multipleSequence.setPrefetchExecutor(prefetchExecutor);
+		multipleSequence.setAdaptive(adaptive);
+		if (adaptiveInterval != null) {
+			multipleSequence.setAdaptiveInterval(adaptiveInterval);
+		}
+		multipleSequence.setAdaptiveMinStep(adaptiveMinStep);
+		multipleSequence.setAdaptiveMaxStep(adaptiveMaxStep);
+		multipleSequence.setMetrics(metrics);
+		multipleSequence.setJournalDir(journalDir);
+		multipleSequence.setJournalStep(journalStep);
+		multipleSequence.setJournalSync(journalSync);
+		return multipleSequence;
+	}
+
 	/**
 	 * 外部调用接口，根据sequence name 获取sequence value
 	 * 如果该sequence在multipleSequenceMap里不存在，则去db里查一下是否存在，
@@ -114,22 +365,46 @@ public class MultipleSequenceFactory {
 	 * @throws Exception
 	 */
 	public long getNextValue(String sequenceName) throws Exception {
+		return getMultipleSequence(sequenceName).nextValue();
+	}
+
+	/**
+	 * 外部调用接口，根据sequence name解析出sequence句柄，调用方持有句柄后直接取值，不再按名称查找；
+	 * 不存在时和getNextValue一样去db里加载
+	 *
+	 * @param sequenceName sequence名称
+	 * @return sequence句柄
+	 * @throws Exception
+	 */
+	public SequenceHandle getSequenceHandle(String sequenceName) throws Exception {
+		return new SequenceHandle(sequenceName, getMultipleSequence(sequenceName));
+	}
+
+	/**
+	 * 获取MultipleSequence对象，不存在时在该名称的分段锁内从db加载
+	 */
+	private MultipleSequence getMultipleSequence(String sequenceName) throws Exception {
 		if (StringUtils.isBlank(sequenceName)) {
 			throw new IllegalArgumentException("The sequence name can not be null!");
 		}
 		MultipleSequence multipleSequence = multipleSequenceMap.get(sequenceName);
 		if (multipleSequence != null) {
-			return multipleSequence.nextValue();
-		} else {
-			try {
-				lock.lock();
-				if (multipleSequenceMap.get(sequenceName) == null) {
-					initOneMultipleSequenceRecord(sequenceName);
-				}
-				return multipleSequenceMap.get(sequenceName).nextValue();
-			} finally {
-				lock.unlock();
+			return multipleSequence;
+		}
+		Lock lock = initLocks.get(sequenceName);
+		lock.lock();
+		try {
+			multipleSequence = multipleSequenceMap.get(sequenceName);
+			if (multipleSequence == null) {
+				initOneMultipleSequenceRecord(sequenceName);
+				multipleSequence = multipleSequenceMap.get(sequenceName);
+			}
+			if (multipleSequence == null) {
+				throw new SequenceException("ERROR ## can not find the sequence, sequenceName=" + sequenceName);
 			}
+			return multipleSequence;
+		} finally {
+			lock.unlock();
 		}
 	}
 
@@ -150,4 +425,148 @@ public class MultipleSequenceFactory {
 	public MultipleSequenceDAO getMultipleSequenceDAO() {
 		return multipleSequenceDAO;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Setter method for property <tt>prefetch</tt>.
+	 *
+	 * @param prefetch value to be assigned to property prefetch
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Setter method for property <tt>prefetchRatio</tt>.
+	 *
+	 * @param prefetchRatio value to be assigned to property prefetchRatio
+	 */
+	public void setPrefetchRatio(Double prefetchRatio) {
+		this.prefetchRatio = prefetchRatio;
+	}
+
+	/**
+	 * Setter method for property <tt>prefetchExecutor</tt>.
+	 *
+	 * @param prefetchExecutor value to be assigned to property prefetchExecutor
+	 */
+	public void setPrefetchExecutor(Executor prefetchExecutor) {
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptive</tt>.
+	 *
+	 * @param adaptive value to be assigned to property adaptive
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveInterval</tt>.
+	 *
+	 * @param adaptiveInterval value to be assigned to property adaptiveInterval
+	 */
+	public void setAdaptiveInterval(Long adaptiveInterval) {
+		this.adaptiveInterval = adaptiveInterval;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveMinStep</tt>.
+	 *
+	 * @param adaptiveMinStep value to be assigned to property adaptiveMinStep
+	 */
+	public void setAdaptiveMinStep(int adaptiveMinStep) {
+		this.adaptiveMinStep = adaptiveMinStep;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveMaxStep</tt>.
+	 *
+	 * @param adaptiveMaxStep value to be assigned to property adaptiveMaxStep
+	 */
+	public void setAdaptiveMaxStep(int adaptiveMaxStep) {
+		this.adaptiveMaxStep = adaptiveMaxStep;
+	}
+
+	/**
+	 * Setter method for property <tt>metrics</tt>.
+	 *
+	 * @param metrics value to be assigned to property metrics
+	 */
+	public void setMetrics(SequenceMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Setter method for property <tt>journalDir</tt>.
+	 *
+	 * @param journalDir value to be assigned to property journalDir
+	 */
+	public void setJournalDir(String journalDir) {
+		this.journalDir = journalDir;
+	}
+
+	/**
+	 * Setter method for property <tt>journalStep</tt>.
+	 *
+	 * @param journalStep value to be assigned to property journalStep
+	 */
+	public void setJournalStep(int journalStep) {
+		this.journalStep = journalStep;
+	}
+
+	/**
+	 * Setter method for property <tt>journalSync</tt>.
+	 *
+	 * @param journalSync value to be assigned to property journalSync
+	 */
+	public void setJournalSync(boolean journalSync) {
+		this.journalSync = journalSync;
+	}
+
+	/**
+	 * Setter method for property <tt>initThreads</tt>.
+	 *
+	 * @param initThreads value to be assigned to property initThreads
+	 */
+	public void setInitThreads(int initThreads) {
+		this.initThreads = initThreads;
+	}
+
+	/**
+	 * Setter method for property <tt>lazyInit</tt>.
+	 *
+	 * @param lazyInit value to be assigned to property lazyInit
+	 */
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInit = lazyInit;
+	}
+
+	/**
+	 * Setter method for property <tt>warmUp</tt>.
+	 *
+	 * @param warmUp value to be assigned to property warmUp
+	 */
+	public void setWarmUp(boolean warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	/**
+	 * Setter method for property <tt>refreshInterval</tt>，单位毫秒，小于等于0时不刷新.
+	 *
+	 * @param refreshInterval value to be assigned to property refreshInterval
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Setter method for property <tt>refreshLookback</tt>，单位毫秒.
+	 *
+	 * @param refreshLookback value to be assigned to property refreshLookback
+	 */
+	public void setRefreshLookback(long refreshLookback) {
+		this.refreshLookback = refreshLookback;
+	}
+}
@@ -0,0 +1,372 @@
+package com.lyle.common.sequence.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lyle.common.sequence.SequenceConstants;
+import com.lyle.common.sequence.SequenceRange;
+
+/**
+ * sequence段的本地日志：记录当前段以及已预留(可能已发放)的高水位，重启后从高水位继续使用该段剩余的部分。<br>
+ * 发放的值达到高水位前先推进高水位并写入日志(每次推进journalStep个)，所以日志里的高水位之前的值可能已发放，之后的值一定没有发放过；
+ * 重启时只从高水位开始恢复，最多浪费journalStep个值，不会重复发放。<br>
+ * 日志是一个内存映射的小文件，每个sequence一个；打开时加文件锁，防止多个进程共用同一个日志，sequence销毁时调用{@link #close()}释放；
+ * 内容带校验和，写到一半进程退出等导致校验失败时直接丢弃，改为从db获取。<br>
+ * 写日志(开启sync时包括刷盘)用ReentrantLock互斥而不是synchronized，等待的线程挂起而不是占住监视器。<br>
+ * 当前预留的值发放过半时，由后台线程提前把高水位再推进一个journalStep，取值线程只有在发放速度超过刷盘速度、
+ * 追上高水位时才会同步写日志。
+ */
+class RangeJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
+
+	private static final int MAGIC = 0x53514a4c;
+	private static final int VERSION = 1;
+	/** 记录的长度 */
+	private static final int RECORD_SIZE = 64;
+
+	private static final int MAGIC_OFFSET = 0;
+	private static final int VERSION_OFFSET = 4;
+	private static final int MIN_VALUE_OFFSET = 8;
+	private static final int MAX_VALUE_OFFSET = 16;
+	private static final int INNER_STEP_OFFSET = 24;
+	private static final int NAME_HASH_OFFSET = 28;
+	private static final int RANGE_MIN_OFFSET = 32;
+	private static final int RANGE_MAX_OFFSET = 40;
+	private static final int MARK_OFFSET = 48;
+	private static final int CHECKSUM_OFFSET = 56;
+
+	private final String sequenceName;
+	private final long minValue;
+	private final long maxValue;
+	private final int innerStep;
+	/** 每次推进高水位的值个数 */
+	private final int step;
+	/** 每次写入后是否刷盘，关闭时只能防止进程崩溃，不能防止机器掉电 */
+	private final boolean sync;
+
+	/** 提前推进高水位的线程池 */
+	private final Executor executor;
+	/** 是否已提交提前推进高水位的任务 */
+	private final AtomicBoolean advancing = new AtomicBoolean(false);
+
+	/** 持有文件和文件锁直到关闭 */
+	private final RandomAccessFile file;
+	private final FileLock fileLock;
+	private final MappedByteBuffer buffer;
+
+	/** 当前段以及其高水位 */
+	private volatile Reservation reservation;
+	/** 读写日志的互斥锁 */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** 是否已关闭，关闭后不再写日志 */
+	private boolean closed = false;
+
+	private RangeJournal(String sequenceName, long minValue, long maxValue, int innerStep, int step, boolean sync,
+			Executor executor, RandomAccessFile file, FileLock fileLock, MappedByteBuffer buffer) {
+		this.sequenceName = sequenceName;
+		this.minValue = minValue;
+		this.maxValue = maxValue;
+		this.innerStep = innerStep;
+		this.step = step;
+		this.sync = sync;
+		this.executor = executor;
+		this.file = file;
+		this.fileLock = fileLock;
+		this.buffer = buffer;
+	}
+
+	/**
+	 * 打开sequence的日志文件，文件被其他进程占用或打开失败时返回null，此时sequence不使用日志
+	 *
+	 * @param dir          日志目录
+	 * @param sequenceName sequence名称
+	 * @param step         每次推进高水位的值个数
+	 * @param sync         每次写入后是否刷盘
+	 * @param executor     提前推进高水位的线程池
+	 * @return 日志，失败时返回null
+	 */
+	static RangeJournal open(String dir, String sequenceName, long minValue, long maxValue, int innerStep, int step,
+			boolean sync, Executor executor) {
+		File journalFile = new File(dir, sequenceName.replaceAll("[^A-Za-z0-9._-]", "_") + ".journal");
+		RandomAccessFile file = null;
+		try {
+			File parent = journalFile.getParentFile();
+			if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+				throw new IOException("can not create directory " + parent);
+			}
+			file = new RandomAccessFile(journalFile, "rw");
+			FileLock fileLock;
+			try {
+				fileLock = file.getChannel().tryLock();
+			} catch (OverlappingFileLockException e) {
+				// 同一进程内已经打开，且之前的sequence没有销毁
+				logger.warn("WARN ## the sequence journal is opened by another sequence in this process, destroy it "
+						+ "before creating a new one, journal disabled,file=" + journalFile + ",sequenceName="
+						+ sequenceName);
+				file.close();
+				return null;
+			}
+			if (fileLock == null) {
+				logger.warn("WARN ## the sequence journal is used by another process, journal disabled,file="
+						+ journalFile + ",sequenceName=" + sequenceName);
+				file.close();
+				return null;
+			}
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, RECORD_SIZE);
+			return new RangeJournal(sequenceName, minValue, maxValue, innerStep, Math.max(1, step), sync, executor,
+					file, fileLock, buffer);
+		} catch (IOException e) {
+			logger.warn("WARN ## open the sequence journal failed, journal disabled,file=" + journalFile
+					+ ",sequenceName=" + sequenceName, e);
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException ignore) {
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * 读取上次记录的段，返回高水位到段尾的剩余部分；日志为空、校验失败或与当前配置不一致时返回null
+	 *
+	 * @return 可以继续使用的段
+	 */
+	SequenceRange recover() {
+		lock.lock();
+		try {
+			return doRecover();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private SequenceRange doRecover() {
+		if (buffer.getInt(MAGIC_OFFSET) != MAGIC) {
+			return null;
+		}
+		long rangeMin = buffer.getLong(RANGE_MIN_OFFSET);
+		long rangeMax = buffer.getLong(RANGE_MAX_OFFSET);
+		long mark = buffer.getLong(MARK_OFFSET);
+		if (buffer.getInt(VERSION_OFFSET) != VERSION || buffer.getLong(CHECKSUM_OFFSET) != checksum()) {
+			logger.warn("WARN ## the sequence journal is broken, ignore it,sequenceName=" + sequenceName);
+			return null;
+		}
+		if (buffer.getLong(MIN_VALUE_OFFSET) != minValue || buffer.getLong(MAX_VALUE_OFFSET) != maxValue
+				|| buffer.getInt(INNER_STEP_OFFSET) != innerStep
+				|| buffer.getInt(NAME_HASH_OFFSET) != sequenceName.hashCode()) {
+			logger.warn("WARN ## the sequence journal does not match the sequence config, ignore it,sequenceName="
+					+ sequenceName);
+			return null;
+		}
+		if (rangeMin < minValue || rangeMax > maxValue || mark < rangeMin || mark > rangeMax) {
+			// 段已用完或记录不合法
+			return null;
+		}
+		logger.warn("WARN ## recover the sequence range from journal,sequenceName=" + sequenceName + ",range=["
+				+ mark + "," + rangeMax + "]");
+		return new SequenceRange(mark, rangeMax);
+	}
+
+	/**
+	 * 切换到新的段，在段对取值线程可见之前调用，先预留第一批值
+	 *
+	 * @param range 新的段
+	 */
+	void start(SequenceRange range) {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			long mark = nextMark(range, range.getMin());
+			write(range, mark);
+			reservation = newReservation(range, mark);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 发放value之前确认其已被日志预留，没有时推进高水位；预留的值发放过半时提交后台任务提前推进
+	 *
+	 * @param range 值所在的段
+	 * @param value 将要发放的最大值
+	 */
+	void reserve(SequenceRange range, long value) {
+		Reservation current = reservation;
+		if (current != null && current.range == range && value < current.mark) {
+			if (value >= current.advanceAt) {
+				advanceAhead(current);
+			}
+			return;
+		}
+		reserveSlow(range, value);
+	}
+
+	/**
+	 * value是否已被日志预留，为false时发放前需要写日志
+	 *
+	 * @param range 值所在的段
+	 * @param value 将要发放的最大值
+	 * @return 是否已预留
+	 */
+	boolean isReserved(SequenceRange range, long value) {
+		Reservation current = reservation;
+		return current != null && current.range == range && value < current.mark;
+	}
+
+	private void reserveSlow(SequenceRange range, long value) {
+		lock.lock();
+		try {
+			Reservation current = reservation;
+			// 已经不是日志里的段(或日志已关闭)，重启后不会再使用，无需预留
+			if (closed || current == null || current.range != range || value < current.mark) {
+				return;
+			}
+			long mark = nextMark(range, value);
+			write(range, mark);
+			reservation = newReservation(range, mark);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 在后台把高水位再推进一个step，已有任务在执行时不重复提交；线程池拒绝时不推进，追上高水位时再同步写日志
+	 *
+	 * @param expected 提交时的预留，执行时已被替换则不再推进
+	 */
+	private void advanceAhead(final Reservation expected) {
+		if (!advancing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						advance(expected);
+					} finally {
+						advancing.set(false);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			advancing.set(false);
+			logger.warn("WARN ## 提前推进日志高水位的任务被拒绝,sequenceName=" + sequenceName, e);
+		}
+	}
+
+	private void advance(Reservation expected) {
+		lock.lock();
+		try {
+			if (closed || reservation != expected) {
+				return;
+			}
+			long mark = nextMark(expected.range, expected.mark);
+			write(expected.range, mark);
+			reservation = newReservation(expected.range, mark);
+		} catch (RuntimeException e) {
+			logger.warn("WARN ## 提前推进日志高水位失败,sequenceName=" + sequenceName, e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 释放文件锁并关闭文件，之后同一进程内可以重新打开该日志；关闭后不再写日志，重复调用无影响
+	 */
+	void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			reservation = null;
+			try {
+				fileLock.release();
+			} catch (IOException e) {
+				logger.warn("WARN ## release the sequence journal lock failed,sequenceName=" + sequenceName, e);
+			}
+			try {
+				file.close();
+			} catch (IOException e) {
+				logger.warn("WARN ## close the sequence journal failed,sequenceName=" + sequenceName, e);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 预留到mark，发放到距mark半个step时开始提前推进；段已全部预留时不再推进
+	 */
+	private Reservation newReservation(SequenceRange range, long mark) {
+		long advanceAt = mark > range.getMax() ? Long.MAX_VALUE : mark - Math.max(1, step / 2);
+		return new Reservation(range, mark, advanceAt);
+	}
+
+	private long nextMark(SequenceRange range, long value) {
+		return value + step > range.getMax() ? range.getMax() + 1 : value + step;
+	}
+
+	private void write(SequenceRange range, long mark) {
+		// 最后写校验和；中途退出时校验和不一致，恢复时会丢弃
+		buffer.putInt(MAGIC_OFFSET, MAGIC);
+		buffer.putInt(VERSION_OFFSET, VERSION);
+		buffer.putLong(MIN_VALUE_OFFSET, minValue);
+		buffer.putLong(MAX_VALUE_OFFSET, maxValue);
+		buffer.putInt(INNER_STEP_OFFSET, innerStep);
+		buffer.putInt(NAME_HASH_OFFSET, sequenceName.hashCode());
+		buffer.putLong(RANGE_MIN_OFFSET, range.getMin());
+		buffer.putLong(RANGE_MAX_OFFSET, range.getMax());
+		buffer.putLong(MARK_OFFSET, mark);
+		buffer.putLong(CHECKSUM_OFFSET, checksum());
+		if (sync) {
+			buffer.force();
+		}
+	}
+
+	private long checksum() {
+		long h = MAGIC;
+		h = 31 * h + buffer.getInt(VERSION_OFFSET);
+		h = 31 * h + buffer.getLong(MIN_VALUE_OFFSET);
+		h = 31 * h + buffer.getLong(MAX_VALUE_OFFSET);
+		h = 31 * h + buffer.getInt(INNER_STEP_OFFSET);
+		h = 31 * h + buffer.getInt(NAME_HASH_OFFSET);
+		h = 31 * h + buffer.getLong(RANGE_MIN_OFFSET);
+		h = 31 * h + buffer.getLong(RANGE_MAX_OFFSET);
+		h = 31 * h + buffer.getLong(MARK_OFFSET);
+		return h ^ (h >>> 29);
+	}
+
+	/**
+	 * 日志里的段和高水位，高水位及之后的值没有发放过；发放到advanceAt时提前推进高水位
+	 */
+	private static class Reservation {
+		private final SequenceRange range;
+		private final long mark;
+		private final long advanceAt;
+
+		Reservation(SequenceRange range, long mark, long advanceAt) {
+			this.range = range;
+			this.mark = mark;
+			this.advanceAt = advanceAt;
+		}
+	}
+}
@@ -1,15 +1,16 @@
 package com.lyle.common.sequence.impl;
 
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
 
 import javax.sql.DataSource;
 
@@ -18,6 +19,7 @@ import org.slf4j.LoggerFactory;
 
 import com.lyle.common.sequence.SequenceConstants;
 import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.SequenceRequest;
 import com.lyle.common.sequence.exception.SequenceException;
 
 /**
@@ -27,45 +29,15 @@ public class SequenceDataSourceHolder {
 
 	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
 
-	/**
-	 * 数据源是否可用，默认可用
-	 */
-	private volatile boolean isAvailable = true;
-
 	/**
 	 * 真正的数据源
 	 */
 	private final DataSource ds;
 
 	/**
-	 * 非阻塞锁，用于控制只允许一个业务线程去重试；
-	 */
-	private final ReentrantLock lock = new ReentrantLock();
-	/**
-	 * 上次重试时间
-	 */
-	private volatile long lastRetryTime = 0;
-	/**
-	 * 异常次数
-	 */
-	private volatile int exceptionTimes = 0;
-	/**
-	 * 第一次捕获异常的时间，单位毫秒
-	 */
-	private volatile long firstExceptionTime = 0;
-	/**
-	 * 重试故障db的时间间隔，默认值设为30s,单位毫秒
-	 */
-	private final int retryBadDbInterval = 30000;
-
-	/**
-	 * 单位时间段，默认为5分钟，用于统计时间段内某个db抛异常的次数，单位毫秒
+	 * 熔断器，数据源出错率过高时跳过该数据源，并只允许一个业务线程去探测
 	 */
-	private final int timeInterval = 300000;
-	/**
-	 * 单位时间内允许异常的次数，如果超过这个值便将数据源置为不可用
-	 */
-	private final int allowExceptionTimes = 20;
+	private final DataSourceCircuitBreaker circuitBreaker = new DataSourceCircuitBreaker();
 
 	/**
 	 * sequence表名，默认为sequence
@@ -92,6 +64,37 @@ public class SequenceDataSourceHolder {
 	 */
 	private String insertSql;
 
+	/**
+	 * 分配sequence段的方式，默认为乐观锁方式
+	 */
+	private AllocateMode allocateMode = AllocateMode.CAS;
+	/**
+	 * AUTO方式下根据数据库类型解析出的实际分配方式
+	 */
+	private volatile AllocateMode resolvedMode;
+	/**
+	 * 格式：select value from sequence where name=? for update
+	 */
+	private String selectForUpdateSql;
+	/**
+	 * 格式：update table_name(default:sequence) set value=value+? ,gmt_modified=? where name=?
+	 */
+	private String incrementSql;
+	/**
+	 * 格式：update table_name(default:sequence) set value=value+? ,gmt_modified=? where name=? returning value
+	 */
+	private String returningSql;
+	/**
+	 * 批量查询的sql前缀，后面拼接参数占位符和右括号<br>
+	 * 格式：select name,value from sequence where name in (
+	 */
+	private String batchSelectSql;
+
+	/**
+	 * 专用连接，为null时获取sequence段都从连接池获取连接
+	 */
+	private volatile DedicatedConnection dedicatedConnection;
+
 	/**
 	 * 设置常用的参数
 	 * 
@@ -109,6 +112,56 @@ public class SequenceDataSourceHolder {
 		this.adjust = adjust;
 	}
 
+	/**
+	 * 设置分配sequence段的方式及其使用的sql
+	 *
+	 * @param allocateMode       分配方式
+	 * @param selectForUpdateSql 加行锁的select语句
+	 * @param incrementSql       原子自增的update语句
+	 * @param returningSql       带returning的原子自增语句
+	 */
+	public void setAllocateParameters(AllocateMode allocateMode, String selectForUpdateSql, String incrementSql,
+			String returningSql) {
+		this.allocateMode = allocateMode == null ? AllocateMode.CAS : allocateMode;
+		this.selectForUpdateSql = selectForUpdateSql;
+		this.incrementSql = incrementSql;
+		this.returningSql = returningSql;
+	}
+
+	/**
+	 * 设置批量获取sequence段使用的sql
+	 *
+	 * @param batchSelectSql 批量查询的sql前缀，格式：select name,value from sequence where name in (
+	 */
+	public void setBatchParameters(String batchSelectSql) {
+		this.batchSelectSql = batchSelectSql;
+	}
+
+	/**
+	 * 设置获取sequence段使用的连接，在DAO初始化时调用
+	 *
+	 * @param dedicated        是否在该数据源上长期持有一个专用连接，热点sequence获取段时优先使用
+	 * @param validationMillis 专用连接空闲超过该时间后使用前先校验，单位毫秒
+	 */
+	public void setConnectionParameters(boolean dedicated, long validationMillis) {
+		DedicatedConnection old = dedicatedConnection;
+		dedicatedConnection = dedicated ? new DedicatedConnection(ds, validationMillis) : null;
+		if (old != null) {
+			old.close();
+		}
+	}
+
+	/**
+	 * 关闭专用连接
+	 */
+	public void close() {
+		DedicatedConnection dedicated = dedicatedConnection;
+		dedicatedConnection = null;
+		if (dedicated != null) {
+			dedicated.close();
+		}
+	}
+
 	/**
 	 * 构造函数
 	 * 
@@ -122,6 +175,10 @@ public class SequenceDataSourceHolder {
 		return ds;
 	}
 
+	public DataSourceCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
 	/**
 	 * 在随机选择的数据源上获取sequence段
 	 *
@@ -131,22 +188,33 @@ public class SequenceDataSourceHolder {
 	 * @param maxValue       最大值
 	 * @param innerStep      内步长
 	 * @param outStep        外步长
+	 * @param rounds         本次获取的轮数，每轮在该数据源上占用一个内步长
 	 * @param excludeIndexes 记录单次内已经故障的数据源
 	 * @return 可用的sequence段
 	 * @throws SequenceException
 	 */
-	public SequenceRange tryOnSelectedDataSource(int index, String sequenceName, long minValue, long maxValue,
-			int innerStep, int outStep, List<Integer> excludeIndexes) throws SequenceException {
-		if (isAvailable) {
-			return tryOnAvailableDataSource(index, sequenceName, minValue, maxValue, innerStep, outStep,
-					excludeIndexes);
+	public List<SequenceRange> tryOnSelectedDataSource(int index, String sequenceName, long minValue, long maxValue,
+			int innerStep, int outStep, int rounds, List<Integer> excludeIndexes) throws SequenceException {
+		if (circuitBreaker.isClosed()) {
+			int excludeSize = excludeIndexes.size();
+			List<SequenceRange> sequenceRanges = tryOnAvailableDataSource(index, sequenceName, minValue, maxValue,
+					innerStep, outStep, rounds, excludeIndexes);
+			// 数据源被排除说明访问出错，否则(包括乐观锁更新冲突)数据源是正常的
+			if (excludeIndexes.size() != excludeSize) {
+				circuitBreaker.onFailure(index);
+			} else {
+				circuitBreaker.onSuccess();
+			}
+			return sequenceRanges;
 		} else {
-			return tryOnFailedDataSource(index, sequenceName, minValue, maxValue, innerStep, outStep, excludeIndexes);
+			return tryOnFailedDataSource(index, sequenceName, minValue, maxValue, innerStep, outStep, rounds,
+					excludeIndexes);
 		}
 	}
 
 	/**
-	 * 在可用的数据源上获取sequence段，如果发生异常，则进行统计
+	 * 在可用的数据源上获取sequence段，如果发生异常，则进行统计；<br>
+	 * 按分配方式选择乐观锁(CAS)或者单连接事务(FOR_UPDATE/INCREMENT/RETURNING)的方式
 	 * 
 	 * @param index          数据源序列号
 	 * @param sequenceName   sequence名称
@@ -154,94 +222,53 @@ public class SequenceDataSourceHolder {
 	 * @param maxValue       最大值
 	 * @param innerStep      内步长
 	 * @param outStep        外步长
+	 * @param rounds         本次获取的轮数，每轮在该数据源上占用一个内步长
 	 * @param excludeIndexes 记录单次内已经故障的数据源
-	 * @return sequence段
+	 * @return sequence段，多轮时按顺序返回每一段
 	 * @throws SequenceException
 	 */
-	public SequenceRange tryOnAvailableDataSource(int index, String sequenceName, long minValue, long maxValue,
-			int innerStep, int outStep, List<Integer> excludeIndexes) throws SequenceException {
+	public List<SequenceRange> tryOnAvailableDataSource(int index, String sequenceName, long minValue, long maxValue,
+			int innerStep, int outStep, int rounds, List<Integer> excludeIndexes) throws SequenceException {
+		if (allocateMode == null || allocateMode == AllocateMode.CAS) {
+			return allocateByCas(index, sequenceName, minValue, maxValue, innerStep, outStep, rounds, excludeIndexes);
+		}
+		return allocateInTransaction(index, sequenceName, minValue, maxValue, innerStep, outStep, rounds,
+				excludeIndexes);
+	}
+
+	/**
+	 * 乐观锁方式获取sequence段：先查询当前值，再以当前值为版本号更新，并发冲突时返回null由调用方重试
+	 */
+	private List<SequenceRange> allocateByCas(int index, String sequenceName, long minValue, long maxValue,
+			int innerStep, int outStep, int rounds, List<Integer> excludeIndexes) throws SequenceException {
 
-		long adjustValue = -1; // 调整后的值
 		long oldValue = -1; // 旧值，每次从db里取出来的上一次更新后的值,用于 乐观锁的 version字段
 		long newValue = -1; // 新值，即将更新到db的值
-		long beginValue = -1; // 此次即将返回的sequenceRange的起始值
-		long endValue = -1; // 此次即将返回的sequenceRange的结束值
+		DedicatedConnection dedicated = dedicatedConnection;
 		Connection con = null;
 		PreparedStatement stmt = null;
 		ResultSet rs = null;
-		// 查询一条记录
+		boolean broken = false;
+		// 查询和更新使用同一个连接
 		try {
-			con = ds.getConnection();
-			stmt = con.prepareStatement(selectSql);
+			con = getConnection(dedicated);
+			// 查询一条记录
+			stmt = prepareStatement(dedicated, con, selectSql);
 			stmt.setString(1, sequenceName);
 			rs = stmt.executeQuery();
 			if (!rs.next()) {
 				throw new SequenceException("No sequence record in the table:" + tableName + ",please initialize it!");
 			}
 			oldValue = rs.getLong(1);
+			Allocation allocation = allocate(index, sequenceName, oldValue, minValue, maxValue, innerStep, outStep,
+					rounds);
+			newValue = allocation.newValue;
+			closeStatement(dedicated, con, rs, stmt);
+			rs = null;
+			stmt = null;
 
-			if (oldValue < 0 || oldValue > maxValue || oldValue < minValue) {
-				StringBuilder message = new StringBuilder();
-				message.append("Sequence value set error, currentValue = " + oldValue + ",minValue=" + minValue
-						+ ",maxValue=" + maxValue);
-				message.append(", please check table: ").append(tableName);
-				throw new SequenceException(message.toString());
-			}
-
-			adjustValue = getAjustValue(index, oldValue, minValue, maxValue, innerStep, outStep, sequenceName, false);
-
-			beginValue = adjustValue;
-			if (beginValue >= maxValue) {
-				beginValue = getAjustValue(index, minValue, minValue, maxValue, innerStep, outStep, sequenceName, true);
-			}
-			// 计算本次sequence段的结束值
-			endValue = beginValue + innerStep;
-			if (endValue > maxValue) {
-				endValue = maxValue;
-			} else {
-				endValue = endValue - 1;
-			}
-			// 验证sequence段的起始值
-			if (beginValue > endValue) {
-				throw new SequenceException(
-						"SEQUENCE-VALUE-ERROR:beginValue=" + beginValue + " is larg than endValue=" + endValue);
-			}
-
-			newValue = beginValue + outStep;
-			// 如果新值超出了最大值，则从新开始计数
-			if (newValue > maxValue) {
-				newValue = getAjustValue(index, minValue, minValue, maxValue, innerStep, outStep, sequenceName, true);
-			}
-		} catch (SQLException e) {
-			logger.warn(
-					"WARN ## 取sequence范围过程中出错,db-index=" + index + ",oldValue=" + oldValue + ",newValue=" + newValue,
-					e);
-			calculateExceptionTimes(index);
-			excludeIndexes.add(index);
-			return null;
-		} finally {
-			try {
-				if (rs != null) {
-					rs.close();
-					rs = null;
-				}
-				if (stmt != null) {
-					stmt.close();
-					stmt = null;
-				}
-				if (con != null) {
-					con.close();
-					con = null;
-				}
-			} catch (Exception e) {
-				logger.error("ERROR ## close resources has an error", e);
-			}
-		}
-
-		// 更新该记录
-		try {
-			con = ds.getConnection();
-			stmt = con.prepareStatement(updateSql);
+			// 更新该记录
+			stmt = prepareStatement(dedicated, con, updateSql);
 			stmt.setLong(1, newValue);
 			long gmt_modified = System.currentTimeMillis();
 			stmt.setTimestamp(2, new Timestamp(gmt_modified));
@@ -258,27 +285,455 @@ public class SequenceDataSourceHolder {
 			logger.warn(
 					"WARN ## Update the sequence of " + index + " th dataSource to " + newValue + " from " + oldValue);
 
-			return new SequenceRange(beginValue, endValue);
+			return buildRanges(allocation.beginValue, allocation.endValue, innerStep, outStep, allocation.rounds);
 		} catch (SQLException e) {
-			logger.warn("WARN ## 更新sequence过程中出错,index=" + index + ",oldValue=" + oldValue + ",newValue=" + newValue,
+			broken = true;
+			logger.warn(
+					"WARN ## 取sequence范围过程中出错,db-index=" + index + ",oldValue=" + oldValue + ",newValue=" + newValue,
 					e);
-			calculateExceptionTimes(index);
 			excludeIndexes.add(index);
 			return null;
 		} finally {
-			try {
-				if (stmt != null) {
-					stmt.close();
-					stmt = null;
+			closeStatement(dedicated, con, rs, stmt);
+			releaseConnection(dedicated, con, broken);
+		}
+	}
+
+	/**
+	 * 单连接事务方式获取sequence段：INCREMENT/RETURNING先原子自增，结果需要调整或循环时回滚并退回行锁方式；<br>
+	 * 整个过程只获取一次连接，且不会产生乐观锁冲突
+	 */
+	private List<SequenceRange> allocateInTransaction(int index, String sequenceName, long minValue, long maxValue,
+			int innerStep, int outStep, int rounds, List<Integer> excludeIndexes) throws SequenceException {
+		DedicatedConnection dedicated = dedicatedConnection;
+		Connection con = null;
+		boolean autoCommit = true;
+		boolean broken = false;
+		try {
+			con = getConnection(dedicated);
+			autoCommit = con.getAutoCommit();
+			con.setAutoCommit(false);
+
+			AllocateMode mode = resolveAllocateMode(con);
+			Allocation allocation = null;
+			if (mode == AllocateMode.INCREMENT || mode == AllocateMode.RETURNING) {
+				allocation = allocateByIncrement(dedicated, con, mode == AllocateMode.RETURNING, index, sequenceName,
+						minValue, maxValue, innerStep, outStep, rounds);
+				if (allocation == null) {
+					con.rollback();
 				}
-				if (con != null) {
-					con.close();
-					con = null;
+			}
+			if (allocation == null) {
+				allocation = allocateForUpdate(dedicated, con, index, sequenceName, minValue, maxValue, innerStep,
+						outStep, rounds);
+			}
+			con.commit();
+			logger.warn("WARN ## Update the sequence of " + index + " th dataSource to " + allocation.newValue
+					+ " from " + allocation.oldValue);
+
+			return buildRanges(allocation.beginValue, allocation.endValue, innerStep, outStep, allocation.rounds);
+		} catch (SQLException e) {
+			broken = true;
+			rollbackQuietly(con);
+			logger.warn("WARN ## 事务方式获取sequence范围过程中出错,db-index=" + index + ",allocateMode=" + allocateMode, e);
+			excludeIndexes.add(index);
+			return null;
+		} catch (RuntimeException e) {
+			rollbackQuietly(con);
+			throw e;
+		} finally {
+			if (con != null) {
+				try {
+					con.setAutoCommit(autoCommit);
+				} catch (SQLException e) {
+					broken = true;
+					logger.error("ERROR ## restore autoCommit has an error", e);
 				}
-			} catch (Exception e) {
-				logger.error("ERROR ## close resources has an error", e);
+			}
+			releaseConnection(dedicated, con, broken);
+		}
+	}
+
+	/**
+	 * 在一个数据源上批量获取多个sequence的段：一次select ... where name in (...)查询当前值，
+	 * 再把乐观锁更新作为一个JDBC批量执行，共两次交互，而不是每个sequence各自查询和更新。<br>
+	 * 记录不存在、值不合法、更新冲突或者驱动没有返回更新行数的sequence不在结果里，由调用方逐个获取；
+	 * 熔断打开时不访问数据源，直接返回空结果。
+	 *
+	 * @param index          数据源序列号
+	 * @param requests       各sequence的参数，名称不能重复
+	 * @param dataSourceNum  数据源个数，外步长为内步长*数据源个数
+	 * @param excludeIndexes 访问出错时记录该数据源
+	 * @return key为sequence名称，value为获取到的段
+	 */
+	public Map<String, SequenceRange> batchAllocate(int index, List<SequenceRequest> requests, int dataSourceNum,
+			List<Integer> excludeIndexes) {
+		Map<String, SequenceRange> result = new HashMap<String, SequenceRange>();
+		if (requests.isEmpty() || !circuitBreaker.isClosed()) {
+			return result;
+		}
+		DedicatedConnection dedicated = dedicatedConnection;
+		Connection con = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		boolean broken = false;
+		try {
+			con = getConnection(dedicated);
+			// 一次查询所有sequence的当前值；参数个数随批量大小变化，不在专用连接上缓存该语句
+			StringBuilder sql = new StringBuilder(batchSelectSql.length() + requests.size() * 2 + 1);
+			sql.append(batchSelectSql);
+			for (int i = 0; i < requests.size(); i++) {
+				sql.append(i == 0 ? "?" : ",?");
+			}
+			sql.append(")");
+			stmt = con.prepareStatement(sql.toString());
+			for (int i = 0; i < requests.size(); i++) {
+				stmt.setString(i + 1, requests.get(i).getName());
+			}
+			rs = stmt.executeQuery();
+			Map<String, Long> oldValues = new HashMap<String, Long>();
+			while (rs.next()) {
+				oldValues.put(rs.getString(1).trim(), rs.getLong(2));
+			}
+			closeQuietly(rs, stmt, null);
+			rs = null;
+			stmt = null;
+
+			// 计算各sequence的新值，不合法的留给调用方逐个处理
+			List<SequenceRequest> updated = new ArrayList<SequenceRequest>(requests.size());
+			List<Allocation> allocations = new ArrayList<Allocation>(requests.size());
+			for (SequenceRequest request : requests) {
+				Long oldValue = oldValues.get(request.getName());
+				if (oldValue == null) {
+					continue;
+				}
+				try {
+					allocations.add(allocate(index, request.getName(), oldValue, request.getMinValue(),
+							request.getMaxValue(), request.getInnerStep(), request.getInnerStep() * dataSourceNum, 1));
+					updated.add(request);
+				} catch (SequenceException e) {
+					logger.warn("WARN ## 批量获取sequence段时跳过,sequenceName=" + request.getName() + ",db-index=" + index
+							+ ",reason=" + e.getMessage());
+				}
+			}
+			if (updated.isEmpty()) {
+				circuitBreaker.onSuccess();
+				return result;
+			}
+
+			// 乐观锁更新作为一个批量执行
+			stmt = prepareStatement(dedicated, con, updateSql);
+			Timestamp gmtModified = new Timestamp(System.currentTimeMillis());
+			for (int i = 0; i < updated.size(); i++) {
+				Allocation allocation = allocations.get(i);
+				stmt.setLong(1, allocation.newValue);
+				stmt.setTimestamp(2, gmtModified);
+				stmt.setString(3, updated.get(i).getName());
+				stmt.setLong(4, allocation.oldValue);
+				stmt.addBatch();
+			}
+			int[] affectedRows = stmt.executeBatch();
+			for (int i = 0; i < updated.size(); i++) {
+				String sequenceName = updated.get(i).getName();
+				// 只有确认更新了一行才能使用该段；SUCCESS_NO_INFO无法区分是否冲突，放弃该段
+				if (i < affectedRows.length && affectedRows[i] == 1) {
+					Allocation allocation = allocations.get(i);
+					result.put(sequenceName, new SequenceRange(allocation.beginValue, allocation.endValue));
+				} else {
+					logger.warn("WARN ## 批量更新sequence记录失败,sequenceName=" + sequenceName + ",affectedRows="
+							+ (i < affectedRows.length ? affectedRows[i] : "none"));
+				}
+			}
+			logger.warn("WARN ## Batch update " + result.size() + "/" + requests.size() + " sequences of " + index
+					+ " th dataSource");
+			circuitBreaker.onSuccess();
+			return result;
+		} catch (SQLException e) {
+			// 批量执行部分成功时已更新的段也不再使用，只会跳过一些值，不会重复；出错的专用连接连同其语句一起关闭
+			broken = true;
+			logger.warn("WARN ## 批量获取sequence段过程中出错,db-index=" + index + ",batchUpdate="
+					+ (e instanceof BatchUpdateException), e);
+			circuitBreaker.onFailure(index);
+			excludeIndexes.add(index);
+			return new HashMap<String, SequenceRange>();
+		} finally {
+			closeStatement(dedicated, con, rs, stmt);
+			releaseConnection(dedicated, con, broken);
+		}
+	}
+
+	/**
+	 * 原子自增：update value=value+rounds*outStep后读取新值，反推出旧值；<br>
+	 * 旧值不符合该db的区间规律、或本次各轮超出最大值时返回null，由调用方回滚后改用行锁方式调整或循环
+	 */
+	private Allocation allocateByIncrement(DedicatedConnection dedicated, Connection con, boolean returning, int index,
+			String sequenceName, long minValue, long maxValue, int innerStep, int outStep, int rounds)
+			throws SQLException {
+		long delta = (long) rounds * outStep;
+		long newValue;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = prepareStatement(dedicated, con, returning ? returningSql : incrementSql);
+			stmt.setLong(1, delta);
+			stmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+			stmt.setString(3, sequenceName);
+			if (returning) {
+				rs = stmt.executeQuery();
+			} else {
+				if (stmt.executeUpdate() == 0) {
+					throw new SequenceException(
+							"No sequence record in the table:" + tableName + ",please initialize it!");
+				}
+				closeStatement(dedicated, con, null, stmt);
+				stmt = prepareStatement(dedicated, con, selectSql);
+				stmt.setString(1, sequenceName);
+				rs = stmt.executeQuery();
+			}
+			if (!rs.next()) {
+				throw new SequenceException("No sequence record in the table:" + tableName + ",please initialize it!");
+			}
+			newValue = rs.getLong(1);
+		} finally {
+			closeStatement(dedicated, con, rs, stmt);
+		}
+
+		long oldValue = newValue - delta;
+		if (oldValue < minValue || newValue > maxValue || !check(index, oldValue, innerStep, outStep)) {
+			return null;
+		}
+		Allocation allocation = new Allocation();
+		allocation.oldValue = oldValue;
+		allocation.newValue = newValue;
+		allocation.beginValue = oldValue;
+		allocation.endValue = oldValue + innerStep - 1;
+		allocation.rounds = rounds;
+		return allocation;
+	}
+
+	/**
+	 * 行锁方式：select ... for update锁住记录，计算后在同一事务内更新
+	 */
+	private Allocation allocateForUpdate(DedicatedConnection dedicated, Connection con, int index,
+			String sequenceName, long minValue, long maxValue, int innerStep, int outStep, int rounds)
+			throws SQLException {
+		Allocation allocation;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = prepareStatement(dedicated, con, selectForUpdateSql);
+			stmt.setString(1, sequenceName);
+			rs = stmt.executeQuery();
+			if (!rs.next()) {
+				throw new SequenceException("No sequence record in the table:" + tableName + ",please initialize it!");
+			}
+			allocation = allocate(index, sequenceName, rs.getLong(1), minValue, maxValue, innerStep, outStep, rounds);
+		} finally {
+			closeStatement(dedicated, con, rs, stmt);
+		}
+
+		stmt = null;
+		try {
+			stmt = prepareStatement(dedicated, con, updateSql);
+			stmt.setLong(1, allocation.newValue);
+			stmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+			stmt.setString(3, sequenceName);
+			stmt.setLong(4, allocation.oldValue);
+			if (stmt.executeUpdate() == 0) {
+				// 已持有行锁仍更新失败，说明数据库不支持for update，按异常处理
+				throw new SQLException("sequence record changed while locked, oldValue=" + allocation.oldValue);
+			}
+		} finally {
+			closeStatement(dedicated, con, null, stmt);
+		}
+		return allocation;
+	}
+
+	/**
+	 * 根据db里的当前值计算本次sequence段以及要写回db的新值
+	 *
+	 * @param oldValue db里的当前值
+	 * @return 计算结果
+	 * @throws SequenceException 当前值不合法或无法调整时
+	 */
+	private Allocation allocate(int index, String sequenceName, long oldValue, long minValue, long maxValue,
+			int innerStep, int outStep, int rounds) throws SequenceException {
+		if (oldValue < 0 || oldValue > maxValue || oldValue < minValue) {
+			StringBuilder message = new StringBuilder();
+			message.append("Sequence value set error, currentValue = " + oldValue + ",minValue=" + minValue
+					+ ",maxValue=" + maxValue);
+			message.append(", please check table: ").append(tableName);
+			throw new SequenceException(message.toString());
+		}
+
+		long beginValue = getAjustValue(index, oldValue, minValue, maxValue, innerStep, outStep, sequenceName, false);
+		if (beginValue >= maxValue) {
+			beginValue = getAjustValue(index, minValue, minValue, maxValue, innerStep, outStep, sequenceName, true);
+		}
+		// 计算本次sequence段的结束值
+		long endValue = beginValue + innerStep;
+		if (endValue > maxValue) {
+			endValue = maxValue;
+		} else {
+			endValue = endValue - 1;
+		}
+		// 验证sequence段的起始值
+		if (beginValue > endValue) {
+			throw new SequenceException(
+					"SEQUENCE-VALUE-ERROR:beginValue=" + beginValue + " is larg than endValue=" + endValue);
+		}
+
+		// 多轮获取时，只取完整落在最大值以内的轮次
+		int takenRounds = 1;
+		while (takenRounds < rounds && beginValue + (long) takenRounds * outStep + innerStep - 1 <= maxValue) {
+			takenRounds++;
+		}
+
+		long newValue = beginValue + (long) takenRounds * outStep;
+		// 如果新值超出了最大值，则从新开始计数
+		if (newValue > maxValue) {
+			newValue = getAjustValue(index, minValue, minValue, maxValue, innerStep, outStep, sequenceName, true);
+		}
+
+		Allocation allocation = new Allocation();
+		allocation.oldValue = oldValue;
+		allocation.newValue = newValue;
+		allocation.beginValue = beginValue;
+		allocation.endValue = endValue;
+		allocation.rounds = takenRounds;
+		return allocation;
+	}
+
+	/**
+	 * 解析实际使用的分配方式，AUTO时根据数据库类型确定并缓存
+	 */
+	private AllocateMode resolveAllocateMode(Connection con) throws SQLException {
+		if (allocateMode != AllocateMode.AUTO) {
+			return allocateMode;
+		}
+		AllocateMode mode = resolvedMode;
+		if (mode == null) {
+			String product = con.getMetaData().getDatabaseProductName();
+			mode = product != null && product.toLowerCase().contains("postgresql") ? AllocateMode.RETURNING
+					: AllocateMode.INCREMENT;
+			resolvedMode = mode;
+			logger.warn("WARN ## sequence allocate mode resolved to " + mode + ",database=" + product);
+		}
+		return mode;
+	}
+
+	/**
+	 * 获取分配sequence段用的连接：优先使用空闲的专用连接，否则从连接池获取
+	 */
+	private Connection getConnection(DedicatedConnection dedicated) throws SQLException {
+		if (dedicated != null) {
+			Connection con = dedicated.tryAcquire();
+			if (con != null) {
+				return con;
+			}
+		}
+		return ds.getConnection();
+	}
+
+	/**
+	 * 专用连接上使用缓存的预编译语句，连接池的连接上每次prepare，由连接池或驱动决定是否缓存
+	 */
+	private PreparedStatement prepareStatement(DedicatedConnection dedicated, Connection con, String sql)
+			throws SQLException {
+		if (dedicated != null && dedicated.isHeldBy(con)) {
+			return dedicated.prepareStatement(sql);
+		}
+		return con.prepareStatement(sql);
+	}
+
+	/**
+	 * 关闭结果集，缓存在专用连接上的语句不关闭
+	 */
+	private void closeStatement(DedicatedConnection dedicated, Connection con, ResultSet rs, Statement stmt) {
+		closeQuietly(rs, dedicated != null && dedicated.isHeldBy(con) ? null : stmt, null);
+	}
+
+	/**
+	 * 释放专用连接或者把连接还给连接池
+	 *
+	 * @param broken 使用中是否出错，出错的专用连接会被关闭
+	 */
+	private void releaseConnection(DedicatedConnection dedicated, Connection con, boolean broken) {
+		if (dedicated != null && dedicated.isHeldBy(con)) {
+			dedicated.release(broken);
+		} else {
+			closeQuietly(null, null, con);
+		}
+	}
+
+	private void rollbackQuietly(Connection con) {
+		if (con == null) {
+			return;
+		}
+		try {
+			con.rollback();
+		} catch (SQLException e) {
+			logger.error("ERROR ## rollback has an error", e);
+		}
+	}
+
+	private void closeQuietly(ResultSet rs, Statement stmt, Connection con) {
+		try {
+			if (rs != null) {
+				rs.close();
+			}
+			if (stmt != null) {
+				stmt.close();
+			}
+			if (con != null) {
+				con.close();
+			}
+		} catch (Exception e) {
+			logger.error("ERROR ## close resources has an error", e);
+		}
+	}
+
+	/**
+	 * 一次sequence段分配的计算结果
+	 */
+	private static class Allocation {
+		/** db里的旧值 */
+		long oldValue;
+		/** 写回db的新值 */
+		long newValue;
+		/** 第一轮的起始值 */
+		long beginValue;
+		/** 第一轮的结束值 */
+		long endValue;
+		/** 实际获取的轮数 */
+		int rounds;
+	}
+
+	/**
+	 * 根据起始值和轮数生成sequence段，第i轮的起始值为beginValue+i*outStep；<br>
+	 * 内外步长相同(单数据源)时各轮首尾相连，合并为一段返回
+	 *
+	 * @param beginValue 第一轮的起始值
+	 * @param endValue   第一轮的结束值
+	 * @param innerStep  内步长
+	 * @param outStep    外步长
+	 * @param rounds     轮数
+	 * @return sequence段
+	 */
+	private List<SequenceRange> buildRanges(long beginValue, long endValue, int innerStep, int outStep, int rounds) {
+		List<SequenceRange> ranges = new ArrayList<SequenceRange>(rounds);
+		if (rounds == 1) {
+			ranges.add(new SequenceRange(beginValue, endValue));
+		} else if (innerStep == outStep) {
+			ranges.add(new SequenceRange(beginValue, beginValue + (long) rounds * innerStep - 1));
+		} else {
+			ranges.add(new SequenceRange(beginValue, endValue));
+			for (int i = 1; i < rounds; i++) {
+				long roundBegin = beginValue + (long) i * outStep;
+				ranges.add(new SequenceRange(roundBegin, roundBegin + innerStep - 1));
 			}
 		}
+		return ranges;
 	}
 
 	/**
@@ -412,6 +867,74 @@ public class SequenceDataSourceHolder {
 		return records;
 	}
 
+	/**
+	 * 一次查询出当前db里所有sequence记录的当前值，用于批量检查记录是否存在
+	 *
+	 * @param selectSql   select name,value,... from sequence
+	 * @param nameColumn  sequence名称列名
+	 * @param valueColumn sequence值列名
+	 * @return key为sequence名称，value为当前值
+	 * @throws SQLException
+	 */
+	public Map<String, Long> getAllSequenceValues(String selectSql, String nameColumn, String valueColumn)
+			throws SQLException {
+		Map<String, Long> values = new HashMap<String, Long>();
+		Connection con = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			con = ds.getConnection();
+			stmt = con.prepareStatement(selectSql);
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				values.put(rs.getString(nameColumn).trim(), rs.getLong(valueColumn));
+			}
+		} finally {
+			closeQuietly(rs, stmt, con);
+		}
+		return values;
+	}
+
+	/**
+	 * 查询修改时间晚于指定时间的sequence记录，用于后台刷新时只对比有变化的记录
+	 *
+	 * @param selectSql           select name,min_value,max_value,step,gmt_modified from sequence where gmt_modified > ?
+	 * @param sinceMillis         只查询修改时间晚于该时间的记录，单位毫秒
+	 * @param nameColumn          sequence名称列名
+	 * @param minValueColumnName  最小值
+	 * @param maxValueColumnName  最大值
+	 * @param innerStepColumnName 内步长
+	 * @param gmtModifiedColumn   修改时间列名，内层map里该key的值为毫秒数
+	 * @return 外层key标识sequence名字，内层key表示最小、最大值、步长以及修改时间
+	 * @throws SQLException
+	 */
+	public Map<String, Map<String, Object>> getModifiedSequenceRecords(String selectSql, long sinceMillis,
+			String nameColumn, String minValueColumnName, String maxValueColumnName, String innerStepColumnName,
+			String gmtModifiedColumn) throws SQLException {
+		Map<String, Map<String, Object>> records = new HashMap<String, Map<String, Object>>();
+		Connection con = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		try {
+			con = ds.getConnection();
+			stmt = con.prepareStatement(selectSql);
+			stmt.setTimestamp(1, new Timestamp(sinceMillis));
+			rs = stmt.executeQuery();
+			while (rs.next()) {
+				Timestamp gmtModified = rs.getTimestamp(gmtModifiedColumn);
+				Map<String, Object> keyAndValue = new HashMap<String, Object>(8);
+				keyAndValue.put(minValueColumnName, rs.getLong(minValueColumnName));
+				keyAndValue.put(maxValueColumnName, rs.getLong(maxValueColumnName));
+				keyAndValue.put(innerStepColumnName, rs.getInt(innerStepColumnName));
+				keyAndValue.put(gmtModifiedColumn, gmtModified == null ? sinceMillis : gmtModified.getTime());
+				records.put(rs.getString(nameColumn).trim(), keyAndValue);
+			}
+		} finally {
+			closeQuietly(rs, stmt, con);
+		}
+		return records;
+	}
+
 	/**
 	 * 根据sequenceName 获取当前db里的指定sequence记录的各字段值
 	 *
@@ -516,8 +1039,9 @@ public class SequenceDataSourceHolder {
 	}
 
 	/**
-	 * 在故障的数据源上进行单线程重试，每隔2s允许一个业务单线程进入重试状态, 如果访问成功则标记该数据源为可用，否则去寻找其他可用数据源。<br>
-	 * 采用的是非阻塞锁实现的并发控制。
+	 * 在熔断的数据源上进行单线程探测，熔断打开一段时间后只允许一个业务线程进入探测状态，
+	 * 如果访问成功则关闭熔断，否则重新打开熔断，并去寻找其他可用数据源。<br>
+	 * 熔断器的状态转换是无锁的。
 	 *
 	 * @param index          数据源标号
 	 * @param sequenceName   sequence名称
@@ -525,69 +1049,37 @@ public class SequenceDataSourceHolder {
 	 * @param maxValue       最大值
 	 * @param innerStep      内步长
 	 * @param outStep        外步长
+	 * @param rounds         本次获取的轮数
 	 * @param excludeIndexes 单次查询db排除掉的故障数据源标识集合
 	 * @return
 	 */
-	public SequenceRange tryOnFailedDataSource(int index, String sequenceName, long minValue, long maxValue,
-			int innerStep, int outStep, List<Integer> excludeIndexes) {
-
-		boolean isTry = System.currentTimeMillis() - lastRetryTime > retryBadDbInterval;
-		// 符合2s的时间间隔，并且能拿到非阻塞锁的时候开始进入单线程重试状态
-		if (isTry && lock.tryLock()) {
-			try {
-				boolean isSussessful = tryToConnectDataBase(index);
-				if (!isSussessful) {
-					excludeIndexes.add(index);
-					return null;
-				}
-				this.isAvailable = true;
-				exceptionTimes = 0;
-				return tryOnAvailableDataSource(index, sequenceName, maxValue, minValue, outStep, innerStep,
-						excludeIndexes);
-			} catch (SequenceException e) {
-				logger.warn(
-						"WARN ## 单线程" + Thread.currentThread().getName() + "尝试故障数据源" + index + "时失败，现在去寻找其他可用的数据源！");
+	public List<SequenceRange> tryOnFailedDataSource(int index, String sequenceName, long minValue, long maxValue,
+			int innerStep, int outStep, int rounds, List<Integer> excludeIndexes) {
+		if (!circuitBreaker.tryAcquireProbe()) {
+			excludeIndexes.add(index);
+			return null;
+		}
+		boolean isSussessful = false;
+		try {
+			if (!tryToConnectDataBase(index)) {
 				excludeIndexes.add(index);
 				return null;
-			} finally {
-				lastRetryTime = System.currentTimeMillis();
-				lock.unlock();
 			}
-		} else {
+			int excludeSize = excludeIndexes.size();
+			List<SequenceRange> sequenceRanges = tryOnAvailableDataSource(index, sequenceName, minValue, maxValue,
+					innerStep, outStep, rounds, excludeIndexes);
+			isSussessful = excludeIndexes.size() == excludeSize;
+			return sequenceRanges;
+		} catch (SequenceException e) {
+			logger.warn("WARN ## 单线程" + Thread.currentThread().getName() + "尝试故障数据源" + index + "时失败，现在去寻找其他可用的数据源！");
 			excludeIndexes.add(index);
 			return null;
-		}
-	}
-
-	/**
-	 * 统计异常次数，分为以下几种情况：<br>
-	 * (1)如果数据源已经不可用了，则直接抛异常，不再统计； (2)如果当前时间和第一次异常时间未超过指定的时间间隔阈值，则异常次数累计加1,否则重新清零计数；
-	 * (3)如果加1后异常次数超过允许异常次数，则报异常；<br>
-	 *
-	 * @param index 数据源标号
-	 */
-	private synchronized void calculateExceptionTimes(int index) {
-		if (!isAvailable) {
-			logger.warn("WARN ## 数据源" + index + " 已经不可用了，不用再统计异常次数了！");
-			return;
-		}
-		if (exceptionTimes == 0) {
-			firstExceptionTime = System.currentTimeMillis();
-		}
-		long currentTime = System.currentTimeMillis();
-		// 小于指定时间间隔则累加异常次数，如果异常次数超过某个阈值就将该数据源置为不可用；否则清零重新计数
-		if (currentTime - this.firstExceptionTime <= timeInterval) {
-			++exceptionTimes;
-			logger.warn("WARN ## 数据源" + index + "单位时间内第" + exceptionTimes + "次异常，当前时间："
-					+ getCurrentDateTime(currentTime) + "，首次异常时间：" + getCurrentDateTime(firstExceptionTime) + "，时间间隔为："
-					+ (currentTime - firstExceptionTime) + "ms.");
-			if (exceptionTimes >= allowExceptionTimes) {
-				this.isAvailable = false;
-				logger.warn("WARN ## 数据源" + index + "在时间" + getCurrentDateTime(null) + "被踢出");
+		} finally {
+			if (isSussessful) {
+				circuitBreaker.onProbeSuccess(index);
+			} else {
+				circuitBreaker.onProbeFailure(index);
 			}
-		} else {
-			logger.warn("WARN ## 统计异常次数超过单位时间间隔,上次单位时间间隔内异常次数为" + exceptionTimes + "次,现在开始重新计数！");
-			this.exceptionTimes = 0;
 		}
 	}
 
@@ -789,25 +1281,8 @@ public class SequenceDataSourceHolder {
 	 * @param outStep   外步长
 	 * @return 是否合法
 	 */
-	private boolean check(int index, long value, int innerStep, int outStep) {
+	boolean check(int index, long value, int innerStep, int outStep) {
 		return (value % outStep) == (index * innerStep);
 	}
 
-	/**
-	 * 获取当前的时间的格式化字符串
-	 *
-	 * @param time
-	 * @return
-	 */
-	private String getCurrentDateTime(Long time) {
-		java.util.Date now;
-		if (time != null) {
-			now = new java.util.Date(time);
-		} else {
-			now = new java.util.Date();
-		}
-		java.text.SimpleDateFormat format = new java.text.SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-		return format.format(now);
-	}
-
 }
@@ -1,14 +1,22 @@
 package com.lyle.common.sequence.impl;
 
-import com.lyle.common.lang.util.StringUtils;
 import com.lyle.common.sequence.Sequence;
+import com.lyle.common.sequence.SequenceHandle;
+import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.SequenceRequest;
+import com.lyle.common.sequence.metrics.SequenceMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
-import java.util.Calendar;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Lock;
 
 /**
  * Sequence工厂实现类
@@ -22,6 +30,53 @@ public class SequenceFactory {
 	/** Sequence MAP */
 	private Map<String, Sequence> sequenceMap = new ConcurrentHashMap<String, Sequence>(0);
 
+	/** 按sequence名称分段的延迟初始化锁，不同sequence初始化时互不阻塞 */
+	private final StripedLocks initLocks = new StripedLocks();
+
+	/** 序号格式化，缓存当天的日期前缀 */
+	private final SequenceFormatter formatter = new SequenceFormatter();
+
+	/** 是否开启sequence段异步预取，默认关闭 */
+	private boolean prefetch = false;
+	/** 预取阈值，为null时使用sequence的默认值 */
+	private Double prefetchRatio;
+	/** 预取线程池，为null时使用sequence的默认线程池 */
+	private Executor prefetchExecutor;
+	/** 是否根据消耗速度自适应调整每次获取的段长度，默认关闭 */
+	private boolean adaptive = false;
+	/** 自适应模式下期望的两次db获取间隔，单位毫秒，为null时使用sequence的默认值 */
+	private Long adaptiveInterval;
+	/** 自适应模式下每次获取的最小长度 */
+	private int adaptiveMinStep;
+	/** 自适应模式下每次获取的最大长度 */
+	private int adaptiveMaxStep;
+	/** sequence运行指标，为null时不统计 */
+	private SequenceMetrics metrics;
+	/** sequence段本地日志目录，为null时不记录 */
+	private String journalDir;
+	/** 每次推进日志高水位的值个数 */
+	private int journalStep;
+	/** 每次写日志后是否刷盘，默认刷盘，关闭后机器掉电时可能重复发放 */
+	private boolean journalSync = true;
+	/** 并行初始化的线程数，小于等于0时逐条串行初始化 */
+	private int initThreads = 0;
+	/** 是否延迟初始化：启动时不加载，第一次使用某个sequence时才初始化 */
+	private boolean lazyInit = false;
+	/** 是否在初始化后批量预取各sequence的第一个段 */
+	private boolean warmUp = false;
+	/** 直接配置的sequence，如不依赖db的SnowflakeSequence，同名时优先于db里的记录 */
+	private Map<String, Sequence> sequences;
+	/** 后台刷新sequence记录的间隔，单位毫秒，小于等于0时不刷新 */
+	private long refreshInterval = 0;
+	/** 刷新时水位回退的时间，容忍各服务器之间的时钟偏差，单位毫秒 */
+	private long refreshLookback = SequenceRefresher.DEFAULT_LOOKBACK_MILLIS;
+	/** 后台刷新sequence记录的任务 */
+	private SequenceRefresher refresher;
+
+	public SequenceFactory() {
+
+	}
+
 	/**
 	 * 构造函数
 	 * 
@@ -37,10 +92,108 @@ public class SequenceFactory {
 	 * @throws Exception
 	 */
 	public void init() throws SQLException {
-		if (sequenceDAO == null) {
+		if (sequenceDAO == null && (sequences == null || sequences.isEmpty())) {
 			throw new IllegalArgumentException("The sequenceDao is null!");
 		}
-		initAllSequence();
+		if (sequenceDAO != null && !lazyInit) {
+			initAllSequence();
+			if (warmUp) {
+				warmUpSequences();
+			}
+		}
+		if (sequences != null) {
+			for (Map.Entry<String, Sequence> entry : sequences.entrySet()) {
+				if (sequenceMap.put(entry.getKey(), entry.getValue()) != null) {
+					logger.warn("WARN ## the sequenceName = " + entry.getKey() + " is overridden by "
+							+ entry.getValue().getClass().getSimpleName());
+				}
+			}
+		}
+		if (sequenceDAO != null && refreshInterval > 0) {
+			refresher = new SequenceRefresher(refreshInterval, refreshLookback) {
+				@Override
+				protected long refresh(long sinceMillis) throws Exception {
+					return refreshSequences(sinceMillis);
+				}
+			};
+			refresher.start();
+		}
+	}
+
+	/**
+	 * 停止后台刷新，销毁工厂创建的sequence以释放其本地日志；直接配置的sequence由配置方负责销毁
+	 */
+	public void destroy() {
+		if (refresher != null) {
+			refresher.stop();
+		}
+		for (Map.Entry<String, Sequence> entry : sequenceMap.entrySet()) {
+			if (entry.getValue() instanceof AbstractSequence
+					&& (sequences == null || sequences.get(entry.getKey()) != entry.getValue())) {
+				((AbstractSequence) entry.getValue()).destroy();
+			}
+		}
+	}
+
+	/**
+	 * 对比修改过的sequence记录：新增的sequence注册到工厂(延迟初始化时等第一次使用再加载)，
+	 * 已加载的sequence在下一次获取段时应用新的最小值、最大值和步长；直接配置的同名sequence不受影响
+	 *
+	 * @param sinceMillis 只处理修改时间晚于该时间的记录
+	 * @return 最大的修改时间
+	 * @throws SQLException
+	 */
+	private long refreshSequences(long sinceMillis) throws SQLException {
+		Map<String, Map<String, Object>> records = sequenceDAO.getModifiedSequenceRecords(sinceMillis);
+		long maxModified = sinceMillis;
+		for (Map.Entry<String, Map<String, Object>> sequenceRecord : records.entrySet()) {
+			String seqName = sequenceRecord.getKey();
+			Map<String, Object> sequeceRecordvalue = sequenceRecord.getValue();
+			long min = (Long) sequeceRecordvalue.get(sequenceDAO.getMinValueColumnName());
+			long max = (Long) sequeceRecordvalue.get(sequenceDAO.getMaxValueColumnName());
+			int step = (Integer) sequeceRecordvalue.get(sequenceDAO.getInnerStepColumnName());
+			long modified = (Long) sequeceRecordvalue.get(sequenceDAO.getGmtModifiedColumnName());
+			maxModified = Math.max(maxModified, modified);
+			if (sequences != null && sequences.containsKey(seqName)) {
+				continue;
+			}
+
+			Sequence sequence = sequenceMap.get(seqName);
+			if (sequence == null) {
+				if (!lazyInit) {
+					registerSequence(seqName, min, max, step);
+				}
+			} else if (sequence instanceof DefaultSequence) {
+				DefaultSequence defaultSequence = (DefaultSequence) sequence;
+				if (min != defaultSequence.getMinValue() || max != defaultSequence.getMaxValue()
+						|| step != defaultSequence.getInnerStep()) {
+					defaultSequence.reconfigure(min, max, step);
+				}
+			}
+		}
+		return maxModified;
+	}
+
+	/**
+	 * 注册刷新时发现的新sequence
+	 */
+	private void registerSequence(String seqName, long min, long max, int step) {
+		Lock lock = initLocks.get(seqName);
+		lock.lock();
+		try {
+			if (sequenceMap.get(seqName) != null) {
+				return;
+			}
+			DefaultSequence sequence = new DefaultSequence(sequenceDAO, seqName, min, max, step);
+			configure(sequence);
+			sequence.init();
+			sequenceMap.put(seqName, sequence);
+			logger.warn("WARN ## register the new sequence, sequenceName=" + seqName);
+		} catch (Exception e) {
+			logger.error("ERROR ## init the sequenceName = " + seqName + " has an error:", e);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -48,6 +201,7 @@ public class SequenceFactory {
 	 */
 	private void initAllSequence() throws SQLException {
 		Map<String, Map<String, Object>> sequenceRecords = null;
+		List<DefaultSequence> sequences = new ArrayList<DefaultSequence>();
 		// 获取全部的sequence记录
 		try {
 			sequenceRecords = sequenceDAO.getAllSequenceNameRecord();
@@ -61,6 +215,11 @@ public class SequenceFactory {
 				long max = (Long) sequeceRecordvalue.get(sequenceDAO.getMaxValueColumnName());
 				int step = (Integer) sequeceRecordvalue.get(sequenceDAO.getInnerStepColumnName());
 				DefaultSequence sequence = new DefaultSequence(sequenceDAO, seqName, min, max, step);
+				configure(sequence);
+				if (initThreads > 0) {
+					sequences.add(sequence);
+					continue;
+				}
 				try {
 					sequence.init();
 					sequenceMap.put(seqName, sequence);
@@ -68,12 +227,110 @@ public class SequenceFactory {
 					logger.error("ERROR ## init the sequenceName = " + seqName + " has an error:", e);
 				}
 			}
+			if (!sequences.isEmpty()) {
+				initInParallel(sequences);
+			}
 		} catch (Exception e) {
 			logger.error("ERROR ## init the multiple-Sequence-Map failed!", e);
 		}
 
 	}
 
+	/**
+	 * 预热：通过批量接口一次获取所有sequence的第一个段，避免启动后各sequence第一次取值时逐个访问db；失败时不影响使用
+	 */
+	private void warmUpSequences() {
+		List<SequenceRequest> requests = new ArrayList<SequenceRequest>(sequenceMap.size());
+		for (Sequence sequence : sequenceMap.values()) {
+			if (sequence instanceof DefaultSequence) {
+				DefaultSequence defaultSequence = (DefaultSequence) sequence;
+				requests.add(new SequenceRequest(defaultSequence.getSequenceName(), defaultSequence.getMinValue(),
+						defaultSequence.getMaxValue(), defaultSequence.getInnerStep()));
+			}
+		}
+		if (requests.isEmpty()) {
+			return;
+		}
+		long beginTime = System.currentTimeMillis();
+		try {
+			Map<String, SequenceRange> ranges = sequenceDAO.nextRanges(requests);
+			for (Map.Entry<String, SequenceRange> entry : ranges.entrySet()) {
+				((DefaultSequence) sequenceMap.get(entry.getKey())).offerRange(entry.getValue());
+			}
+			logger.warn("WARN ## warm up " + ranges.size() + " sequences, cost "
+					+ (System.currentTimeMillis() - beginTime) + "ms");
+		} catch (Exception e) {
+			logger.error("ERROR ## warm up the sequences failed", e);
+		}
+	}
+
+	/**
+	 * 在有界线程池上批量初始化sequence记录，记录初始化失败的sequence不加载
+	 */
+	private void initInParallel(List<DefaultSequence> sequences) {
+		ExecutorService executor = SequenceRecordInitializer.newExecutor(initThreads);
+		try {
+			Set<String> failed = sequenceDAO.initSequenceRecords(sequences, executor);
+			for (DefaultSequence sequence : sequences) {
+				if (!failed.contains(sequence.getSequenceName())) {
+					sequence.initWithoutRecord();
+					sequenceMap.put(sequence.getSequenceName(), sequence);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * 延迟初始化：第一次使用时根据db里的记录初始化sequence，记录不存在时返回null
+	 */
+	private Sequence initLazySequence(String sequenceName) {
+		Lock lock = initLocks.get(sequenceName);
+		lock.lock();
+		try {
+			Sequence sequence = sequenceMap.get(sequenceName);
+			if (sequence != null) {
+				return sequence;
+			}
+			Map<String, Object> record = sequenceDAO.getSequenceRecordByName(sequenceName).get(sequenceName);
+			long min = (Long) record.get(sequenceDAO.getMinValueColumnName());
+			long max = (Long) record.get(sequenceDAO.getMaxValueColumnName());
+			int step = (Integer) record.get(sequenceDAO.getInnerStepColumnName());
+			DefaultSequence defaultSequence = new DefaultSequence(sequenceDAO, sequenceName, min, max, step);
+			configure(defaultSequence);
+			defaultSequence.init();
+			sequenceMap.put(sequenceName, defaultSequence);
+			return defaultSequence;
+		} catch (Exception e) {
+			logger.error("ERROR ## init the sequenceName = " + sequenceName + " has an error:", e);
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 将工厂上的预取、自适应等配置应用到sequence上
+	 */
+	private void configure(AbstractSequence sequence) {
+		sequence.setPrefetch(prefetch);
+		if (prefetchRatio != null) {
+			sequence.setPrefetchRatio(prefetchRatio);
+		}
+		sequence.setPrefetchExecutor(prefetchExecutor);
+		sequence.setAdaptive(adaptive);
+		if (adaptiveInterval != null) {
+			sequence.setAdaptiveInterval(adaptiveInterval);
+		}
+		sequence.setAdaptiveMinStep(adaptiveMinStep);
+		sequence.setAdaptiveMaxStep(adaptiveMaxStep);
+		sequence.setMetrics(metrics);
+		sequence.setJournalDir(journalDir);
+		sequence.setJournalStep(journalStep);
+		sequence.setJournalSync(journalSync);
+	}
+
 	/**
 	 * 根据指定sequenceName生成序号 eg：YYYYYMMDD(8位)+sequence
 	 *
@@ -82,9 +339,19 @@ public class SequenceFactory {
 	 * @return
 	 */
 	public String genSequence(String sequenceName, boolean completion) {
+		Sequence sequence = getSequence(sequenceName);
+		return formatter.format(null, sequence.nextValue(), completion ? width(sequence) : 0);
+	}
 
-		return getDate() + (completion ? completion(sequenceName) : getSequence(sequenceName).nextValue());
-
+	/**
+	 * 根据sequence句柄生成序号，不再按名称查找sequence eg：YYYYYMMDD(8位)+sequence
+	 *
+	 * @param handle     通过getSequenceHandle解析出的句柄
+	 * @param completion 是否按序列最大值长度补全序列
+	 * @return
+	 */
+	public String genSequence(SequenceHandle handle, boolean completion) {
+		return formatter.format(null, handle.nextValue(), completion ? width(handle) : 0);
 	}
 
 	/**
@@ -95,8 +362,19 @@ public class SequenceFactory {
 	 * @return
 	 */
 	public String genSequenceNoDate(String sequenceName, boolean completion) {
-		return completion ? String.valueOf(completion(sequenceName))
-				: String.valueOf(getSequence(sequenceName).nextValue());
+		Sequence sequence = getSequence(sequenceName);
+		return formatter.formatNoDate(sequence.nextValue(), completion ? width(sequence) : 0);
+	}
+
+	/**
+	 * 根据sequence句柄生成序号，不含日期 eg：12345678
+	 *
+	 * @param handle     通过getSequenceHandle解析出的句柄
+	 * @param completion 是否按序列最大值长度补全序列
+	 * @return
+	 */
+	public String genSequenceNoDate(SequenceHandle handle, boolean completion) {
+		return formatter.formatNoDate(handle.nextValue(), completion ? width(handle) : 0);
 	}
 
 	/**
@@ -108,19 +386,37 @@ public class SequenceFactory {
 	 * @return
 	 */
 	public String genSequence(String sequenceName, SubBusinessType type, boolean completion) {
-		return getDate() + type.getWholeCode()
-				+ (completion ? completion(sequenceName) : getSequence(sequenceName).nextValue());
+		Sequence sequence = getSequence(sequenceName);
+		return formatter.format(type.getWholeCode(), sequence.nextValue(), completion ? width(sequence) : 0);
 	}
 
 	/**
-	 * 根据序列名获得固定长度（最大值长度）的序列，长度不足时左边补0
+	 * 根据指定sequenceName生成序号并追加到调用方的缓冲里，不创建任何临时对象 eg：YYYYYMMDD(8位)+sequence
 	 *
-	 * @return
+	 * @param buffer       缓冲
+	 * @param sequenceName 序列名
+	 * @param completion   是否按序列最大值长度补全序列
 	 */
-	private String completion(String sequenceName) {
+	public void genSequence(StringBuilder buffer, String sequenceName, boolean completion) {
 		Sequence sequence = getSequence(sequenceName);
-		String seqString = String.valueOf(sequence.nextValue());
-		return StringUtils.alignRight(seqString, String.valueOf(sequence.getMaxValue()).length(), "0");
+		formatter.formatTo(buffer, true, null, sequence.nextValue(), completion ? width(sequence) : 0);
+	}
+
+	/**
+	 * 补全时序列的宽度，即最大值的长度，长度不足时左边补0
+	 */
+	private int width(Sequence sequence) {
+		return SequenceFormatter.widthOf(sequence.getMaxValue());
+	}
+
+	/**
+	 * 根据sequence名称解析出sequence句柄，调用方持有句柄后取值不再按名称查找
+	 *
+	 * @param sequenceName Sequence名称
+	 * @return sequence句柄
+	 */
+	public SequenceHandle getSequenceHandle(String sequenceName) {
+		return new SequenceHandle(sequenceName, getSequence(sequenceName));
 	}
 
 	/**
@@ -131,28 +427,15 @@ public class SequenceFactory {
 	 */
 	private Sequence getSequence(String sequenceName) {
 		Sequence sequence = sequenceMap.get(sequenceName);
+		if (sequence == null && lazyInit && sequenceDAO != null) {
+			sequence = initLazySequence(sequenceName);
+		}
 		if (sequence == null) {
 			throw new SecurityException("找不到对应的sequence对象。sequenceName=" + sequenceName);
 		}
 		return sequence;
 	}
 
-	/**
-	 * 获取日期 YYYYMMDD
-	 *
-	 * @return
-	 */
-	private String getDate() {
-		// 使用默认时区和语言环境获得一个日历。
-		Calendar rightNow = Calendar.getInstance();
-		int year = rightNow.get(Calendar.YEAR);
-		int month = rightNow.get(Calendar.MONTH) + 1; // 第一个月从0开始，所以得到月份＋1
-		int day = rightNow.get(rightNow.DAY_OF_MONTH);
-		StringBuilder sb = new StringBuilder();
-		sb.append(year).append(month < 10 ? "0" + month : month).append(day < 10 ? "0" + day : day);
-		return sb.toString();
-	}
-
 	/**
 	 * Getter method for property <tt>sequenceDAO</tt>.
 	 *
@@ -170,4 +453,157 @@ public class SequenceFactory {
 	public void setSequenceDAO(DefaultSequenceDAO sequenceDAO) {
 		this.sequenceDAO = sequenceDAO;
 	}
+
+	/**
+	 * Setter method for property <tt>sequences</tt>. 配置的sequence须已初始化
+	 *
+	 * @param sequences key为sequence名称
+	 */
+	public void setSequences(Map<String, Sequence> sequences) {
+		this.sequences = sequences;
+	}
+
+	/**
+	 * Setter method for property <tt>prefetch</tt>.
+	 *
+	 * @param prefetch value to be assigned to property prefetch
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Setter method for property <tt>prefetchRatio</tt>.
+	 *
+	 * @param prefetchRatio value to be assigned to property prefetchRatio
+	 */
+	public void setPrefetchRatio(Double prefetchRatio) {
+		this.prefetchRatio = prefetchRatio;
+	}
+
+	/**
+	 * Setter method for property <tt>prefetchExecutor</tt>.
+	 *
+	 * @param prefetchExecutor value to be assigned to property prefetchExecutor
+	 */
+	public void setPrefetchExecutor(Executor prefetchExecutor) {
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptive</tt>.
+	 *
+	 * @param adaptive value to be assigned to property adaptive
+	 */
+	public void setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveInterval</tt>.
+	 *
+	 * @param adaptiveInterval value to be assigned to property adaptiveInterval
+	 */
+	public void setAdaptiveInterval(Long adaptiveInterval) {
+		this.adaptiveInterval = adaptiveInterval;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveMinStep</tt>.
+	 *
+	 * @param adaptiveMinStep value to be assigned to property adaptiveMinStep
+	 */
+	public void setAdaptiveMinStep(int adaptiveMinStep) {
+		this.adaptiveMinStep = adaptiveMinStep;
+	}
+
+	/**
+	 * Setter method for property <tt>adaptiveMaxStep</tt>.
+	 *
+	 * @param adaptiveMaxStep value to be assigned to property adaptiveMaxStep
+	 */
+	public void setAdaptiveMaxStep(int adaptiveMaxStep) {
+		this.adaptiveMaxStep = adaptiveMaxStep;
+	}
+
+	/**
+	 * Setter method for property <tt>metrics</tt>.
+	 *
+	 * @param metrics value to be assigned to property metrics
+	 */
+	public void setMetrics(SequenceMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Setter method for property <tt>journalDir</tt>.
+	 *
+	 * @param journalDir value to be assigned to property journalDir
+	 */
+	public void setJournalDir(String journalDir) {
+		this.journalDir = journalDir;
+	}
+
+	/**
+	 * Setter method for property <tt>journalStep</tt>.
+	 *
+	 * @param journalStep value to be assigned to property journalStep
+	 */
+	public void setJournalStep(int journalStep) {
+		this.journalStep = journalStep;
+	}
+
+	/**
+	 * Setter method for property <tt>journalSync</tt>.
+	 *
+	 * @param journalSync value to be assigned to property journalSync
+	 */
+	public void setJournalSync(boolean journalSync) {
+		this.journalSync = journalSync;
+	}
+
+	/**
+	 * Setter method for property <tt>initThreads</tt>.
+	 *
+	 * @param initThreads value to be assigned to property initThreads
+	 */
+	public void setInitThreads(int initThreads) {
+		this.initThreads = initThreads;
+	}
+
+	/**
+	 * Setter method for property <tt>lazyInit</tt>.
+	 *
+	 * @param lazyInit value to be assigned to property lazyInit
+	 */
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInit = lazyInit;
+	}
+
+	/**
+	 * Setter method for property <tt>warmUp</tt>.
+	 *
+	 * @param warmUp value to be assigned to property warmUp
+	 */
+	public void setWarmUp(boolean warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	/**
+	 * Setter method for property <tt>refreshInterval</tt>，单位毫秒，小于等于0时不刷新.
+	 *
+	 * @param refreshInterval value to be assigned to property refreshInterval
+	 */
+	public void setRefreshInterval(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Setter method for property <tt>refreshLookback</tt>，单位毫秒.
+	 *
+	 * @param refreshLookback value to be assigned to property refreshLookback
+	 */
+	public void setRefreshLookback(long refreshLookback) {
+		this.refreshLookback = refreshLookback;
+	}
 }
@@ -0,0 +1,143 @@
+package com.lyle.common.sequence.impl;
+
+import java.util.Calendar;
+
+/**
+ * 序号格式化：yyyyMMdd日期前缀 + 业务编码 + (按宽度左补0的)序列值。<br>
+ * 日期前缀按默认时区缓存，跨天时才重新计算；拼接使用线程内复用的StringBuilder，每次只创建结果字符串；
+ * 也可以传入调用方自己的StringBuilder，完全不产生临时对象。
+ */
+public class SequenceFormatter {
+
+	/** 结果的初始容量：日期8位 + 业务编码 + long最多19位 */
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/** 线程内复用的拼接缓冲 */
+	private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(DEFAULT_CAPACITY);
+		}
+	};
+
+	/** 当天的日期前缀 */
+	private volatile DatePrefix datePrefix;
+
+	/**
+	 * 格式化为 yyyyMMdd + code + value
+	 *
+	 * @param code  业务编码，为null时不拼接
+	 * @param value 序列值
+	 * @param width 序列值的宽度，不足时左补0；小于等于0时不补
+	 * @return 序号
+	 */
+	public String format(CharSequence code, long value, int width) {
+		StringBuilder buffer = BUFFER.get();
+		buffer.setLength(0);
+		formatTo(buffer, true, code, value, width);
+		return buffer.toString();
+	}
+
+	/**
+	 * 格式化为不带日期的序列值
+	 *
+	 * @param value 序列值
+	 * @param width 序列值的宽度，不足时左补0；小于等于0时不补
+	 * @return 序号
+	 */
+	public String formatNoDate(long value, int width) {
+		if (width <= 0) {
+			return String.valueOf(value);
+		}
+		StringBuilder buffer = BUFFER.get();
+		buffer.setLength(0);
+		formatTo(buffer, false, null, value, width);
+		return buffer.toString();
+	}
+
+	/**
+	 * 将序号追加到调用方的缓冲里
+	 *
+	 * @param buffer   缓冲
+	 * @param withDate 是否带yyyyMMdd日期前缀
+	 * @param code     业务编码，为null时不拼接
+	 * @param value    序列值
+	 * @param width    序列值的宽度，不足时左补0；小于等于0时不补
+	 */
+	public void formatTo(StringBuilder buffer, boolean withDate, CharSequence code, long value, int width) {
+		if (withDate) {
+			buffer.append(currentDatePrefix(System.currentTimeMillis()).chars);
+		}
+		if (code != null) {
+			buffer.append(code);
+		}
+		for (int pads = width - widthOf(value); pads > 0; pads--) {
+			buffer.append('0');
+		}
+		buffer.append(value);
+	}
+
+	/**
+	 * 计算十进制位数，与String.valueOf(value).length()一致
+	 *
+	 * @param value 数值
+	 * @return 位数，负数包含符号位
+	 */
+	public static int widthOf(long value) {
+		if (value < 0) {
+			return value == Long.MIN_VALUE ? 20 : widthOf(-value) + 1;
+		}
+		long limit = 10;
+		for (int width = 1; width < 19; width++) {
+			if (value < limit) {
+				return width;
+			}
+			limit *= 10;
+		}
+		return 19;
+	}
+
+	/**
+	 * 获取now所在那天的日期前缀，跨天(或时钟回拨到前一天)时重新计算
+	 */
+	private DatePrefix currentDatePrefix(long now) {
+		DatePrefix prefix = datePrefix;
+		if (prefix == null || now >= prefix.end || now < prefix.start) {
+			prefix = new DatePrefix(now);
+			datePrefix = prefix;
+		}
+		return prefix;
+	}
+
+	/**
+	 * 一天的日期前缀以及这一天的起止时间
+	 */
+	private static class DatePrefix {
+		/** 当天0点，单位毫秒 */
+		private final long start;
+		/** 次日0点，单位毫秒 */
+		private final long end;
+		/** yyyyMMdd */
+		private final char[] chars;
+
+		DatePrefix(long now) {
+			// 使用默认时区和语言环境获得一个日历。
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTimeInMillis(now);
+			int year = calendar.get(Calendar.YEAR);
+			int month = calendar.get(Calendar.MONTH) + 1; // 第一个月从0开始，所以得到月份＋1
+			int day = calendar.get(Calendar.DAY_OF_MONTH);
+			StringBuilder sb = new StringBuilder();
+			sb.append(year).append(month < 10 ? "0" + month : month).append(day < 10 ? "0" + day : day);
+			this.chars = sb.toString().toCharArray();
+
+			calendar.set(Calendar.HOUR_OF_DAY, 0);
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+			this.start = calendar.getTimeInMillis();
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+			this.end = calendar.getTimeInMillis();
+		}
+	}
+}
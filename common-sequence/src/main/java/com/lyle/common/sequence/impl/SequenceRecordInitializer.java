@@ -0,0 +1,134 @@
+package com.lyle.common.sequence.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lyle.common.sequence.SequenceConstants;
+
+/**
+ * 批量初始化sequence记录：每个数据源只查询一次全部记录的当前值，只对不存在或不符合规律的记录逐条调整/插入；
+ * 各数据源的查询以及逐条的调整/插入都提交到调用方给定的线程池里并行执行
+ */
+class SequenceRecordInitializer {
+
+	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
+
+	private final List<SequenceDataSourceHolder> dataSourceList;
+	private final String selectAllSql;
+	private final String nameColumn;
+	private final String valueColumn;
+
+	/**
+	 * @param dataSourceList 数据源列表，外步长为内步长*数据源个数
+	 * @param selectAllSql   select name,value,... from sequence
+	 * @param nameColumn     sequence名称列名
+	 * @param valueColumn    sequence值列名
+	 */
+	SequenceRecordInitializer(List<SequenceDataSourceHolder> dataSourceList, String selectAllSql, String nameColumn,
+			String valueColumn) {
+		this.dataSourceList = dataSourceList;
+		this.selectAllSql = selectAllSql;
+		this.nameColumn = nameColumn;
+		this.valueColumn = valueColumn;
+	}
+
+	/**
+	 * 创建初始化使用的有界线程池，用完后由调用方关闭
+	 *
+	 * @param threads 线程数
+	 * @return 线程池
+	 */
+	static ExecutorService newExecutor(int threads) {
+		return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sequence-init-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * 初始化各个数据源上的sequence记录
+	 *
+	 * @param sequences sequence列表
+	 * @param executor  执行查询和调整的线程池
+	 * @return 初始化失败的sequence名称
+	 */
+	Set<String> init(Collection<? extends AbstractSequence> sequences, ExecutorService executor) {
+		int dataSourceNum = dataSourceList.size();
+		List<Future<Map<String, Long>>> valueFutures = new ArrayList<Future<Map<String, Long>>>(dataSourceNum);
+		for (final SequenceDataSourceHolder dsHolder : dataSourceList) {
+			valueFutures.add(executor.submit(new Callable<Map<String, Long>>() {
+				public Map<String, Long> call() throws Exception {
+					return dsHolder.getAllSequenceValues(selectAllSql, nameColumn, valueColumn);
+				}
+			}));
+		}
+
+		List<Future<?>> recordFutures = new ArrayList<Future<?>>();
+		List<String> recordNames = new ArrayList<String>();
+		for (int i = 0; i < dataSourceNum; i++) {
+			final int index = i;
+			final SequenceDataSourceHolder dsHolder = dataSourceList.get(index);
+			Map<String, Long> values;
+			try {
+				values = valueFutures.get(index).get();
+			} catch (Exception e) {
+				// 查询失败时逐条初始化，由逐条初始化决定是否失败
+				logger.warn("WARN ## get all the sequence values of the " + index + "th datasource failed", e);
+				values = Collections.emptyMap();
+			}
+			for (final AbstractSequence sequence : sequences) {
+				final int innerStep = sequence.getInnerStep();
+				final int outStep = innerStep * dataSourceNum;
+				Long value = values.get(sequence.getSequenceName());
+				if (value != null && dsHolder.check(index, value, innerStep, outStep)) {
+					continue;
+				}
+				recordNames.add(sequence.getSequenceName());
+				recordFutures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						dsHolder.initSequenceRecord(index, sequence.getSequenceName(), innerStep, outStep,
+								sequence.getMinValue(), sequence.getMaxValue(), valueColumn);
+						return null;
+					}
+				}));
+			}
+		}
+
+		Set<String> failed = new HashSet<String>();
+		for (int i = 0; i < recordFutures.size(); i++) {
+			try {
+				recordFutures.get(i).get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed.add(recordNames.get(i));
+			} catch (ExecutionException e) {
+				logger.error("ERROR ## init the sequenceName = " + recordNames.get(i) + " has an error:", e.getCause());
+				failed.add(recordNames.get(i));
+			}
+		}
+		logger.warn("WARN ## init " + sequences.size() + " sequences on " + dataSourceNum + " datasources, "
+				+ recordFutures.size() + " records adjusted or inserted, " + failed.size() + " failed");
+		return failed;
+	}
+}
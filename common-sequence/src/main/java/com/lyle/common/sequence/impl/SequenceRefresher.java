@@ -0,0 +1,94 @@
+package com.lyle.common.sequence.impl;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lyle.common.sequence.SequenceConstants;
+
+/**
+ * 后台定时刷新sequence记录：以gmt_modified为水位，每次只查询水位之后修改过的记录交给工厂对比，
+ * 工厂注册新增的sequence，并把最小值、最大值和步长的变化应用到已有的sequence上。<br>
+ * gmt_modified由各应用服务器写入，查询时水位回退lookbackMillis，容忍服务器之间的时钟偏差和事务提交的延迟；
+ * 同一条记录被重复查到时工厂对比后没有变化，不会重复应用。
+ */
+abstract class SequenceRefresher implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
+
+	/** 默认水位回退的时间，单位毫秒 */
+	static final long DEFAULT_LOOKBACK_MILLIS = 60000;
+
+	/** 刷新间隔，单位毫秒 */
+	private final long intervalMillis;
+	/** 水位回退的时间，单位毫秒 */
+	private final long lookbackMillis;
+	/** 已经处理过的最大修改时间，单位毫秒，只在刷新线程里访问 */
+	private long watermark;
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * @param intervalMillis 刷新间隔，单位毫秒
+	 * @param lookbackMillis 水位回退的时间，单位毫秒
+	 */
+	SequenceRefresher(long intervalMillis, long lookbackMillis) {
+		this.intervalMillis = intervalMillis;
+		this.lookbackMillis = lookbackMillis;
+		this.watermark = System.currentTimeMillis();
+	}
+
+	/**
+	 * 启动后台刷新线程
+	 */
+	synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "sequence-refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(this, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		logger.warn("WARN ## the sequence refresher started, interval=" + intervalMillis + "ms");
+	}
+
+	/**
+	 * 停止后台刷新线程
+	 */
+	synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			long modified = refresh(watermark - lookbackMillis);
+			if (modified > watermark) {
+				watermark = modified;
+			}
+		} catch (Throwable e) {
+			// 异常不能抛出，否则定时任务不再执行
+			logger.error("ERROR ## refresh the sequence records has an error", e);
+		}
+	}
+
+	/**
+	 * 查询修改时间晚于sinceMillis的sequence记录并应用到工厂
+	 *
+	 * @param sinceMillis 只处理修改时间晚于该时间的记录，单位毫秒
+	 * @return 本次处理的记录里最大的修改时间，没有记录时返回sinceMillis
+	 * @throws Exception
+	 */
+	protected abstract long refresh(long sinceMillis) throws Exception;
+}
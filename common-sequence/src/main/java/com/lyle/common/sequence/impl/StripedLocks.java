@@ -0,0 +1,44 @@
+package com.lyle.common.sequence.impl;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按sequence名称分段的锁：名称hash到固定个数的锁上，不同名称的sequence初始化时一般不会互相等待，
+ * 也不需要为每个名称创建和清理锁对象
+ */
+class StripedLocks {
+
+	/** 默认的分段个数 */
+	static final int DEFAULT_STRIPES = 64;
+
+	private final Lock[] locks;
+	private final int mask;
+
+	StripedLocks() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * @param stripes 分段个数，向上取整为2的幂
+	 */
+	StripedLocks(int stripes) {
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		locks = new Lock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * 获取名称对应的锁
+	 *
+	 * @param name sequence名称
+	 * @return 锁
+	 */
+	Lock get(String name) {
+		int h = name.hashCode();
+		return locks[(h ^ (h >>> 16)) & mask];
+	}
+}
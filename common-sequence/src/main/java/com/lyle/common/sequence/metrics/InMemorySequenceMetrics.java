@@ -0,0 +1,70 @@
+package com.lyle.common.sequence.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 内存里按sequence名称累计指标，通过{@link #getStats(String)}读取，适合定时采集后输出到日志或监控系统
+ */
+public class InMemorySequenceMetrics implements SequenceMetrics {
+
+	private final ConcurrentMap<String, SequenceStats> statsMap = new ConcurrentHashMap<String, SequenceStats>();
+
+	public void onValues(String sequenceName, int count) {
+		stats(sequenceName).addValues(count);
+	}
+
+	public void onRangeFetch(String sequenceName, int ranges, long latencyNanos) {
+		stats(sequenceName).addRangeFetch(ranges, latencyNanos);
+	}
+
+	public void onCasConflict(String sequenceName, int index) {
+		stats(sequenceName).addCasConflict();
+	}
+
+	public void onRetry(String sequenceName) {
+		stats(sequenceName).addRetry();
+	}
+
+	public void onExclude(String sequenceName, int index) {
+		stats(sequenceName).addExclude(index);
+	}
+
+	public void onRefillBlocked(String sequenceName, long blockedNanos) {
+		stats(sequenceName).addRefillBlocked(blockedNanos);
+	}
+
+	/**
+	 * 获取某个sequence的统计
+	 *
+	 * @param sequenceName sequence名称
+	 * @return 统计，尚未有任何上报时返回null
+	 */
+	public SequenceStats getStats(String sequenceName) {
+		return statsMap.get(sequenceName);
+	}
+
+	/**
+	 * 获取所有sequence的统计
+	 *
+	 * @return key为sequence名称
+	 */
+	public Map<String, SequenceStats> getAllStats() {
+		return Collections.unmodifiableMap(statsMap);
+	}
+
+	private SequenceStats stats(String sequenceName) {
+		SequenceStats stats = statsMap.get(sequenceName);
+		if (stats == null) {
+			SequenceStats created = new SequenceStats(sequenceName);
+			stats = statsMap.putIfAbsent(sequenceName, created);
+			if (stats == null) {
+				stats = created;
+			}
+		}
+		return stats;
+	}
+
+}
@@ -0,0 +1,32 @@
+package com.lyle.common.sequence.metrics;
+
+/**
+ * 不做任何统计的默认实现
+ */
+public final class NoopSequenceMetrics implements SequenceMetrics {
+
+	public static final NoopSequenceMetrics INSTANCE = new NoopSequenceMetrics();
+
+	private NoopSequenceMetrics() {
+
+	}
+
+	public void onValues(String sequenceName, int count) {
+	}
+
+	public void onRangeFetch(String sequenceName, int ranges, long latencyNanos) {
+	}
+
+	public void onCasConflict(String sequenceName, int index) {
+	}
+
+	public void onRetry(String sequenceName) {
+	}
+
+	public void onExclude(String sequenceName, int index) {
+	}
+
+	public void onRefillBlocked(String sequenceName, long blockedNanos) {
+	}
+
+}
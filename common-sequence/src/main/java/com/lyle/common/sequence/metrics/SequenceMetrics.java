@@ -0,0 +1,56 @@
+package com.lyle.common.sequence.metrics;
+
+/**
+ * sequence运行指标的上报接口，按sequence名称统计；实现类须线程安全，且不能阻塞取值线程
+ */
+public interface SequenceMetrics {
+
+	/**
+	 * 发放了count个序列值
+	 *
+	 * @param sequenceName sequence名称
+	 * @param count        发放的个数
+	 */
+	void onValues(String sequenceName, int count);
+
+	/**
+	 * 完成了一次从db获取sequence段
+	 *
+	 * @param sequenceName sequence名称
+	 * @param ranges       获取到的段数，失败时为0
+	 * @param latencyNanos 耗时，单位纳秒
+	 */
+	void onRangeFetch(String sequenceName, int ranges, long latencyNanos);
+
+	/**
+	 * 乐观锁更新sequence记录时发生冲突
+	 *
+	 * @param sequenceName sequence名称
+	 * @param index        数据源序列号
+	 */
+	void onCasConflict(String sequenceName, int index);
+
+	/**
+	 * 获取sequence段失败，进行了一次重试
+	 *
+	 * @param sequenceName sequence名称
+	 */
+	void onRetry(String sequenceName);
+
+	/**
+	 * 数据源在单次获取中被排除(异常或已被踢出)
+	 *
+	 * @param sequenceName sequence名称
+	 * @param index        数据源序列号
+	 */
+	void onExclude(String sequenceName, int index);
+
+	/**
+	 * 取值线程等待其他线程切换sequence段的时间
+	 *
+	 * @param sequenceName sequence名称
+	 * @param blockedNanos 等待时间，单位纳秒
+	 */
+	void onRefillBlocked(String sequenceName, long blockedNanos);
+
+}
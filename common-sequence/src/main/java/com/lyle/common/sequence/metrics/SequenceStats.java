@@ -0,0 +1,246 @@
+package com.lyle.common.sequence.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个sequence的累计指标。<br>
+ * 获取sequence段的耗时按微秒以2的幂分桶：第0桶为小于1微秒，第i桶为[2^(i-1), 2^i)微秒，最后一桶包含更大的值
+ */
+public class SequenceStats {
+
+	/** 耗时直方图的桶数，最后一桶的下界约为1小时 */
+	public static final int LATENCY_BUCKETS = 34;
+
+	private final String sequenceName;
+	private final long createTime = System.nanoTime();
+
+	private final LongAdder values = new LongAdder();
+	private final LongAdder rangeFetches = new LongAdder();
+	private final LongAdder failedFetches = new LongAdder();
+	private final LongAdder ranges = new LongAdder();
+	private final LongAdder fetchNanos = new LongAdder();
+	private final AtomicLongArray fetchLatencyBuckets = new AtomicLongArray(LATENCY_BUCKETS);
+	private final LongAdder casConflicts = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final ConcurrentMap<Integer, LongAdder> excludes = new ConcurrentHashMap<Integer, LongAdder>();
+	private final LongAdder refillBlocks = new LongAdder();
+	private final LongAdder refillBlockedNanos = new LongAdder();
+
+	/** 上次计算取值速率时的时间和累计值 */
+	private long lastRateTime = createTime;
+	private long lastRateValues = 0;
+
+	public SequenceStats(String sequenceName) {
+		this.sequenceName = sequenceName;
+	}
+
+	void addValues(int count) {
+		values.add(count);
+	}
+
+	void addRangeFetch(int count, long latencyNanos) {
+		rangeFetches.increment();
+		if (count == 0) {
+			failedFetches.increment();
+		}
+		ranges.add(count);
+		fetchNanos.add(latencyNanos);
+		fetchLatencyBuckets.incrementAndGet(bucketOf(latencyNanos));
+	}
+
+	void addCasConflict() {
+		casConflicts.increment();
+	}
+
+	void addRetry() {
+		retries.increment();
+	}
+
+	void addExclude(int index) {
+		LongAdder counter = excludes.get(index);
+		if (counter == null) {
+			LongAdder created = new LongAdder();
+			counter = excludes.putIfAbsent(index, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.increment();
+	}
+
+	void addRefillBlocked(long blockedNanos) {
+		refillBlocks.increment();
+		refillBlockedNanos.add(blockedNanos);
+	}
+
+	private static int bucketOf(long latencyNanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+		int bucket = 64 - Long.numberOfLeadingZeros(micros);
+		return Math.min(bucket, LATENCY_BUCKETS - 1);
+	}
+
+	/**
+	 * 第bucket桶的上界(不含)，单位微秒；最后一桶返回Long.MAX_VALUE
+	 *
+	 * @param bucket 桶序号
+	 * @return 上界
+	 */
+	public static long getBucketUpperBoundMicros(int bucket) {
+		return bucket >= LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+	}
+
+	public String getSequenceName() {
+		return sequenceName;
+	}
+
+	/**
+	 * 累计发放的序列值个数
+	 */
+	public long getValues() {
+		return values.sum();
+	}
+
+	/**
+	 * 自上次调用本方法(首次为创建统计)以来的平均每秒发放个数，适合由单个采集线程定时调用
+	 *
+	 * @return 每秒发放个数
+	 */
+	public synchronized double getValuesPerSecond() {
+		long now = System.nanoTime();
+		long current = values.sum();
+		long elapsed = Math.max(1, now - lastRateTime);
+		double rate = (current - lastRateValues) * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+		lastRateTime = now;
+		lastRateValues = current;
+		return rate;
+	}
+
+	/**
+	 * 从db获取sequence段的次数，包括失败的
+	 */
+	public long getRangeFetches() {
+		return rangeFetches.sum();
+	}
+
+	/**
+	 * 从db获取sequence段失败的次数
+	 */
+	public long getFailedFetches() {
+		return failedFetches.sum();
+	}
+
+	/**
+	 * 累计获取到的sequence段数
+	 */
+	public long getRanges() {
+		return ranges.sum();
+	}
+
+	/**
+	 * 获取sequence段的平均耗时，单位微秒
+	 */
+	public double getAverageFetchLatencyMicros() {
+		long count = rangeFetches.sum();
+		return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(fetchNanos.sum()) / (double) count;
+	}
+
+	/**
+	 * 获取sequence段耗时直方图，下标为桶序号
+	 *
+	 * @return 各桶的次数
+	 */
+	public long[] getFetchLatencyHistogram() {
+		long[] histogram = new long[LATENCY_BUCKETS];
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			histogram[i] = fetchLatencyBuckets.get(i);
+		}
+		return histogram;
+	}
+
+	/**
+	 * 按直方图估算获取sequence段耗时的分位值，返回所在桶的上界
+	 *
+	 * @param percentile 分位，取值(0,1]
+	 * @return 耗时上界，单位微秒；没有数据时返回0
+	 */
+	public long getFetchLatencyPercentileMicros(double percentile) {
+		if (percentile <= 0 || percentile > 1) {
+			throw new IllegalArgumentException("ERROR ## the percentile must be in (0,1], percentile = " + percentile);
+		}
+		long[] histogram = getFetchLatencyHistogram();
+		long total = 0;
+		for (long count : histogram) {
+			total += count;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(total * percentile);
+		long seen = 0;
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			seen += histogram[i];
+			if (seen >= target) {
+				return getBucketUpperBoundMicros(i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+
+	/**
+	 * 乐观锁更新冲突次数
+	 */
+	public long getCasConflicts() {
+		return casConflicts.sum();
+	}
+
+	/**
+	 * 获取sequence段的重试次数
+	 */
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	/**
+	 * 各数据源被排除的次数
+	 *
+	 * @return key为数据源序列号
+	 */
+	public Map<Integer, Long> getExcludedIndexes() {
+		Map<Integer, Long> result = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, LongAdder> entry : excludes.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().sum());
+		}
+		return result;
+	}
+
+	/**
+	 * 等待段切换的次数
+	 */
+	public long getRefillBlocks() {
+		return refillBlocks.sum();
+	}
+
+	/**
+	 * 累计等待段切换的时间，单位微秒
+	 */
+	public long getRefillBlockedMicros() {
+		return TimeUnit.NANOSECONDS.toMicros(refillBlockedNanos.sum());
+	}
+
+	@Override
+	public String toString() {
+		return "SequenceStats[sequenceName=" + sequenceName + ",values=" + getValues() + ",rangeFetches="
+				+ getRangeFetches() + ",failedFetches=" + getFailedFetches() + ",avgFetchLatencyMicros="
+				+ getAverageFetchLatencyMicros() + ",p99FetchLatencyMicros=" + getFetchLatencyPercentileMicros(0.99)
+				+ ",casConflicts=" + getCasConflicts() + ",retries=" + getRetries() + ",excludedIndexes="
+				+ getExcludedIndexes() + ",refillBlocks=" + getRefillBlocks() + ",refillBlockedMicros="
+				+ getRefillBlockedMicros() + "]";
+	}
+
+}
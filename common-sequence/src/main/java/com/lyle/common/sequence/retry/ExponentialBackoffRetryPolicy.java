@@ -0,0 +1,168 @@
+package com.lyle.common.sequence.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lyle.common.sequence.SequenceConstants;
+
+/**
+ * 指数退避加随机抖动的重试策略：<br>
+ * 1）乐观锁冲突：等待[0, min(conflictMaxMicros, conflictBaseMicros*2^(n-1))]微秒内的随机时间，错开并发更新的线程；<br>
+ * 2）单个数据源出错：立即换其他数据源重试；<br>
+ * 3）所有数据源都不可用：等待[0, min(failureMaxMillis, failureBaseMillis*2^(n-1))]毫秒内的随机时间；<br>
+ * 失败次数超过maxRetries、总耗时超过deadlineMillis或者共用的重试预算用完时放弃，等待时间不会超过剩余的时间。
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+
+	private static final Logger logger = LoggerFactory.getLogger(SequenceConstants.SEQUENCE_LOG_NAME);
+
+	/** 默认最多失败次数 */
+	public static final int DEFAULT_MAX_RETRIES = 150;
+	/** 默认一次获取sequence段的总时间，单位毫秒 */
+	public static final long DEFAULT_DEADLINE_MILLIS = 5000;
+	/** 默认乐观锁冲突的退避基数，单位微秒 */
+	public static final long DEFAULT_CONFLICT_BASE_MICROS = 100;
+	/** 默认乐观锁冲突的最长退避，单位微秒 */
+	public static final long DEFAULT_CONFLICT_MAX_MICROS = 10000;
+	/** 默认数据源不可用的退避基数，单位毫秒 */
+	public static final long DEFAULT_FAILURE_BASE_MILLIS = 10;
+	/** 默认数据源不可用的最长退避，单位毫秒 */
+	public static final long DEFAULT_FAILURE_MAX_MILLIS = 1000;
+
+	/** 最多失败次数 */
+	private int maxRetries = DEFAULT_MAX_RETRIES;
+	/** 一次获取sequence段的总时间，单位毫秒 */
+	private long deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+	/** 乐观锁冲突的退避基数，单位微秒 */
+	private long conflictBaseMicros = DEFAULT_CONFLICT_BASE_MICROS;
+	/** 乐观锁冲突的最长退避，单位微秒 */
+	private long conflictMaxMicros = DEFAULT_CONFLICT_MAX_MICROS;
+	/** 数据源不可用的退避基数，单位毫秒 */
+	private long failureBaseMillis = DEFAULT_FAILURE_BASE_MILLIS;
+	/** 数据源不可用的最长退避，单位毫秒 */
+	private long failureMaxMillis = DEFAULT_FAILURE_MAX_MILLIS;
+	/** 共用的重试预算，为null时不限制 */
+	private RetryBudget retryBudget;
+
+	public ExponentialBackoffRetryPolicy() {
+
+	}
+
+	/**
+	 * @param maxRetries 最多失败次数
+	 */
+	public ExponentialBackoffRetryPolicy(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	@Override
+	public long getBackoffNanos(String sequenceName, RetryCause cause, int retries, long elapsedNanos) {
+		long remainingNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis) - elapsedNanos;
+		if (retries > maxRetries || remainingNanos <= 0) {
+			return -1;
+		}
+		if (retryBudget != null && !retryBudget.tryWithdraw()) {
+			logger.warn("WARN ## the retry budget is exhausted, give up,sequenceName=" + sequenceName + ",retries="
+					+ retries);
+			return -1;
+		}
+		long backoffNanos;
+		switch (cause) {
+		case CONFLICT:
+			backoffNanos = jitter(TimeUnit.MICROSECONDS.toNanos(conflictBaseMicros),
+					TimeUnit.MICROSECONDS.toNanos(conflictMaxMicros), retries);
+			break;
+		case FAILURE:
+			backoffNanos = 0;
+			break;
+		default:
+			backoffNanos = jitter(TimeUnit.MILLISECONDS.toNanos(failureBaseMillis),
+					TimeUnit.MILLISECONDS.toNanos(failureMaxMillis), retries);
+			break;
+		}
+		return Math.min(backoffNanos, remainingNanos);
+	}
+
+	@Override
+	public void onSuccess(String sequenceName, int retries) {
+		if (retryBudget != null) {
+			retryBudget.onSuccess();
+		}
+	}
+
+	/**
+	 * 在[0, min(max, base*2^(retries-1))]内随机选择
+	 */
+	private static long jitter(long base, long max, int retries) {
+		if (base <= 0 || max <= 0) {
+			return 0;
+		}
+		int shift = Math.min(retries - 1, 62 - (63 - Long.numberOfLeadingZeros(base)));
+		long bound = Math.min(max, base << Math.max(0, shift));
+		return ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	public void setMaxRetries(int maxRetries) {
+		this.maxRetries = maxRetries;
+	}
+
+	public long getDeadlineMillis() {
+		return deadlineMillis;
+	}
+
+	public void setDeadlineMillis(long deadlineMillis) {
+		this.deadlineMillis = deadlineMillis;
+	}
+
+	public long getConflictBaseMicros() {
+		return conflictBaseMicros;
+	}
+
+	public void setConflictBaseMicros(long conflictBaseMicros) {
+		this.conflictBaseMicros = conflictBaseMicros;
+	}
+
+	public long getConflictMaxMicros() {
+		return conflictMaxMicros;
+	}
+
+	public void setConflictMaxMicros(long conflictMaxMicros) {
+		this.conflictMaxMicros = conflictMaxMicros;
+	}
+
+	public long getFailureBaseMillis() {
+		return failureBaseMillis;
+	}
+
+	public void setFailureBaseMillis(long failureBaseMillis) {
+		this.failureBaseMillis = failureBaseMillis;
+	}
+
+	public long getFailureMaxMillis() {
+		return failureMaxMillis;
+	}
+
+	public void setFailureMaxMillis(long failureMaxMillis) {
+		this.failureMaxMillis = failureMaxMillis;
+	}
+
+	public RetryBudget getRetryBudget() {
+		return retryBudget;
+	}
+
+	/**
+	 * 设置共用的重试预算，多个DAO可以使用同一个预算
+	 *
+	 * @param retryBudget 重试预算，为null时不限制
+	 */
+	public void setRetryBudget(RetryBudget retryBudget) {
+		this.retryBudget = retryBudget;
+	}
+}
@@ -0,0 +1,111 @@
+package com.lyle.common.sequence.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重试预算：多个sequence(甚至多个DAO)共用的令牌桶，每次重试消耗一个令牌，令牌用完时放弃重试，避免故障期间重试放大对db的压力。<br>
+ * 令牌来源有两个：每次成功获取sequence段存入percentCanRetry%个令牌，即重试量最多为正常请求量的一定比例；
+ * 另外每秒固定补充minRetriesPerSecond个令牌，保证请求量很少时也能重试。令牌数不超过maxBalance。<br>
+ * 内部以千分之一令牌为单位计数，全部操作为CAS，不加锁。
+ */
+public class RetryBudget {
+
+	/** 默认每次成功获取存入的令牌百分比 */
+	public static final int DEFAULT_PERCENT_CAN_RETRY = 20;
+	/** 默认每秒固定补充的令牌数 */
+	public static final int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+	/** 默认最多积累的令牌数 */
+	public static final int DEFAULT_MAX_BALANCE = 100;
+
+	/** 一个令牌 */
+	private static final long TOKEN = 1000;
+
+	private final int percentCanRetry;
+	private final int minRetriesPerSecond;
+	private final long maxBalance;
+
+	/** 当前的令牌数，单位千分之一令牌 */
+	private final AtomicLong balance;
+	/** 上次按时间补充令牌的时间，单位毫秒 */
+	private final AtomicLong lastRefillTime = new AtomicLong(System.currentTimeMillis());
+
+	public RetryBudget() {
+		this(DEFAULT_PERCENT_CAN_RETRY, DEFAULT_MIN_RETRIES_PER_SECOND, DEFAULT_MAX_BALANCE);
+	}
+
+	/**
+	 * @param percentCanRetry     每次成功获取存入的令牌百分比
+	 * @param minRetriesPerSecond 每秒固定补充的令牌数
+	 * @param maxBalance          最多积累的令牌数，初始时令牌是满的
+	 */
+	public RetryBudget(int percentCanRetry, int minRetriesPerSecond, int maxBalance) {
+		if (percentCanRetry < 0 || minRetriesPerSecond < 0 || maxBalance <= 0) {
+			throw new IllegalArgumentException("ERROR ## the retry budget is illegal, percentCanRetry=" + percentCanRetry
+					+ ",minRetriesPerSecond=" + minRetriesPerSecond + ",maxBalance=" + maxBalance);
+		}
+		this.percentCanRetry = percentCanRetry;
+		this.minRetriesPerSecond = minRetriesPerSecond;
+		this.maxBalance = maxBalance * TOKEN;
+		this.balance = new AtomicLong(this.maxBalance);
+	}
+
+	/**
+	 * 成功获取一次sequence段，存入percentCanRetry%个令牌
+	 */
+	public void onSuccess() {
+		deposit(percentCanRetry * TOKEN / 100);
+	}
+
+	/**
+	 * 尝试取出一个令牌用于重试
+	 *
+	 * @return 是否取到
+	 */
+	public boolean tryWithdraw() {
+		refill();
+		for (;;) {
+			long current = balance.get();
+			if (current < TOKEN) {
+				return false;
+			}
+			if (balance.compareAndSet(current, current - TOKEN)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * 当前的令牌数
+	 *
+	 * @return 令牌数，不足一个的部分舍去
+	 */
+	public long getBalance() {
+		refill();
+		return balance.get() / TOKEN;
+	}
+
+	/**
+	 * 按距上次补充的时间补充令牌，只有一个线程能补充同一段时间
+	 */
+	private void refill() {
+		long last = lastRefillTime.get();
+		long now = System.currentTimeMillis();
+		if (now > last && lastRefillTime.compareAndSet(last, now)) {
+			// 每秒minRetriesPerSecond个令牌，即每毫秒minRetriesPerSecond个千分之一令牌
+			deposit((now - last) * minRetriesPerSecond);
+		}
+	}
+
+	private void deposit(long amount) {
+		if (amount <= 0) {
+			return;
+		}
+		for (;;) {
+			long current = balance.get();
+			long next = Math.min(maxBalance, current + amount);
+			if (next == current || balance.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.lyle.common.sequence.retry;
+
+/**
+ * 获取sequence段需要重试的原因
+ */
+public enum RetryCause {
+
+	/**
+	 * 乐观锁更新冲突：数据库正常，只是并发更新同一条记录，短暂退避后重试即可
+	 */
+	CONFLICT,
+
+	/**
+	 * 某个数据源访问出错(连接或sql异常)，该数据源已被排除，可以立即换其他数据源重试
+	 */
+	FAILURE,
+
+	/**
+	 * 所有数据源都出错或者被熔断，需要较长时间的退避后再重试
+	 */
+	UNAVAILABLE
+
+}
@@ -0,0 +1,59 @@
+package com.lyle.common.sequence.retry;
+
+import java.util.concurrent.TimeUnit;
+
+import com.lyle.common.sequence.exception.SequenceException;
+
+/**
+ * 获取sequence段的重试策略，由DAO在每次获取失败后调用；实现类须线程安全，所有sequence共用一个实例
+ */
+public interface RetryPolicy {
+
+	/**
+	 * 计算下一次重试前的等待时间
+	 *
+	 * @param sequenceName sequence名称
+	 * @param cause        本次失败的原因
+	 * @param retries      包括本次在内已经失败的次数，从1开始
+	 * @param elapsedNanos 本次获取sequence段已经花费的时间，单位纳秒
+	 * @return 等待的纳秒数，0表示立即重试，小于0表示放弃
+	 */
+	long getBackoffNanos(String sequenceName, RetryCause cause, int retries, long elapsedNanos);
+
+	/**
+	 * 获取sequence段成功
+	 *
+	 * @param sequenceName sequence名称
+	 * @param retries      成功之前失败的次数
+	 */
+	void onSuccess(String sequenceName, int retries);
+
+	/**
+	 * 按getBackoffNanos的结果等待，策略放弃时抛出异常，各DAO的重试循环共用
+	 *
+	 * @param sequenceName  sequence名称
+	 * @param cause         本次失败的原因
+	 * @param retries       包括本次在内已经失败的次数
+	 * @param beginTime     本次获取sequence段的开始时间，单位纳秒
+	 * @param giveUpMessage 放弃时异常信息的开头
+	 * @throws SequenceException 策略放弃或等待时被中断
+	 */
+	default void backoff(String sequenceName, RetryCause cause, int retries, long beginTime, String giveUpMessage)
+			throws SequenceException {
+		long elapsedNanos = System.nanoTime() - beginTime;
+		long backoffNanos = getBackoffNanos(sequenceName, cause, retries, elapsedNanos);
+		if (backoffNanos < 0) {
+			throw new SequenceException(giveUpMessage + ",sequenceName=" + sequenceName + ",重试次数retries=" + retries
+					+ ",耗时=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + "ms");
+		}
+		if (backoffNanos > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(backoffNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SequenceException("ERROR ## interrupted while retrying, sequenceName=" + sequenceName, e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,133 @@
+package com.lyle.common.sequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.lyle.common.sequence.exception.SequenceException;
+
+/**
+ * SnowflakeSequence在最大值边界、毫秒内计数借用和时钟回拨时的行为，时钟由测试控制
+ */
+public class SnowflakeSequenceTest {
+
+	/** 默认位数下每毫秒的计数个数 */
+	private static final int PER_MILLIS = 1 << 12;
+
+	@Test
+	public void lastMillisNeverExceedsMaxValue() throws Exception {
+		long maxValue = 1000000000000000L;
+		// 默认位数下能完整容纳在maxValue以内的最后一毫秒
+		long lastMillis = ((maxValue + 1) >>> 22) - 1;
+		ManualClockSequence sequence = new ManualClockSequence(lastMillis);
+		sequence.setWorkerId((1L << 10) - 1);
+		sequence.setMaxValue(maxValue);
+		sequence.init();
+
+		long[] values = sequence.nextValues(PER_MILLIS);
+		assertTrue(values[PER_MILLIS - 1] <= maxValue);
+		try {
+			// 借用下一毫秒的计数会超出maxValue
+			sequence.nextValue();
+			fail("the value should overflow after the last millisecond");
+		} catch (SequenceException e) {
+			assertTrue(e.getMessage().contains("overflow"));
+		}
+	}
+
+	@Test
+	public void initFailsWhenTheCurrentMillisCanNotFitUnderMaxValue() {
+		long maxValue = 1000000000000000L;
+		ManualClockSequence sequence = new ManualClockSequence((maxValue + 1) >>> 22);
+		sequence.setWorkerId((1L << 10) - 1);
+		sequence.setMaxValue(maxValue);
+		try {
+			sequence.init();
+			fail("init should fail when the current millisecond can not fit under the max value");
+		} catch (SequenceException e) {
+			assertTrue(e.getMessage().contains("out of the value range"));
+		}
+	}
+
+	@Test
+	public void fullLongRangeIsAllowed() throws Exception {
+		ManualClockSequence sequence = new ManualClockSequence(1000);
+		sequence.init();
+
+		assertEquals(1000L << 22, sequence.nextValue());
+	}
+
+	@Test
+	public void valuesIncreaseWhileBorrowingTheNextMillis() throws Exception {
+		ManualClockSequence sequence = new ManualClockSequence(1000);
+		sequence.setWorkerId(3);
+		sequence.init();
+
+		long previous = -1;
+		// 时钟不动，计数用完后连续借用后面两毫秒
+		for (int i = 0; i < PER_MILLIS * 3; i++) {
+			long value = i % 2 == 0 ? sequence.nextValue() : sequence.nextValues(1)[0];
+			assertTrue("value " + value + " is not greater than " + previous, value > previous);
+			assertEquals(3, (value >>> 12) & ((1L << 10) - 1));
+			previous = value;
+		}
+		assertEquals(1002, previous >>> 22);
+
+		long[] values = sequence.nextValues(PER_MILLIS);
+		for (long value : values) {
+			assertTrue(value > previous);
+			previous = value;
+		}
+	}
+
+	@Test
+	public void smallClockRollbackContinuesTheLogicalClock() throws Exception {
+		ManualClockSequence sequence = new ManualClockSequence(1000);
+		sequence.init();
+		long before = sequence.nextValue();
+
+		sequence.now = 995;
+		long after = sequence.nextValue();
+
+		assertTrue(after > before);
+		assertEquals(1000, after >>> 22);
+	}
+
+	@Test
+	public void largeClockRollbackIsRefused() throws Exception {
+		ManualClockSequence sequence = new ManualClockSequence(1000);
+		sequence.init();
+		long before = sequence.nextValue();
+
+		sequence.now = 1000 - sequence.getMaxClockBackwardMillis() - 1;
+		try {
+			sequence.nextValue();
+			fail("the sequence should refuse to generate id after the clock moved backwards");
+		} catch (SequenceException e) {
+			assertTrue(e.getMessage().contains("Clock moved backwards"));
+		}
+
+		sequence.now = 1001;
+		assertTrue(sequence.nextValue() > before);
+	}
+
+	/**
+	 * 时钟由测试设置的sequence
+	 */
+	private static class ManualClockSequence extends SnowflakeSequence {
+
+		private volatile long now;
+
+		ManualClockSequence(long now) {
+			super("test", 0);
+			this.now = now;
+		}
+
+		@Override
+		protected long currentTimestamp() {
+			return now;
+		}
+	}
+}
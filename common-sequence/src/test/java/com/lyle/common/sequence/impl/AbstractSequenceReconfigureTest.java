@@ -0,0 +1,122 @@
+package com.lyle.common.sequence.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.exception.SequenceException;
+
+/**
+ * 运行中调小最大值后，按旧边界取到的段(待用队列、预取结果、当前段)不再发放超出新最大值的值
+ */
+public class AbstractSequenceReconfigureTest {
+
+	private static final int STEP = 100;
+
+	@Test
+	public void pendingRangesAboveNewMaxAreDiscarded() throws Exception {
+		StubSequence sequence = new StubSequence();
+		assertEquals(0, sequence.nextValue());
+		sequence.offerRange(sequence.take(1).get(0));
+		sequence.offerRange(sequence.take(1).get(0));
+
+		sequence.reconfigure(0, 150, STEP);
+
+		assertEquals(99, drainUntilFailure(sequence, 150));
+	}
+
+	@Test
+	public void prefetchedRangesAboveNewMaxAreDiscarded() throws Exception {
+		StubSequence sequence = new StubSequence();
+		sequence.setPrefetch(true);
+		sequence.setPrefetchExecutor(new Executor() {
+			public void execute(Runnable command) {
+				command.run();
+			}
+		});
+		// 取到预取阈值，同步执行的预取把下一段放进备用槽
+		for (int i = 0; i <= 80; i++) {
+			sequence.nextValue();
+		}
+		assertEquals(2, sequence.fetches);
+
+		sequence.reconfigure(0, 150, STEP);
+
+		assertEquals(99, drainUntilFailure(sequence, 150));
+	}
+
+	@Test
+	public void currentRangeAboveNewMaxIsRetired() throws Exception {
+		StubSequence sequence = new StubSequence();
+		assertEquals(0, sequence.nextValue());
+
+		sequence.reconfigure(0, 50, STEP);
+
+		assertEquals(-1, drainUntilFailure(sequence, 50));
+	}
+
+	@Test
+	public void currentRangeWithinNewBoundsIsKept() throws Exception {
+		StubSequence sequence = new StubSequence();
+		assertEquals(0, sequence.nextValue());
+
+		sequence.reconfigure(0, 150, STEP);
+
+		assertEquals(1, sequence.nextValue());
+		assertEquals(1, sequence.fetches);
+	}
+
+	/**
+	 * 一直取值直到失败，返回最后一个成功取得的值，并检查所有值都在最大值以内
+	 */
+	private static long drainUntilFailure(StubSequence sequence, long maxValue) {
+		long last = -1;
+		try {
+			for (;;) {
+				long value = sequence.nextValue();
+				assertTrue("value " + value + " is above the max value", value <= maxValue);
+				last = value;
+			}
+		} catch (SequenceException e) {
+			return last;
+		}
+	}
+
+	/**
+	 * 按顺序分配段的sequence，超出最大值时和db一样抛出异常
+	 */
+	private static class StubSequence extends AbstractSequence {
+
+		private long next = 0;
+
+		private int fetches = 0;
+
+		StubSequence() {
+			super("test", 0, 1000, STEP);
+		}
+
+		List<SequenceRange> take(int rounds) throws SequenceException {
+			List<SequenceRange> ranges = new ArrayList<SequenceRange>();
+			for (int i = 0; i < rounds; i++) {
+				if (next + STEP - 1 > getMaxValue()) {
+					throw new SequenceException("sequence is over the max value");
+				}
+				ranges.add(new SequenceRange(next, next + STEP - 1));
+				next += STEP;
+			}
+			fetches++;
+			return ranges;
+		}
+
+		@Override
+		protected List<SequenceRange> fetchRanges(int rounds) throws SequenceException {
+			return take(rounds);
+		}
+	}
+}
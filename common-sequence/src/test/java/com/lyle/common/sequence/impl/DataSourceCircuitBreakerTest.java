@@ -0,0 +1,223 @@
+package com.lyle.common.sequence.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lyle.common.sequence.SequenceRange;
+
+/**
+ * 通过可注入故障的数据源驱动熔断器的状态转换：关闭→打开→半开→关闭/打开，半开时只有一个探测线程
+ */
+public class DataSourceCircuitBreakerTest {
+
+	private static final String NAME = "test";
+
+	private static final int STEP = 100;
+
+	private static final int SLIDING_WINDOW_SIZE = 10;
+
+	private static final int MINIMUM_NUMBER_OF_CALLS = 5;
+
+	private static final int FAILURE_RATE_THRESHOLD = 50;
+
+	private static final long OPEN_STATE_MILLIS = 200;
+
+	private EmbeddedH2 h2;
+
+	private FaultInjectingDataSource ds;
+
+	private DefaultSequenceDAO dao;
+
+	private SequenceDataSourceHolder holder;
+
+	private DataSourceCircuitBreaker circuitBreaker;
+
+	@Before
+	public void setUp() throws Exception {
+		h2 = new EmbeddedH2();
+		ds = new FaultInjectingDataSource(h2.getDataSource());
+		holder = new SequenceDataSourceHolder(ds);
+		dao = new DefaultSequenceDAO();
+		dao.setSequenceDataSourceHolder(holder);
+		dao.setSlidingWindowSize(SLIDING_WINDOW_SIZE);
+		dao.setMinimumNumberOfCalls(MINIMUM_NUMBER_OF_CALLS);
+		dao.setFailureRateThreshold(FAILURE_RATE_THRESHOLD);
+		dao.setOpenStateMillis(OPEN_STATE_MILLIS);
+		dao.init();
+		dao.initSequenceRecord(NAME, 0, Long.MAX_VALUE, STEP);
+		circuitBreaker = holder.getCircuitBreaker();
+	}
+
+	@After
+	public void tearDown() {
+		ds.setGate(null);
+		dao.destroy();
+		h2.shutdown();
+	}
+
+	@Test
+	public void opensWhenFailureRateIsExceeded() {
+		for (int i = 0; i < MINIMUM_NUMBER_OF_CALLS; i++) {
+			assertNotNull(allocate(new ArrayList<Integer>()));
+		}
+		ds.setFailing(true);
+		// 窗口里5次成功，出错4次时出错率为4/9，低于阈值
+		for (int i = 0; i < 4; i++) {
+			List<Integer> excludeIndexes = new ArrayList<Integer>();
+			assertNull(allocate(excludeIndexes));
+			assertTrue(excludeIndexes.contains(0));
+			assertEquals("CLOSED", circuitBreaker.getState());
+		}
+		// 第5次出错，出错率为5/10，达到阈值
+		assertNull(allocate(new ArrayList<Integer>()));
+		assertEquals("OPEN", circuitBreaker.getState());
+
+		// 打开期间直接跳过该数据源，不再获取连接
+		int connections = ds.getConnectionCount();
+		List<Integer> excludeIndexes = new ArrayList<Integer>();
+		assertNull(allocate(excludeIndexes));
+		assertTrue(excludeIndexes.contains(0));
+		assertEquals(connections, ds.getConnectionCount());
+	}
+
+	@Test
+	public void doesNotOpenBelowMinimumNumberOfCalls() {
+		ds.setFailing(true);
+		for (int i = 0; i < MINIMUM_NUMBER_OF_CALLS - 1; i++) {
+			assertNull(allocate(new ArrayList<Integer>()));
+			assertEquals("CLOSED", circuitBreaker.getState());
+		}
+		assertNull(allocate(new ArrayList<Integer>()));
+		assertEquals("OPEN", circuitBreaker.getState());
+	}
+
+	@Test
+	public void halfOpensAfterOpenStateMillis() throws Exception {
+		open();
+		assertFalse(circuitBreaker.tryAcquireProbe());
+		assertEquals("OPEN", circuitBreaker.getState());
+
+		Thread.sleep(OPEN_STATE_MILLIS + 50);
+		assertTrue(circuitBreaker.tryAcquireProbe());
+		assertEquals("HALF_OPEN", circuitBreaker.getState());
+		// 探测线程没有结束前，其他线程不能再成为探测线程
+		assertFalse(circuitBreaker.tryAcquireProbe());
+	}
+
+	@Test
+	public void onlyOneProbeWhenHalfOpen() throws Exception {
+		open();
+		ds.setFailing(false);
+		Thread.sleep(OPEN_STATE_MILLIS + 50);
+
+		CountDownLatch gate = new CountDownLatch(1);
+		ds.setGate(gate);
+		int connections = ds.getConnectionCount();
+		int threads = 16;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<List<SequenceRange>>> futures = new ArrayList<Future<List<SequenceRange>>>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(new Callable<List<SequenceRange>>() {
+					public List<SequenceRange> call() throws Exception {
+						start.await();
+						return allocate(new ArrayList<Integer>());
+					}
+				}));
+			}
+			start.countDown();
+
+			// 除探测线程外都直接跳过该数据源，探测线程阻塞在获取连接上
+			int skipped = 0;
+			long deadline = System.currentTimeMillis() + 5000;
+			while (skipped < threads - 1 && System.currentTimeMillis() < deadline) {
+				skipped = 0;
+				for (Future<List<SequenceRange>> future : futures) {
+					if (future.isDone()) {
+						assertNull(future.get());
+						skipped++;
+					}
+				}
+				Thread.sleep(10);
+			}
+			assertEquals(threads - 1, skipped);
+			assertEquals(connections + 1, ds.getConnectionCount());
+			assertEquals("HALF_OPEN", circuitBreaker.getState());
+
+			gate.countDown();
+			int probed = 0;
+			for (Future<List<SequenceRange>> future : futures) {
+				if (future.get(5, TimeUnit.SECONDS) != null) {
+					probed++;
+				}
+			}
+			assertEquals(1, probed);
+			assertEquals("CLOSED", circuitBreaker.getState());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void closesWhenProbeSucceeds() throws Exception {
+		open();
+		ds.setFailing(false);
+		Thread.sleep(OPEN_STATE_MILLIS + 50);
+
+		assertNotNull(allocate(new ArrayList<Integer>()));
+		assertEquals("CLOSED", circuitBreaker.getState());
+		// 关闭后重新统计，之前的出错不再计入
+		ds.setFailing(true);
+		assertNull(allocate(new ArrayList<Integer>()));
+		assertEquals("CLOSED", circuitBreaker.getState());
+	}
+
+	@Test
+	public void reopensWhenProbeFails() throws Exception {
+		open();
+		Thread.sleep(OPEN_STATE_MILLIS + 50);
+
+		List<Integer> excludeIndexes = new ArrayList<Integer>();
+		assertNull(allocate(excludeIndexes));
+		assertTrue(excludeIndexes.contains(0));
+		assertEquals("OPEN", circuitBreaker.getState());
+
+		// 重新打开后要再等openStateMillis才会探测
+		int connections = ds.getConnectionCount();
+		assertNull(allocate(new ArrayList<Integer>()));
+		assertEquals(connections, ds.getConnectionCount());
+		assertEquals("OPEN", circuitBreaker.getState());
+	}
+
+	/**
+	 * 连续出错直到熔断打开
+	 */
+	private void open() {
+		ds.setFailing(true);
+		for (int i = 0; i < MINIMUM_NUMBER_OF_CALLS; i++) {
+			allocate(new ArrayList<Integer>());
+		}
+		assertEquals("OPEN", circuitBreaker.getState());
+	}
+
+	private List<SequenceRange> allocate(List<Integer> excludeIndexes) {
+		return holder.tryOnSelectedDataSource(0, NAME, 0, Long.MAX_VALUE, STEP, STEP, 1, excludeIndexes);
+	}
+}
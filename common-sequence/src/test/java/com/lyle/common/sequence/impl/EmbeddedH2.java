@@ -0,0 +1,61 @@
+package com.lyle.common.sequence.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+/**
+ * 测试用的H2内存库，带连接池并建好默认结构的sequence表；每个实例是一个独立的库
+ */
+class EmbeddedH2 {
+
+	/** 建表语句，和sequence默认的表结构一致 */
+	private static final String CREATE_TABLE_SQL = "create table sequence(name varchar(64) primary key, "
+			+ "value bigint not null, min_value bigint not null, max_value bigint not null, step int not null, "
+			+ "gmt_create timestamp, gmt_modified timestamp)";
+
+	/** 保证每次创建的库名不重复 */
+	private static final AtomicInteger DATABASE_NUMBER = new AtomicInteger(0);
+
+	private final JdbcConnectionPool pool;
+
+	EmbeddedH2() throws SQLException {
+		String url = "jdbc:h2:mem:sequence-test" + DATABASE_NUMBER.incrementAndGet()
+				+ ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000";
+		pool = JdbcConnectionPool.create(url, "sa", "");
+		pool.setMaxConnections(32);
+		execute(CREATE_TABLE_SQL);
+	}
+
+	DataSource getDataSource() {
+		return pool;
+	}
+
+	void execute(String sql) throws SQLException {
+		Connection con = pool.getConnection();
+		try {
+			Statement stmt = con.createStatement();
+			try {
+				stmt.execute(sql);
+			} finally {
+				stmt.close();
+			}
+		} finally {
+			con.close();
+		}
+	}
+
+	void shutdown() {
+		try {
+			execute("shutdown");
+		} catch (SQLException e) {
+			// 关闭时出错不影响测试结果
+		}
+		pool.dispose();
+	}
+}
@@ -0,0 +1,90 @@
+package com.lyle.common.sequence.impl;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * 可注入故障的数据源包装：failing时获取连接直接抛出SQLException，设置gate时获取连接阻塞到gate打开，并统计获取连接的次数
+ */
+class FaultInjectingDataSource implements DataSource {
+
+	private final DataSource target;
+	private final AtomicInteger connections = new AtomicInteger(0);
+	private volatile boolean failing = false;
+	private volatile CountDownLatch gate;
+
+	FaultInjectingDataSource(DataSource target) {
+		this.target = target;
+	}
+
+	void setFailing(boolean failing) {
+		this.failing = failing;
+	}
+
+	void setGate(CountDownLatch gate) {
+		this.gate = gate;
+	}
+
+	/**
+	 * 获取连接的次数，包括失败的
+	 */
+	int getConnectionCount() {
+		return connections.get();
+	}
+
+	public Connection getConnection() throws SQLException {
+		connections.incrementAndGet();
+		CountDownLatch g = gate;
+		if (g != null) {
+			try {
+				g.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("interrupted", e);
+			}
+		}
+		if (failing) {
+			throw new SQLException("injected fault");
+		}
+		return target.getConnection();
+	}
+
+	public Connection getConnection(String username, String password) throws SQLException {
+		return getConnection();
+	}
+
+	public PrintWriter getLogWriter() throws SQLException {
+		return target.getLogWriter();
+	}
+
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		target.setLogWriter(out);
+	}
+
+	public void setLoginTimeout(int seconds) throws SQLException {
+		target.setLoginTimeout(seconds);
+	}
+
+	public int getLoginTimeout() throws SQLException {
+		return target.getLoginTimeout();
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		throw new SQLException("not a wrapper");
+	}
+
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return false;
+	}
+}
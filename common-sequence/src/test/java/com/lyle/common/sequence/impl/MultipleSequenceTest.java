@@ -0,0 +1,31 @@
+package com.lyle.common.sequence.impl;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import com.lyle.common.sequence.exception.SequenceException;
+
+/**
+ * 未初始化的MultipleSequence不能取值
+ */
+public class MultipleSequenceTest {
+
+	@Test
+	public void nextValueAsyncFailsBeforeInit() throws Exception {
+		MultipleSequence sequence = new MultipleSequence(new MultipleSequenceDAO(), "test", 0, Long.MAX_VALUE, 100);
+
+		CompletableFuture<Long> future = sequence.nextValueAsync();
+		assertTrue(future.isCompletedExceptionally());
+		try {
+			future.get();
+			fail("the future should fail before init");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SequenceException);
+		}
+	}
+}
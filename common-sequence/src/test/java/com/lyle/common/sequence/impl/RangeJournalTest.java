@@ -0,0 +1,134 @@
+package com.lyle.common.sequence.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.lyle.common.sequence.SequenceRange;
+
+/**
+ * 日志关闭后释放文件锁，同一进程内可以重新打开并恢复；预留的值发放过半时在后台提前推进高水位
+ */
+public class RangeJournalTest {
+
+	/** 在调用线程执行任务 */
+	private static final Executor DIRECT = new Executor() {
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void reopenAfterClose() throws Exception {
+		String dir = folder.getRoot().getPath();
+		RangeJournal journal = RangeJournal.open(dir, "test", 0, Long.MAX_VALUE, 100, 10, true, DIRECT);
+		assertNotNull(journal);
+		SequenceRange range = new SequenceRange(100, 199);
+		journal.start(range);
+		journal.reserve(range, 125);
+
+		// 未关闭时同一进程内不能再打开
+		assertNull(RangeJournal.open(dir, "test", 0, Long.MAX_VALUE, 100, 10, true, DIRECT));
+
+		journal.close();
+		journal.close();
+		RangeJournal reopened = RangeJournal.open(dir, "test", 0, Long.MAX_VALUE, 100, 10, true, DIRECT);
+		assertNotNull(reopened);
+		SequenceRange recovered = reopened.recover();
+		assertEquals(135, recovered.getMin());
+		assertEquals(199, recovered.getMax());
+		reopened.close();
+	}
+
+	@Test
+	public void closedJournalIsNotWritten() throws Exception {
+		String dir = folder.getRoot().getPath();
+		RangeJournal journal = RangeJournal.open(dir, "test", 0, Long.MAX_VALUE, 100, 10, true, DIRECT);
+		journal.start(new SequenceRange(0, 99));
+		journal.close();
+		journal.start(new SequenceRange(500, 599));
+
+		RangeJournal reopened = RangeJournal.open(dir, "test", 0, Long.MAX_VALUE, 100, 10, true, DIRECT);
+		assertEquals(10, reopened.recover().getMin());
+		reopened.close();
+		assertTrue(new File(dir, "test.journal").isFile());
+	}
+
+	@Test
+	public void markIsAdvancedAheadInBackground() throws Exception {
+		QueuedExecutor executor = new QueuedExecutor();
+		RangeJournal journal = RangeJournal.open(folder.getRoot().getPath(), "test", 0, Long.MAX_VALUE, 100, 10,
+				true, executor);
+		SequenceRange range = new SequenceRange(100, 199);
+		journal.start(range);
+
+		// 未过半时不提交任务
+		journal.reserve(range, 104);
+		assertTrue(executor.tasks.isEmpty());
+		// 过半时只提交一个任务，取值线程不写日志
+		journal.reserve(range, 105);
+		journal.reserve(range, 106);
+		assertEquals(1, executor.tasks.size());
+		assertFalse(journal.isReserved(range, 110));
+
+		executor.runAll();
+		assertTrue(journal.isReserved(range, 119));
+		assertFalse(journal.isReserved(range, 120));
+
+		journal.reserve(range, 115);
+		journal.close();
+		// 关闭后任务不再写日志
+		executor.runAll();
+		RangeJournal reopened = RangeJournal.open(folder.getRoot().getPath(), "test", 0, Long.MAX_VALUE, 100, 10,
+				true, DIRECT);
+		assertEquals(120, reopened.recover().getMin());
+		reopened.close();
+	}
+
+	@Test
+	public void lastReservationOfRangeIsNotAdvanced() throws Exception {
+		QueuedExecutor executor = new QueuedExecutor();
+		RangeJournal journal = RangeJournal.open(folder.getRoot().getPath(), "test", 0, Long.MAX_VALUE, 100, 10,
+				true, executor);
+		SequenceRange range = new SequenceRange(100, 109);
+		journal.start(range);
+
+		journal.reserve(range, 109);
+		assertTrue(executor.tasks.isEmpty());
+		journal.close();
+	}
+
+	/**
+	 * 先保存任务，由测试决定何时执行
+	 */
+	private static class QueuedExecutor implements Executor {
+
+		private final List<Runnable> tasks = new ArrayList<Runnable>();
+
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll() {
+			List<Runnable> pending = new ArrayList<Runnable>(tasks);
+			tasks.clear();
+			for (Runnable task : pending) {
+				task.run();
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package com.lyle.common.sequence.impl;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+/**
+ * 记录预编译过的sql的数据源包装。<br>
+ * 开启postgreSQL模拟时，数据库类型报告为PostgreSQL，并在H2上模拟update ... returning：
+ * 同一连接、同一事务内先执行update，再按名称查询新值作为结果集返回
+ */
+class RecordingDataSource implements DataSource {
+
+	private static final String RETURNING = " returning ";
+
+	private final DataSource target;
+	private final boolean postgreSQL;
+	private final List<String> preparedSqls = new CopyOnWriteArrayList<String>();
+
+	RecordingDataSource(DataSource target, boolean postgreSQL) {
+		this.target = target;
+		this.postgreSQL = postgreSQL;
+	}
+
+	/**
+	 * 是否预编译过包含该片段的sql
+	 */
+	boolean hasPrepared(String fragment) {
+		for (String sql : preparedSqls) {
+			if (sql.toLowerCase().contains(fragment)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 预编译过的以该片段开头的sql个数
+	 */
+	int countPrepared(String prefix) {
+		int count = 0;
+		for (String sql : preparedSqls) {
+			if (sql.toLowerCase().startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	void clear() {
+		preparedSqls.clear();
+	}
+
+	public Connection getConnection() throws SQLException {
+		return wrap(target.getConnection());
+	}
+
+	public Connection getConnection(String username, String password) throws SQLException {
+		return wrap(target.getConnection(username, password));
+	}
+
+	private Connection wrap(final Connection con) {
+		return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("prepareStatement") && args.length == 1) {
+							String sql = (String) args[0];
+							preparedSqls.add(sql);
+							int returning = sql.toLowerCase().indexOf(RETURNING);
+							if (postgreSQL && returning > 0) {
+								return returningStatement(con, sql.substring(0, returning),
+										sql.substring(returning + RETURNING.length()).trim());
+							}
+						}
+						if (postgreSQL && method.getName().equals("getMetaData")) {
+							return postgreSQLMetaData(con.getMetaData());
+						}
+						return invokeTarget(con, method, args);
+					}
+				});
+	}
+
+	private static DatabaseMetaData postgreSQLMetaData(final DatabaseMetaData metaData) {
+		return (DatabaseMetaData) Proxy.newProxyInstance(RecordingDataSource.class.getClassLoader(),
+				new Class<?>[] { DatabaseMetaData.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("getDatabaseProductName")) {
+							return "PostgreSQL";
+						}
+						return invokeTarget(metaData, method, args);
+					}
+				});
+	}
+
+	/**
+	 * 模拟update ... returning column：参数交给update语句，executeQuery时先更新再查询该列的新值，
+	 * 约定update语句最后一个参数是sequence名称
+	 */
+	private static PreparedStatement returningStatement(final Connection con, String updateSql,
+			final String column) throws SQLException {
+		final PreparedStatement update = con.prepareStatement(updateSql);
+		final String table = updateSql.trim().split("\\s+")[1];
+		final String whereColumn = updateSql.substring(updateSql.toLowerCase().lastIndexOf(" where ") + 7)
+				.split("=")[0].trim();
+		final int parameterCount = updateSql.length() - updateSql.replace("?", "").length();
+		final Object[] name = new Object[1];
+		return (PreparedStatement) Proxy.newProxyInstance(RecordingDataSource.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().startsWith("set") && args != null && args.length == 2
+								&& ((Integer) args[0]).intValue() == parameterCount) {
+							name[0] = args[1];
+						}
+						if (method.getName().equals("executeQuery")) {
+							if (update.executeUpdate() == 0) {
+								throw new SQLException("no row updated");
+							}
+							PreparedStatement select = con.prepareStatement(
+									"select " + column + " from " + table + " where " + whereColumn + " = ?");
+							select.setObject(1, name[0]);
+							select.closeOnCompletion();
+							return select.executeQuery();
+						}
+						return invokeTarget(update, method, args);
+					}
+				});
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	public PrintWriter getLogWriter() throws SQLException {
+		return target.getLogWriter();
+	}
+
+	public void setLogWriter(PrintWriter out) throws SQLException {
+		target.setLogWriter(out);
+	}
+
+	public void setLoginTimeout(int seconds) throws SQLException {
+		target.setLoginTimeout(seconds);
+	}
+
+	public int getLoginTimeout() throws SQLException {
+		return target.getLoginTimeout();
+	}
+
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		throw new SQLException("not a wrapper");
+	}
+
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return false;
+	}
+}
@@ -0,0 +1,204 @@
+package com.lyle.common.sequence.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lyle.common.sequence.SequenceRange;
+import com.lyle.common.sequence.SequenceRequest;
+
+/**
+ * 各分配方式在H2上的行为：并发获取的区间首尾相连且互不重叠，AUTO按数据库类型选择方式，自增越界时回退到行锁方式
+ */
+public class SequenceDataSourceHolderAllocateTest {
+
+	private static final String NAME = "test";
+
+	private static final int STEP = 100;
+
+	private static final int THREADS = 8;
+
+	private static final int CALLS_PER_THREAD = 50;
+
+	private EmbeddedH2 h2;
+
+	private List<DefaultSequenceDAO> daos = new ArrayList<DefaultSequenceDAO>();
+
+	@Before
+	public void setUp() throws Exception {
+		h2 = new EmbeddedH2();
+	}
+
+	@After
+	public void tearDown() {
+		for (DefaultSequenceDAO dao : daos) {
+			dao.destroy();
+		}
+		h2.shutdown();
+	}
+
+	@Test
+	public void casRangesAreContiguousUnderConcurrency() throws Exception {
+		assertContiguous(concurrentRanges(newDAO(AllocateMode.CAS, h2.getDataSource(), Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void forUpdateRangesAreContiguousUnderConcurrency() throws Exception {
+		assertContiguous(concurrentRanges(newDAO(AllocateMode.FOR_UPDATE, h2.getDataSource(), Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void incrementRangesAreContiguousUnderConcurrency() throws Exception {
+		assertContiguous(concurrentRanges(newDAO(AllocateMode.INCREMENT, h2.getDataSource(), Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void returningRangesAreContiguousUnderConcurrency() throws Exception {
+		RecordingDataSource ds = new RecordingDataSource(h2.getDataSource(), true);
+		DefaultSequenceDAO dao = newDAO(AllocateMode.RETURNING, ds, Long.MAX_VALUE);
+		ds.clear();
+
+		assertContiguous(concurrentRanges(dao));
+		assertTrue(ds.hasPrepared(" returning "));
+		assertFalse(ds.hasPrepared(" for update"));
+	}
+
+	@Test
+	public void autoResolvesToReturningOnPostgreSQL() throws Exception {
+		RecordingDataSource ds = new RecordingDataSource(h2.getDataSource(), true);
+		DefaultSequenceDAO dao = newDAO(AllocateMode.AUTO, ds, Long.MAX_VALUE);
+		ds.clear();
+
+		assertEquals(0, dao.nextRange(NAME, 0, Long.MAX_VALUE, STEP).getMin());
+		assertEquals(STEP, dao.nextRange(NAME, 0, Long.MAX_VALUE, STEP).getMin());
+		assertTrue(ds.hasPrepared(" returning "));
+	}
+
+	@Test
+	public void autoResolvesToIncrementOnOtherDatabases() throws Exception {
+		RecordingDataSource ds = new RecordingDataSource(h2.getDataSource(), false);
+		DefaultSequenceDAO dao = newDAO(AllocateMode.AUTO, ds, Long.MAX_VALUE);
+		ds.clear();
+
+		assertEquals(0, dao.nextRange(NAME, 0, Long.MAX_VALUE, STEP).getMin());
+		assertEquals(STEP, dao.nextRange(NAME, 0, Long.MAX_VALUE, STEP).getMin());
+		assertFalse(ds.hasPrepared(" returning "));
+		assertFalse(ds.hasPrepared(" for update"));
+	}
+
+	@Test
+	public void incrementFallsBackToForUpdateWhenWrapping() throws Exception {
+		long maxValue = 10 * STEP - 1;
+		RecordingDataSource ds = new RecordingDataSource(h2.getDataSource(), false);
+		DefaultSequenceDAO dao = newDAO(AllocateMode.INCREMENT, ds, maxValue);
+		ds.clear();
+
+		for (int i = 0; i < 10; i++) {
+			SequenceRange range = dao.nextRange(NAME, 0, maxValue, STEP);
+			assertEquals((long) i * STEP, range.getMin());
+			assertEquals((long) i * STEP + STEP - 1, range.getMax());
+		}
+		assertTrue(ds.hasPrepared(" for update"));
+
+		// 越界后从最小值重新开始，之后继续走自增
+		assertEquals(0, dao.nextRange(NAME, 0, maxValue, STEP).getMin());
+		assertEquals(STEP, dao.nextRange(NAME, 0, maxValue, STEP).getMin());
+	}
+
+	@Test
+	public void batchAllocateUsesDedicatedConnection() throws Exception {
+		RecordingDataSource ds = new RecordingDataSource(h2.getDataSource(), false);
+		DefaultSequenceDAO dao = new DefaultSequenceDAO();
+		dao.setSequenceDataSourceHolder(new SequenceDataSourceHolder(ds));
+		dao.setDedicatedConnection(true);
+		dao.init();
+		daos.add(dao);
+		List<SequenceRequest> requests = new ArrayList<SequenceRequest>();
+		for (String name : new String[] { "a", "b", "c" }) {
+			dao.initSequenceRecord(name, 0, Long.MAX_VALUE, STEP);
+			requests.add(new SequenceRequest(name, 0, Long.MAX_VALUE, STEP));
+		}
+		ds.clear();
+
+		for (int i = 0; i < 2; i++) {
+			Map<String, SequenceRange> ranges = dao.nextRanges(requests);
+			assertEquals(requests.size(), ranges.size());
+			for (SequenceRequest request : requests) {
+				assertEquals((long) i * STEP, ranges.get(request.getName()).getMin());
+			}
+		}
+		// 批量更新语句缓存在专用连接上，只预编译一次
+		assertEquals(1, ds.countPrepared("update"));
+	}
+
+	private DefaultSequenceDAO newDAO(AllocateMode mode, DataSource ds, long maxValue) {
+		DefaultSequenceDAO dao = new DefaultSequenceDAO();
+		dao.setSequenceDataSourceHolder(new SequenceDataSourceHolder(ds));
+		dao.setAllocateMode(mode);
+		dao.init();
+		dao.initSequenceRecord(NAME, 0, maxValue, STEP);
+		daos.add(dao);
+		return dao;
+	}
+
+	private static List<SequenceRange> concurrentRanges(final DefaultSequenceDAO dao) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<List<SequenceRange>>> futures = new ArrayList<Future<List<SequenceRange>>>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(new Callable<List<SequenceRange>>() {
+					public List<SequenceRange> call() throws Exception {
+						start.await();
+						List<SequenceRange> ranges = new ArrayList<SequenceRange>();
+						for (int j = 0; j < CALLS_PER_THREAD; j++) {
+							ranges.add(dao.nextRange(NAME, 0, Long.MAX_VALUE, STEP));
+						}
+						return ranges;
+					}
+				}));
+			}
+			start.countDown();
+			List<SequenceRange> ranges = new ArrayList<SequenceRange>();
+			for (Future<List<SequenceRange>> future : futures) {
+				ranges.addAll(future.get());
+			}
+			return ranges;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * 按起始值排序后，第i个区间必须正好是[i*STEP, i*STEP+STEP-1]
+	 */
+	private static void assertContiguous(List<SequenceRange> ranges) {
+		assertEquals(THREADS * CALLS_PER_THREAD, ranges.size());
+		Collections.sort(ranges, new Comparator<SequenceRange>() {
+			public int compare(SequenceRange o1, SequenceRange o2) {
+				return Long.compare(o1.getMin(), o2.getMin());
+			}
+		});
+		for (int i = 0; i < ranges.size(); i++) {
+			assertEquals((long) i * STEP, ranges.get(i).getMin());
+			assertEquals((long) i * STEP + STEP - 1, ranges.get(i).getMax());
+		}
+	}
+}
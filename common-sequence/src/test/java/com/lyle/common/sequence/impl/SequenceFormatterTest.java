@@ -0,0 +1,132 @@
+package com.lyle.common.sequence.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Calendar;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.lyle.common.lang.util.StringUtils;
+
+/**
+ * SequenceFormatter的输出与改造前的实现(每次创建Calendar并用StringUtils.alignRight补0)一致，包括负数和超过补齐宽度的值
+ */
+public class SequenceFormatterTest {
+
+	private static final int ROUNDS = 100000;
+
+	private static final long[] EDGE_VALUES = { 0, 1, -1, 9, 10, -10, 99999999L, 100000000L, Long.MAX_VALUE,
+			Long.MIN_VALUE, Long.MIN_VALUE + 1 };
+
+	private final SequenceFormatter formatter = new SequenceFormatter();
+
+	private final Random random = new Random(20201018L);
+
+	@Test
+	public void widthOfMatchesStringLength() {
+		for (long value : EDGE_VALUES) {
+			assertEquals(String.valueOf(value).length(), SequenceFormatter.widthOf(value));
+		}
+		for (int i = 0; i < ROUNDS; i++) {
+			long value = randomValue();
+			assertEquals(String.valueOf(value).length(), SequenceFormatter.widthOf(value));
+		}
+	}
+
+	@Test
+	public void formatMatchesLegacy() {
+		for (long value : EDGE_VALUES) {
+			for (int width = -1; width <= 22; width++) {
+				assertFormat(null, value, width);
+				assertFormat("01", value, width);
+			}
+		}
+		for (int i = 0; i < ROUNDS; i++) {
+			assertFormat(randomCode(), randomValue(), random.nextInt(25) - 2);
+		}
+	}
+
+	@Test
+	public void formatNoDateMatchesLegacy() {
+		for (long value : EDGE_VALUES) {
+			for (int width = -1; width <= 22; width++) {
+				assertEquals(legacyAlign(value, width), formatter.formatNoDate(value, width));
+			}
+		}
+		for (int i = 0; i < ROUNDS; i++) {
+			long value = randomValue();
+			int width = random.nextInt(25) - 2;
+			assertEquals(legacyAlign(value, width), formatter.formatNoDate(value, width));
+		}
+	}
+
+	@Test
+	public void formatToAppendsToTheCallerBuffer() {
+		StringBuilder buffer = new StringBuilder("prefix-");
+		for (int i = 0; i < 1000; i++) {
+			buffer.setLength("prefix-".length());
+			long value = randomValue();
+			int width = random.nextInt(25) - 2;
+			String before = legacyDate();
+			formatter.formatTo(buffer, false, "AB", value, width);
+			assertEquals("prefix-AB" + legacyAlign(value, width), buffer.toString());
+			buffer.setLength("prefix-".length());
+			formatter.formatTo(buffer, true, null, value, width);
+			if (before.equals(legacyDate())) {
+				assertEquals("prefix-" + before + legacyAlign(value, width), buffer.toString());
+			}
+		}
+	}
+
+	/**
+	 * 与旧实现比较；比较期间跨天时日期前缀可能不同，跳过这一次
+	 */
+	private void assertFormat(String code, long value, int width) {
+		String before = legacyDate();
+		String actual = formatter.format(code, value, width);
+		if (!before.equals(legacyDate())) {
+			return;
+		}
+		assertEquals(before + (code == null ? "" : code) + legacyAlign(value, width), actual);
+	}
+
+	/**
+	 * 均匀覆盖各个位数，包括负数
+	 */
+	private long randomValue() {
+		long value = random.nextLong() >>> random.nextInt(64);
+		return random.nextInt(4) == 0 ? -value : value;
+	}
+
+	private String randomCode() {
+		switch (random.nextInt(3)) {
+		case 0:
+			return null;
+		case 1:
+			return "";
+		default:
+			return String.valueOf(random.nextInt(1000));
+		}
+	}
+
+	/**
+	 * 旧实现的补0方式
+	 */
+	private static String legacyAlign(long value, int width) {
+		return StringUtils.alignRight(String.valueOf(value), width, "0");
+	}
+
+	/**
+	 * 旧实现的日期前缀 YYYYMMDD
+	 */
+	private static String legacyDate() {
+		Calendar rightNow = Calendar.getInstance();
+		int year = rightNow.get(Calendar.YEAR);
+		int month = rightNow.get(Calendar.MONTH) + 1;
+		int day = rightNow.get(Calendar.DAY_OF_MONTH);
+		StringBuilder sb = new StringBuilder();
+		sb.append(year).append(month < 10 ? "0" + month : month).append(day < 10 ? "0" + day : day);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,169 @@
+package com.lyle.common.sequence.impl;
+
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.lyle.common.sequence.Sequence;
+
+/**
+ * 多线程并发取值时频繁切换sequence段(CAS选出切换线程，其他线程自旋或挂起后依次唤醒)：
+ * 所有线程取得的值互不重复，且不会有线程一直挂起
+ */
+public class SequenceRefillConcurrencyTest {
+
+	private static final String NAME = "test";
+
+	/** 步长很小，每个线程的取值都会跨越很多段 */
+	private static final int STEP = 10;
+
+	/** 线程数多于CPU核数，切换段时一定有线程挂起 */
+	private static final int THREADS = 32;
+
+	private static final int CALLS_PER_THREAD = 2000;
+
+	/** nextValues一次最多取的个数，大于步长，会跨段 */
+	private static final int MAX_BATCH = 25;
+
+	/** 所有线程完成的最长等待时间，超过视为有线程挂起后没有被唤醒 */
+	private static final long TIMEOUT_SECONDS = 60;
+
+	private final List<EmbeddedH2> databases = new ArrayList<EmbeddedH2>();
+
+	private DefaultSequenceDAO defaultSequenceDAO;
+
+	private MultipleSequenceDAO multipleSequenceDAO;
+
+	@After
+	public void tearDown() {
+		if (defaultSequenceDAO != null) {
+			defaultSequenceDAO.destroy();
+		}
+		if (multipleSequenceDAO != null) {
+			multipleSequenceDAO.destroy();
+		}
+		for (EmbeddedH2 h2 : databases) {
+			h2.shutdown();
+		}
+	}
+
+	@Test
+	public void defaultSequenceValuesAreUnique() throws Exception {
+		assertUnique(concurrentValues(newDefaultSequence()));
+	}
+
+	@Test
+	public void defaultSequenceWithPrefetchAndAdaptiveValuesAreUnique() throws Exception {
+		DefaultSequence sequence = newDefaultSequence();
+		sequence.setPrefetch(true);
+		sequence.setAdaptive(true);
+		sequence.setAdaptiveMaxStep(STEP * 8);
+		assertUnique(concurrentValues(sequence));
+	}
+
+	@Test
+	public void multipleSequenceValuesAreUnique() throws Exception {
+		multipleSequenceDAO = new MultipleSequenceDAO();
+		List<DataSource> dataSources = new ArrayList<DataSource>();
+		for (int i = 0; i < 2; i++) {
+			EmbeddedH2 h2 = new EmbeddedH2();
+			databases.add(h2);
+			dataSources.add(h2.getDataSource());
+		}
+		multipleSequenceDAO.setDataSourceList(dataSources);
+		multipleSequenceDAO.init();
+		MultipleSequence sequence = new MultipleSequence(multipleSequenceDAO, NAME, 0, Long.MAX_VALUE, STEP);
+		sequence.init();
+
+		assertUnique(concurrentValues(sequence));
+	}
+
+	private DefaultSequence newDefaultSequence() throws Exception {
+		EmbeddedH2 h2 = new EmbeddedH2();
+		databases.add(h2);
+		defaultSequenceDAO = new DefaultSequenceDAO();
+		defaultSequenceDAO.setSequenceDataSourceHolder(new SequenceDataSourceHolder(h2.getDataSource()));
+		defaultSequenceDAO.init();
+		DefaultSequence sequence = new DefaultSequence(defaultSequenceDAO, NAME, 0, Long.MAX_VALUE, STEP);
+		sequence.init();
+		return sequence;
+	}
+
+	/**
+	 * 每个线程交替调用nextValue和nextValues，返回所有线程取得的值
+	 */
+	private static long[] concurrentValues(final Sequence sequence) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<long[]>> futures = new ArrayList<Future<long[]>>();
+			for (int i = 0; i < THREADS; i++) {
+				final long seed = i;
+				futures.add(executor.submit(new Callable<long[]>() {
+					public long[] call() throws Exception {
+						Random random = new Random(seed);
+						long[] values = new long[CALLS_PER_THREAD * MAX_BATCH];
+						int count = 0;
+						start.await();
+						for (int j = 0; j < CALLS_PER_THREAD; j++) {
+							if (random.nextBoolean()) {
+								values[count++] = sequence.nextValue();
+							} else {
+								long[] batch = sequence.nextValues(1 + random.nextInt(MAX_BATCH));
+								System.arraycopy(batch, 0, values, count, batch.length);
+								count += batch.length;
+							}
+						}
+						return Arrays.copyOf(values, count);
+					}
+				}));
+			}
+			start.countDown();
+			List<long[]> results = new ArrayList<long[]>();
+			int total = 0;
+			for (Future<long[]> future : futures) {
+				try {
+					long[] values = future.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+					results.add(values);
+					total += values.length;
+				} catch (TimeoutException e) {
+					fail("some threads are still waiting for the refill after " + TIMEOUT_SECONDS + "s");
+				}
+			}
+			long[] all = new long[total];
+			int offset = 0;
+			for (long[] values : results) {
+				System.arraycopy(values, 0, all, offset, values.length);
+				offset += values.length;
+			}
+			return all;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static void assertUnique(long[] values) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		for (int i = 1; i < sorted.length; i++) {
+			if (sorted[i] == sorted[i - 1]) {
+				fail("duplicate value " + sorted[i]);
+			}
+		}
+	}
+}